@@ -21,6 +21,10 @@ import java.lang.annotation.Target;
  * 
  * "method" should be the name of the method for which to set visibility
  * 
+ * "descriptor" may be the method descriptor (example: "(I)V") to set the
+ * visibility of only that method, by default every method with the given name
+ * is modified
+ * 
  * "visibility" should be "public", "protected", or "private"
  * 
  * @author Ben Holland
@@ -30,5 +34,6 @@ public @interface DefineMethodVisibility {
 	int phase() default 1;
 	String type();
 	String method();
+	String descriptor() default "";
 	String visibility();
 }
@@ -21,6 +21,10 @@ import java.lang.annotation.Target;
  * 
  * "method" should be the name of the method for which to set finality
  * 
+ * "descriptor" may be the method descriptor (example: "(I)V") to set the
+ * finality of only that method, by default every method with the given name
+ * is modified
+ * 
  * "finality" should be a boolean true to add or boolean false to remove the
  * final keyword
  * 
@@ -31,5 +35,6 @@ public @interface DefineMethodFinality {
 	int phase() default 1;
 	String type();
 	String method();
+	String descriptor() default "";
 	boolean finality();
 }
@@ -15,10 +15,14 @@ import java.lang.annotation.Target;
 /**
  * Indicates the annotated method should be purged from the base type.
  * 
+ * "descriptor" may be the method descriptor (example: "(I)V") to purge only
+ * that method, by default every method with the given name is purged
+ * 
  * @author Ben Holland
  */
 public @interface PurgeMethod {
 	int phase() default 1;
 	String type() default "";
 	String method() default "";
+	String descriptor() default "";
 }
@@ -0,0 +1,109 @@
+package jreframeworker.engine;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import jreframeworker.engine.log.Log;
+import jreframeworker.engine.utils.MemberIndex;
+
+/**
+ * This class is responsible for preserving the base methods that are
+ * replaced by merged methods. Each base method matching a method to merge is
+ * renamed with the merge rename prefix, made private to hide it from the end
+ * user, and stripped of its annotations.
+ * 
+ * The qualified name and descriptor of each renamed method is recorded so
+ * that a following MergeAdapter can redirect calls to the preserved methods.
+ */
+public class MergeRenameAdapter extends ClassVisitor {
+
+	private Collection<MethodNode> methodsToMerge;
+	private MemberIndex methodsToMergeIndex;
+	private String mergeRenamePrefix;
+	private LinkedList<String> qualifiedRenamedMethods;
+	private Set<MethodNode> foundTargetMethods = new HashSet<MethodNode>();
+	private String className;
+
+	public MergeRenameAdapter(ClassVisitor classVisitor, Collection<MethodNode> methodsToMerge, String mergeRenamePrefix, LinkedList<String> qualifiedRenamedMethods) {
+		super(Opcodes.ASM5, classVisitor);
+		this.methodsToMerge = methodsToMerge;
+		this.methodsToMergeIndex = new MemberIndex(methodsToMerge, new LinkedList<FieldNode>());
+		this.mergeRenamePrefix = mergeRenamePrefix;
+		this.qualifiedRenamedMethods = qualifiedRenamedMethods;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		this.className = name;
+		super.visit(version, access, name, signature, superName, interfaces);
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+		MethodNode methodToMerge = methodsToMergeIndex.getMethod(name, desc, signature);
+		if(methodToMerge == null){
+			return super.visitMethod(access, name, desc, signature, exceptions);
+		}
+		foundTargetMethods.add(methodToMerge);
+		
+		// rename the method
+		String renamedMethodName = mergeRenamePrefix + name;
+		qualifiedRenamedMethods.add(className + "." + name + desc);
+		
+		// make the method private to hide it from the end user
+		access = access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
+		access = access | Opcodes.ACC_PRIVATE;
+		
+		Log.info("Renamed " + name + " to " + renamedMethodName);
+		
+		MethodVisitor methodVisitor = super.visitMethod(access, renamedMethodName, desc, signature, exceptions);
+		if(methodVisitor == null){
+			return null;
+		}
+		
+		// remove any annotations from renamed base methods
+		return new MethodVisitor(Opcodes.ASM5, methodVisitor) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+				return null;
+			}
+			
+			@Override
+			public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+				return null;
+			}
+			
+			@Override
+			public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+				return null;
+			}
+			
+			@Override
+			public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String desc, boolean visible) {
+				return null;
+			}
+		};
+	}
+
+	@Override
+	public void visitEnd() {
+		for(MethodNode methodToMerge : methodsToMerge){
+			if(!foundTargetMethods.contains(methodToMerge)){
+				Log.warning("Target method " + methodToMerge.desc.toString() + " does not exist! Runtime behavior may not be correct.");
+			}
+		}
+		super.visitEnd();
+	}
+
+}
@@ -0,0 +1,127 @@
+package jreframeworker.engine.identifiers;
+
+import java.util.EnumSet;
+
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import jreframeworker.engine.identifiers.JREFAnnotationKind.Category;
+
+/**
+ * The JReFrameworker annotations of a class. The annotations of the class,
+ * its methods, and its fields are each classified once, in a single pass, and
+ * the purge, finality, visibility, define, and merge identifiers are built
+ * together from that pass.
+ */
+public class AnnotationModel {
+
+	private EnumSet<JREFAnnotationKind> typeAnnotationKinds = EnumSet.noneOf(JREFAnnotationKind.class);
+	private EnumSet<Category> typeAnnotationCategories = EnumSet.noneOf(Category.class);
+
+	private PurgeIdentifier purgeIdentifier = new PurgeIdentifier();
+	private DefineFinalityIdentifier defineFinalityIdentifier = new DefineFinalityIdentifier();
+	private DefineVisibilityIdentifier defineVisibilityIdentifier = new DefineVisibilityIdentifier();
+	private DefineIdentifier defineIdentifier = new DefineIdentifier();
+	private MergeIdentifier mergeIdentifier = new MergeIdentifier();
+
+	public AnnotationModel(ClassNode classNode) {
+		// types
+		if (classNode.invisibleAnnotations != null) {
+			for (Object annotationObject : classNode.invisibleAnnotations) {
+				AnnotationNode annotation = (AnnotationNode) annotationObject;
+				JREFAnnotationKind kind = JREFAnnotationKind.getKind(annotation.desc);
+				if(kind == null){
+					continue;
+				}
+				typeAnnotationKinds.add(kind);
+				typeAnnotationCategories.add(kind.getCategory());
+				switch(kind.getCategory()){
+					case PURGE: purgeIdentifier.visitTypeAnnotation(classNode, annotation, kind); break;
+					case FINALITY: defineFinalityIdentifier.visitTypeAnnotation(classNode, annotation, kind); break;
+					case VISIBILITY: defineVisibilityIdentifier.visitTypeAnnotation(classNode, annotation, kind); break;
+					case DEFINE: defineIdentifier.visitTypeAnnotation(classNode, annotation, kind); break;
+					case MERGE: mergeIdentifier.visitTypeAnnotation(classNode, annotation, kind); break;
+				}
+			}
+		}
+
+		// methods
+		for (Object o : classNode.methods) {
+			MethodNode methodNode = (MethodNode) o;
+			if (methodNode.invisibleAnnotations != null) {
+				for (Object annotationObject : methodNode.invisibleAnnotations) {
+					AnnotationNode annotation = (AnnotationNode) annotationObject;
+					JREFAnnotationKind kind = JREFAnnotationKind.getKind(annotation.desc);
+					if(kind == JREFAnnotationKind.DEFINE_METHOD){
+						defineIdentifier.visitMethodAnnotation(methodNode, annotation, kind);
+					} else if(kind == JREFAnnotationKind.MERGE_METHOD){
+						mergeIdentifier.visitMethodAnnotation(methodNode, annotation, kind);
+					}
+				}
+			}
+		}
+
+		// fields
+		for (Object o : classNode.fields) {
+			FieldNode fieldNode = (FieldNode) o;
+			if (fieldNode.invisibleAnnotations != null) {
+				for (Object annotationObject : fieldNode.invisibleAnnotations) {
+					AnnotationNode annotation = (AnnotationNode) annotationObject;
+					JREFAnnotationKind kind = JREFAnnotationKind.getKind(annotation.desc);
+					if(kind == JREFAnnotationKind.DEFINE_FIELD){
+						defineIdentifier.visitFieldAnnotation(fieldNode, annotation, kind);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the class is annotated with the given kind of annotation
+	 * @param kind
+	 * @return
+	 */
+	public boolean hasTypeAnnotation(JREFAnnotationKind kind){
+		return typeAnnotationKinds.contains(kind);
+	}
+
+	/**
+	 * Returns true if the class is annotated with any annotation of the given category
+	 * @param category
+	 * @return
+	 */
+	public boolean hasTypeAnnotation(Category category){
+		return typeAnnotationCategories.contains(category);
+	}
+
+	/**
+	 * Returns true if the class is annotated with any JReFrameworker annotation
+	 * @return
+	 */
+	public boolean hasTypeAnnotations(){
+		return !typeAnnotationKinds.isEmpty();
+	}
+
+	public PurgeIdentifier getPurgeIdentifier() {
+		return purgeIdentifier;
+	}
+
+	public DefineFinalityIdentifier getDefineFinalityIdentifier() {
+		return defineFinalityIdentifier;
+	}
+
+	public DefineVisibilityIdentifier getDefineVisibilityIdentifier() {
+		return defineVisibilityIdentifier;
+	}
+
+	public DefineIdentifier getDefineIdentifier() {
+		return defineIdentifier;
+	}
+
+	public MergeIdentifier getMergeIdentifier() {
+		return mergeIdentifier;
+	}
+
+}
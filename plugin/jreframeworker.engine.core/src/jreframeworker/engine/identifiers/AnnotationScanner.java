@@ -0,0 +1,90 @@
+package jreframeworker.engine.identifiers;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Reads the JReFrameworker annotations of a class without reading its method
+ * bodies. Code, debug information, and stack map frames are skipped, so only
+ * the class header and the declarations of its fields and methods are read.
+ *
+ * Classes without any JReFrameworker type annotation are rejected by a first
+ * pass that only visits the annotations of the type.
+ */
+public class AnnotationScanner {
+
+	private static final int HEADER_ONLY = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+	/**
+	 * Returns the JReFrameworker annotations of the class, the model of a
+	 * class without any JReFrameworker type annotation is empty
+	 * @param classBytes
+	 * @return
+	 */
+	public static AnnotationModel scan(byte[] classBytes){
+		if(!hasTypeAnnotations(classBytes)){
+			return new AnnotationModel(new ClassNode());
+		}
+		return new AnnotationModel(getClassHeader(classBytes));
+	}
+
+	/**
+	 * Returns true if the class is annotated with any JReFrameworker type annotation
+	 * @param classBytes
+	 * @return
+	 */
+	public static boolean hasTypeAnnotations(byte[] classBytes){
+		TypeAnnotationVisitor visitor = new TypeAnnotationVisitor();
+		new ClassReader(classBytes).accept(visitor, HEADER_ONLY);
+		return visitor.annotated;
+	}
+
+	/**
+	 * Reads the class header and the declarations and annotations of its
+	 * fields and methods, the methods of the class node have no instructions
+	 * @param classBytes
+	 * @return
+	 */
+	public static ClassNode getClassHeader(byte[] classBytes){
+		ClassNode classNode = new ClassNode();
+		new ClassReader(classBytes).accept(classNode, HEADER_ONLY);
+		return classNode;
+	}
+
+	/**
+	 * Records whether the type carries a JReFrameworker annotation, fields and
+	 * methods are not visited
+	 */
+	private static class TypeAnnotationVisitor extends ClassVisitor {
+		private boolean annotated = false;
+
+		public TypeAnnotationVisitor() {
+			super(Opcodes.ASM5);
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			// JReFrameworker annotations are not retained at runtime
+			if(!visible && JREFAnnotationKind.getKind(desc) != null){
+				annotated = true;
+			}
+			return null;
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+			return null;
+		}
+	}
+
+}
@@ -4,19 +4,34 @@ import java.util.LinkedList;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import jreframeworker.engine.utils.MemberIndex;
+
 public class BaseMethodsIdentifier {
 
 	private LinkedList<MethodNode> baseMethods = new LinkedList<MethodNode>();
+	private MemberIndex baseMemberIndex;
 
 	public BaseMethodsIdentifier(ClassNode classNode) {
     	for (Object o : classNode.methods) {
 			MethodNode methodNode = (MethodNode) o;
 			baseMethods.add(methodNode);
     	}
+    	baseMemberIndex = new MemberIndex(classNode);
     }
 	
     public LinkedList<MethodNode> getBaseMethods() {
 		return baseMethods;
 	}
     
+    /**
+     * Returns the base method with the same name, descriptor, and (if both
+     * methods have one) signature as the given method or null if the base
+     * class has no such method
+     * @param methodNode
+     * @return
+     */
+    public MethodNode getBaseMethod(MethodNode methodNode) {
+    	return baseMemberIndex.getMethod(methodNode.name, methodNode.desc, methodNode.signature);
+    }
+    
 }
@@ -56,17 +56,16 @@ public class DefineIdentifier {
 	private LinkedList<DefineMethodAnnotation> targetMethods = new LinkedList<DefineMethodAnnotation>();
 	private LinkedList<DefineFieldAnnotation> targetFields = new LinkedList<DefineFieldAnnotation>();
 
+	/**
+	 * Creates an empty identifier, annotations are added with the visit methods
+	 */
+	DefineIdentifier() {}
+
 	public DefineIdentifier(ClassNode classNode) {
 		if (classNode.invisibleAnnotations != null) {
 			for (Object annotationObject : classNode.invisibleAnnotations) {
 				AnnotationNode annotation = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotation.desc, false);
-				
-				// types
-				if(checker.isDefineTypeAnnotation()){
-					extractDefineTypeAnnotationValues(classNode, annotation);
-				}	
+				visitTypeAnnotation(classNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
 			}
 		}
 		
@@ -76,11 +75,7 @@ public class DefineIdentifier {
 			if (methodNode.invisibleAnnotations != null) {
 				for (Object annotationObject : methodNode.invisibleAnnotations) {
 					AnnotationNode annotation = (AnnotationNode) annotationObject;
-					JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-					checker.visitAnnotation(annotation.desc, false);
-					if(checker.isDefineMethodAnnotation()){
-						extractDefineMethodValues(methodNode, annotation);
-					}
+					visitMethodAnnotation(methodNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
 				}
 			}
     	}
@@ -91,16 +86,30 @@ public class DefineIdentifier {
 			if (fieldNode.invisibleAnnotations != null) {
 				for (Object annotationObject : fieldNode.invisibleAnnotations) {
 					AnnotationNode annotation = (AnnotationNode) annotationObject;
-					JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-					checker.visitAnnotation(annotation.desc, false);
-					if(checker.isDefineFieldAnnotation()){
-						extractDefineFieldValues(fieldNode, annotation);
-					} 
+					visitFieldAnnotation(fieldNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
 				}
 			}
     	}
 	}
 
+	void visitTypeAnnotation(ClassNode classNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		if(kind == JREFAnnotationKind.DEFINE_TYPE){
+			extractDefineTypeAnnotationValues(classNode, annotation);
+		}
+	}
+
+	void visitMethodAnnotation(MethodNode methodNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		if(kind == JREFAnnotationKind.DEFINE_METHOD){
+			extractDefineMethodValues(methodNode, annotation);
+		}
+	}
+
+	void visitFieldAnnotation(FieldNode fieldNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		if(kind == JREFAnnotationKind.DEFINE_FIELD){
+			extractDefineFieldValues(fieldNode, annotation);
+		}
+	}
+
 	private void extractDefineFieldValues(FieldNode fieldNode, AnnotationNode annotation) {
 		if(fieldNode != null){
 	    	targetFields.add(new DefineFieldAnnotation(fieldNode));
@@ -123,9 +132,9 @@ public class DefineIdentifier {
 		        	phaseValue = (int) value;
 		        }
 		    }
-		    if(classNode != null){
-		    	targetType = new DefineTypeAnnotation(phaseValue, classNode);
-		    }
+		}
+		if(classNode != null){
+			targetType = new DefineTypeAnnotation(phaseValue, classNode);
 		}
 	}
 
@@ -27,7 +27,10 @@ public class DefineVisibilityIdentifier {
 	}
 	
 	public static Set<String> getVisibilityTargets(ClassNode classNode) throws IOException {
-		DefineVisibilityIdentifier visibilityIdentifier = new DefineVisibilityIdentifier(classNode);
+		return getVisibilityTargets(new DefineVisibilityIdentifier(classNode));
+	}
+	
+	public static Set<String> getVisibilityTargets(DefineVisibilityIdentifier visibilityIdentifier) {
 		Set<String> targets = new HashSet<String>();
 		for(DefineTypeVisibilityAnnotation annotation : visibilityIdentifier.getTargetTypes()){
 			targets.add(annotation.getClassName());
@@ -41,8 +44,30 @@ public class DefineVisibilityIdentifier {
 		return targets;
 	}
 	
+	/**
+	 * Returns the classes given a new visibility by the class, only the class header is read
+	 * @param classBytes
+	 * @return
+	 */
+	public static Set<String> getVisibilityTargets(byte[] classBytes) {
+		return getVisibilityTargets(AnnotationScanner.scan(classBytes).getDefineVisibilityIdentifier());
+	}
+	
+	/**
+	 * Returns the classes given a new visibility by the class in the given phase, only the class header is read
+	 * @param classBytes
+	 * @param phase
+	 * @return
+	 */
+	public static Set<String> getVisibilityTargets(byte[] classBytes, int phase) {
+		return getVisibilityTargets(AnnotationScanner.scan(classBytes).getDefineVisibilityIdentifier(), phase);
+	}
+	
 	public static Set<String> getVisibilityTargets(ClassNode classNode, int phase) throws IOException {
-		DefineVisibilityIdentifier visibilityIdentifier = new DefineVisibilityIdentifier(classNode);
+		return getVisibilityTargets(new DefineVisibilityIdentifier(classNode), phase);
+	}
+	
+	public static Set<String> getVisibilityTargets(DefineVisibilityIdentifier visibilityIdentifier, int phase) {
 		Set<String> targets = new HashSet<String>();
 		for(DefineTypeVisibilityAnnotation annotation : visibilityIdentifier.getTargetTypes()){
 			if(annotation.getPhase() == phase){
@@ -66,6 +91,7 @@ public class DefineVisibilityIdentifier {
 	private static final String TYPE = "type";
 	private static final String FIELD = "field";
 	private static final String METHOD = "method";
+	private static final String DESCRIPTOR = "descriptor";
 	private static final String VISIBILITY = "visibility";
 	
 	public static class DefineTypeVisibilityAnnotation {
@@ -96,12 +122,21 @@ public class DefineVisibilityIdentifier {
 		private int phase;
 		private String className;
 		private String methodName;
+		private String methodDescriptor;
 		private Visibility visibility;
 		
 		public DefineMethodVisibilityAnnotation(int phase, String className, String methodName, Visibility visibility) {
+			this(phase, className, methodName, null, visibility);
+		}
+		
+		/**
+		 * @param methodDescriptor The method descriptor to match or null to match every method with the name
+		 */
+		public DefineMethodVisibilityAnnotation(int phase, String className, String methodName, String methodDescriptor, Visibility visibility) {
 			this.phase = phase;
 			this.className = className;
 			this.methodName = methodName;
+			this.methodDescriptor = methodDescriptor;
 			this.visibility = visibility;
 		}
 		
@@ -117,6 +152,15 @@ public class DefineVisibilityIdentifier {
 			return methodName;
 		}
 		
+		/**
+		 * Returns the descriptor of the method to match or null if every method
+		 * with the name should be matched
+		 * @return
+		 */
+		public String getMethodDescriptor(){
+			return methodDescriptor;
+		}
+		
 		public Visibility getVisibility(){
 			return visibility;
 		}
@@ -156,67 +200,76 @@ public class DefineVisibilityIdentifier {
 	private LinkedList<DefineMethodVisibilityAnnotation> targetMethods = new LinkedList<DefineMethodVisibilityAnnotation>();
 	private LinkedList<DefineFieldVisibilityAnnotation> targetFields = new LinkedList<DefineFieldVisibilityAnnotation>();
 
-	@SuppressWarnings("rawtypes")
+	/**
+	 * Creates an empty identifier, annotations are added with visitTypeAnnotation
+	 */
+	DefineVisibilityIdentifier() {}
+
 	public DefineVisibilityIdentifier(ClassNode classNode) {
 		if (classNode.invisibleAnnotations != null) {
 			for (Object annotationObject : classNode.invisibleAnnotations) {
 				AnnotationNode annotation = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotation.desc, false);
-				
-				// type visibilities
-				if(checker.isDefineTypeVisibilitiesAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractDefineTypeVisibilityAnnotationValues(classNode, annotationValue);
-								}
-							}
+				visitTypeAnnotation(classNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
+			}
+		}
+    }
+
+	/**
+	 * Extracts the values of a type annotation of the given kind
+	 */
+	@SuppressWarnings("rawtypes")
+	void visitTypeAnnotation(ClassNode classNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		// type visibilities
+		if(kind == JREFAnnotationKind.DEFINE_TYPE_VISIBILITIES){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractDefineTypeVisibilityAnnotationValues(classNode, annotationValue);
 						}
-						
 					}
-				} else if(checker.isDefineTypeVisibilityAnnotation()){
-					extractDefineTypeVisibilityAnnotationValues(classNode, annotation);
-				} 
-				
-				// method visibilities
-				else if(checker.isDefineMethodVisibilitiesAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractDefineMethodVisibilityAnnotationValues(classNode, annotationValue);
-								}
-							}
+				}
+
+			}
+		} else if(kind == JREFAnnotationKind.DEFINE_TYPE_VISIBILITY){
+			extractDefineTypeVisibilityAnnotationValues(classNode, annotation);
+		} 
+
+		// method visibilities
+		else if(kind == JREFAnnotationKind.DEFINE_METHOD_VISIBILITIES){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractDefineMethodVisibilityAnnotationValues(classNode, annotationValue);
 						}
-						
 					}
-				} else if(checker.isDefineMethodVisibilityAnnotation()){
-					extractDefineMethodVisibilityAnnotationValues(classNode, annotation);
-				} 
-				
-				// field visibilities
-				else if(checker.isDefineFieldVisibilitiesAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractDefineFieldVisibilityAnnotationValues(classNode, annotationValue);
-								}
-							}
+				}
+
+			}
+		} else if(kind == JREFAnnotationKind.DEFINE_METHOD_VISIBILITY){
+			extractDefineMethodVisibilityAnnotationValues(classNode, annotation);
+		} 
+
+		// field visibilities
+		else if(kind == JREFAnnotationKind.DEFINE_FIELD_VISIBILITIES){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractDefineFieldVisibilityAnnotationValues(classNode, annotationValue);
 						}
-						
 					}
-				} else if(checker.isDefineFieldVisibilityAnnotation()){
-					extractDefineFieldVisibilityAnnotationValues(classNode, annotation);
-				} 	
+				}
+
 			}
-		}
-    }
+		} else if(kind == JREFAnnotationKind.DEFINE_FIELD_VISIBILITY){
+			extractDefineFieldVisibilityAnnotationValues(classNode, annotation);
+		} 	
+	}
 
 	private void extractDefineFieldVisibilityAnnotationValues(ClassNode classNode, AnnotationNode annotation) {
 		int phaseValue = 1; // default to 1
@@ -252,6 +305,7 @@ public class DefineVisibilityIdentifier {
 		int phaseValue = 1; // default to 1
 		String typeValue = null;
 		String methodValue = null;
+		String descriptorValue = null;
 		Visibility visibilityValue = null;
 		if (annotation.values != null) {
 		    for (int i = 0; i < annotation.values.size(); i += 2) {
@@ -263,6 +317,8 @@ public class DefineVisibilityIdentifier {
 		        	typeValue = ((String)value).replaceAll("\\.", "/");
 		        } else if(name.equals(METHOD)){
 		        	methodValue = (String) value;
+		        } else if(name.equals(DESCRIPTOR)){
+		        	descriptorValue = ((String) value).equals("") ? null : (String) value;
 		        } else if(name.equals(VISIBILITY)){
 		        	String valueString = (String) value;
 		        	visibilityValue = Visibility.getVisibilityFromString(valueString);
@@ -273,7 +329,7 @@ public class DefineVisibilityIdentifier {
 		    	if(className.equals("")){
 		    		className = classNode.superName;
 		    	}
-		    	targetMethods.add(new DefineMethodVisibilityAnnotation(phaseValue, className, methodValue, visibilityValue));
+		    	targetMethods.add(new DefineMethodVisibilityAnnotation(phaseValue, className, methodValue, descriptorValue, visibilityValue));
 		    }
 		}
 	}
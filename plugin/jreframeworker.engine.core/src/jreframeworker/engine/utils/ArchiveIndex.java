@@ -0,0 +1,446 @@
+package jreframeworker.engine.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A random access index of an archive's central directory. The central
+ * directory is parsed once and each entry name is mapped to its local header
+ * offset and compressed size so that individual entries can be read without
+ * scanning the archive from the start.
+ *
+ * Reads are positional and may be made concurrently. The underlying file
+ * channel is opened lazily and may be closed and reopened at any time.
+ */
+public class ArchiveIndex implements Closeable {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EXTRA_FIELD = 0x0001;
+
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int LOCAL_EXTRA_SIZE_ESTIMATE = 64;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	/**
+	 * An archive entry as recorded in the central directory
+	 */
+	public static class Entry {
+		private String name;
+		private int flags;
+		private int method;
+		private long time;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long localHeaderOffset;
+
+		private Entry(String name, int flags, int method, long time, long crc, long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.time = time;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Returns the general purpose bit flags of the entry
+		 * @return
+		 */
+		public int getFlags(){
+			return flags;
+		}
+
+		/**
+		 * Returns the compression method (ZipEntry.STORED or ZipEntry.DEFLATED)
+		 * @return
+		 */
+		public int getMethod(){
+			return method;
+		}
+
+		/**
+		 * Returns the MS-DOS encoded modification time and date of the entry
+		 * @return
+		 */
+		public long getTime(){
+			return time;
+		}
+
+		public long getCrc(){
+			return crc;
+		}
+
+		public long getCompressedSize(){
+			return compressedSize;
+		}
+
+		public long getSize(){
+			return size;
+		}
+
+		public long getLocalHeaderOffset(){
+			return localHeaderOffset;
+		}
+
+		public boolean isDirectory(){
+			return name.endsWith(JarModifier.SEPERATOR);
+		}
+	}
+
+	private File archive;
+	private FileChannel channel;
+	private LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>();
+
+	/**
+	 * Creates a new index of the given archive's central directory
+	 *
+	 * @param archive
+	 * @throws IOException
+	 */
+	public ArchiveIndex(File archive) throws IOException {
+		this.archive = archive;
+		readCentralDirectory(getChannel());
+	}
+
+	public File getArchive(){
+		return archive;
+	}
+
+	/**
+	 * Returns the indexed entry with the given name or null if the archive does not contain the entry
+	 * @param name
+	 * @return
+	 */
+	public Entry getEntry(String name){
+		return entries.get(name);
+	}
+
+	public boolean containsEntry(String name){
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Returns the indexed entries in the order they are recorded in the central directory
+	 * @return
+	 */
+	public Collection<Entry> getEntries(){
+		return Collections.unmodifiableCollection(entries.values());
+	}
+
+	/**
+	 * Returns the indexed entry names in the order they are recorded in the central directory
+	 * @return
+	 */
+	public Set<String> getEntryNames(){
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	public int size(){
+		return entries.size();
+	}
+
+	/**
+	 * Returns the uncompressed contents of the given entry
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		checkSize(entry);
+		return decompress(entry, readCompressed(entry));
+	}
+
+	/**
+	 * Returns the uncompressed contents of the given entries, keyed by entry
+	 * name. The entries are read in a single forward pass over the archive in
+	 * the order their data is laid out on disk, which is considerably faster
+	 * than reading a large number of entries individually.
+	 *
+	 * @param entries
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String,byte[]> read(Collection<Entry> entries) throws IOException {
+		List<Entry> sortedEntries = new ArrayList<Entry>(entries);
+		Collections.sort(sortedEntries, new Comparator<Entry>(){
+			@Override
+			public int compare(Entry a, Entry b) {
+				return Long.compare(a.getLocalHeaderOffset(), b.getLocalHeaderOffset());
+			}
+		});
+		Map<String,byte[]> result = new LinkedHashMap<String,byte[]>();
+		FileChannel channel = getChannel();
+		long archiveSize = channel.size();
+		for(Entry entry : sortedEntries){
+			result.put(entry.getName(), readEntry(channel, archiveSize, entry));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads an entry's local header and data with a single read
+	 */
+	private static byte[] readEntry(FileChannel channel, long archiveSize, Entry entry) throws IOException {
+		checkSize(entry);
+		// assume the local extra field is small so that the header and data can be read together
+		int nameLength = entry.getName().getBytes(StandardCharsets.UTF_8).length;
+		long length = Math.min(LOCAL_HEADER_SIZE + nameLength + LOCAL_EXTRA_SIZE_ESTIMATE + entry.getCompressedSize(), archiveSize - entry.getLocalHeaderOffset());
+		if(length < LOCAL_HEADER_SIZE || length > Integer.MAX_VALUE){
+			throw new ZipException("Invalid local header for entry: " + entry.getName());
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, buffer, entry.getLocalHeaderOffset());
+		if(buffer.getInt(0) != LOCAL_HEADER_SIGNATURE){
+			throw new ZipException("Invalid local header for entry: " + entry.getName());
+		}
+		int dataStart = LOCAL_HEADER_SIZE + (buffer.getShort(26) & 0xFFFF) + (buffer.getShort(28) & 0xFFFF);
+		byte[] compressedBytes = new byte[(int) entry.getCompressedSize()];
+		if(dataStart + compressedBytes.length <= length){
+			buffer.position(dataStart);
+			buffer.get(compressedBytes);
+		} else {
+			// the extra field was larger than expected
+			readFully(channel, ByteBuffer.wrap(compressedBytes), entry.getLocalHeaderOffset() + dataStart);
+		}
+		return decompress(entry, compressedBytes);
+	}
+
+	private static void checkSize(Entry entry) throws ZipException {
+		if(entry.getSize() > Integer.MAX_VALUE || entry.getCompressedSize() > Integer.MAX_VALUE){
+			throw new ZipException("Entry is too large to be read into memory: " + entry.getName());
+		}
+	}
+
+	private static byte[] decompress(Entry entry, byte[] compressedBytes) throws IOException {
+		if(entry.getMethod() == ZipEntry.STORED){
+			return compressedBytes;
+		} else if(entry.getMethod() == ZipEntry.DEFLATED){
+			byte[] bytes = new byte[(int) entry.getSize()];
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(compressedBytes);
+				int length = 0;
+				boolean suppliedDummyInput = false;
+				while(length < bytes.length){
+					int inflated = inflater.inflate(bytes, length, bytes.length - length);
+					if(inflated == 0){
+						if(inflater.needsInput() && !suppliedDummyInput){
+							// the nowrap inflater may require an extra dummy byte of input
+							inflater.setInput(new byte[1]);
+							suppliedDummyInput = true;
+							continue;
+						}
+						break;
+					}
+					length += inflated;
+				}
+				if(length != bytes.length){
+					throw new ZipException("Truncated entry: " + entry.getName());
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException("Invalid compressed data in entry " + entry.getName() + ": " + e.getMessage());
+			} finally {
+				inflater.end();
+			}
+			return bytes;
+		} else {
+			throw new ZipException("Unsupported compression method " + entry.getMethod() + " for entry: " + entry.getName());
+		}
+	}
+
+	/**
+	 * Returns the raw (possibly compressed) data of the given entry
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readCompressed(Entry entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) entry.getCompressedSize());
+		readFully(getChannel(), buffer, getDataOffset(entry));
+		return buffer.array();
+	}
+
+	/**
+	 * Returns the file offset of the first byte of the entry's data, which
+	 * follows the variable length local file header
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public long getDataOffset(Entry entry) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(getChannel(), header, entry.getLocalHeaderOffset());
+		if(header.getInt(0) != LOCAL_HEADER_SIGNATURE){
+			throw new ZipException("Invalid local header for entry: " + entry.getName());
+		}
+		int nameLength = header.getShort(26) & 0xFFFF;
+		int extraLength = header.getShort(28) & 0xFFFF;
+		return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	/**
+	 * Returns an open channel to the indexed archive, reopening the archive if
+	 * the index was previously closed
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized FileChannel getChannel() throws IOException {
+		if(channel == null || !channel.isOpen()){
+			channel = new RandomAccessFile(archive, "r").getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * Closes the underlying file channel, the index remains usable and the
+	 * archive will be reopened on the next read
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(channel != null){
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private void readCentralDirectory(FileChannel channel) throws IOException {
+		long archiveSize = channel.size();
+		if(archiveSize < END_OF_CENTRAL_DIRECTORY_SIZE){
+			throw new ZipException("Archive is too small to be valid: " + archive.getName());
+		}
+
+		// the end of central directory record is at the end of the archive followed by an optional comment
+		int tailSize = (int) Math.min(archiveSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+		ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, tail, archiveSize - tailSize);
+		int endOfCentralDirectory = -1;
+		for(int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--){
+			if(tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE){
+				endOfCentralDirectory = i;
+				break;
+			}
+		}
+		if(endOfCentralDirectory == -1){
+			throw new ZipException("Could not locate the central directory of: " + archive.getName());
+		}
+
+		long entryCount = tail.getShort(endOfCentralDirectory + 10) & 0xFFFF;
+		long centralDirectorySize = tail.getInt(endOfCentralDirectory + 12) & ZIP64_MAGIC;
+		long centralDirectoryOffset = tail.getInt(endOfCentralDirectory + 16) & ZIP64_MAGIC;
+
+		// large archives record the real values in the zip64 end of central directory record
+		long locator = endOfCentralDirectory - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+		if(locator >= 0 && tail.getInt((int) locator) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE){
+			long zip64EndOfCentralDirectoryOffset = tail.getLong((int) locator + 8);
+			ByteBuffer zip64EndOfCentralDirectory = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, zip64EndOfCentralDirectory, zip64EndOfCentralDirectoryOffset);
+			if(zip64EndOfCentralDirectory.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE){
+				entryCount = zip64EndOfCentralDirectory.getLong(32);
+				centralDirectorySize = zip64EndOfCentralDirectory.getLong(40);
+				centralDirectoryOffset = zip64EndOfCentralDirectory.getLong(48);
+			}
+		}
+		if(centralDirectorySize > Integer.MAX_VALUE){
+			throw new ZipException("Central directory is too large: " + archive.getName());
+		}
+
+		ByteBuffer centralDirectory = ByteBuffer.allocate((int) centralDirectorySize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, centralDirectory, centralDirectoryOffset);
+		int position = 0;
+		for(long i = 0; i < entryCount; i++){
+			if(position + CENTRAL_HEADER_SIZE > centralDirectorySize || centralDirectory.getInt(position) != CENTRAL_HEADER_SIGNATURE){
+				throw new ZipException("Invalid central directory header in: " + archive.getName());
+			}
+			int flags = centralDirectory.getShort(position + 8) & 0xFFFF;
+			int method = centralDirectory.getShort(position + 10) & 0xFFFF;
+			long time = centralDirectory.getInt(position + 12) & ZIP64_MAGIC;
+			long crc = centralDirectory.getInt(position + 16) & ZIP64_MAGIC;
+			long compressedSize = centralDirectory.getInt(position + 20) & ZIP64_MAGIC;
+			long size = centralDirectory.getInt(position + 24) & ZIP64_MAGIC;
+			int nameLength = centralDirectory.getShort(position + 28) & 0xFFFF;
+			int extraLength = centralDirectory.getShort(position + 30) & 0xFFFF;
+			int commentLength = centralDirectory.getShort(position + 32) & 0xFFFF;
+			long localHeaderOffset = centralDirectory.getInt(position + 42) & ZIP64_MAGIC;
+
+			byte[] nameBytes = new byte[nameLength];
+			centralDirectory.position(position + CENTRAL_HEADER_SIZE);
+			centralDirectory.get(nameBytes);
+			String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+			// resolve any zip64 values from the extra field
+			int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+			int extraEnd = extra + extraLength;
+			while(extra + 4 <= extraEnd){
+				int id = centralDirectory.getShort(extra) & 0xFFFF;
+				int length = centralDirectory.getShort(extra + 2) & 0xFFFF;
+				if(id == ZIP64_EXTRA_FIELD){
+					int value = extra + 4;
+					if(size == ZIP64_MAGIC){
+						size = centralDirectory.getLong(value);
+						value += 8;
+					}
+					if(compressedSize == ZIP64_MAGIC){
+						compressedSize = centralDirectory.getLong(value);
+						value += 8;
+					}
+					if(localHeaderOffset == ZIP64_MAGIC){
+						localHeaderOffset = centralDirectory.getLong(value);
+					}
+					break;
+				}
+				extra += 4 + length;
+			}
+
+			entries.put(name, new Entry(name, flags, method, time, crc, compressedSize, size, localHeaderOffset));
+			position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0){
+				throw new ZipException("Unexpected end of archive");
+			}
+		}
+	}
+
+}
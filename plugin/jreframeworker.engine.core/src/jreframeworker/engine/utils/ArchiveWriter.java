@@ -0,0 +1,398 @@
+package jreframeworker.engine.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes an archive entry by entry. Entries taken from an indexed archive are
+ * copied as raw compressed bytes with a channel to channel transfer, so only
+ * new or modified entries are ever compressed. The central directory is
+ * written when the archive is finished.
+ */
+public class ArchiveWriter implements Closeable {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EXTRA_FIELD = 0x0001;
+
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+	private static final int VERSION_ZIP64 = 45;
+
+	/**
+	 * General purpose flag indicating file names are UTF-8 encoded
+	 */
+	private static final int UTF8_FLAG = 0x800;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	/**
+	 * A record of a written entry, kept until the central directory is written
+	 */
+	private static class CentralDirectoryRecord {
+		private byte[] name;
+		private int method;
+		private long time;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long localHeaderOffset;
+
+		private CentralDirectoryRecord(byte[] name, int method, long time, long crc, long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.method = method;
+			this.time = time;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		private boolean requiresZip64(){
+			return compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC || localHeaderOffset >= ZIP64_MAGIC;
+		}
+	}
+
+	private FileOutputStream outputStream;
+	private FileChannel channel;
+	private long position = 0;
+	private long time;
+	private Set<String> names = new HashSet<String>();
+	private ByteArrayBuffer centralDirectory = new ByteArrayBuffer();
+	private int entryCount = 0;
+	private boolean zip64 = false;
+	private boolean finished = false;
+
+	/**
+	 * Creates a new archive writer for the given output file
+	 *
+	 * @param outputArchiveFile
+	 * @throws IOException
+	 */
+	public ArchiveWriter(File outputArchiveFile) throws IOException {
+		this.outputStream = new FileOutputStream(outputArchiveFile);
+		this.channel = outputStream.getChannel();
+		this.time = toDosTime(System.currentTimeMillis());
+	}
+
+	/**
+	 * An entry that has been compressed and is ready to be written
+	 */
+	public static class CompressedEntry {
+		private String name;
+		private int method;
+		private long crc;
+		private long size;
+		private byte[] data;
+
+		private CompressedEntry(String name, int method, long crc, long size, byte[] data) {
+			this.name = name;
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.data = data;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public int getMethod(){
+			return method;
+		}
+	}
+
+	/**
+	 * Compresses the contents of an entry so that it can be written later. This
+	 * method does not depend on the state of a writer and may be called
+	 * concurrently.
+	 *
+	 * @param name
+	 * @param bytes
+	 * @param method ZipEntry.STORED or ZipEntry.DEFLATED
+	 * @return
+	 */
+	public static CompressedEntry compress(String name, byte[] bytes, int method){
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		if(method == ZipEntry.STORED || (name.endsWith(JarModifier.SEPERATOR) && bytes.length == 0)){
+			// directories are always stored
+			return new CompressedEntry(name, ZipEntry.STORED, crc.getValue(), bytes.length, bytes);
+		} else {
+			return new CompressedEntry(name, ZipEntry.DEFLATED, crc.getValue(), bytes.length, deflate(bytes));
+		}
+	}
+
+	/**
+	 * Compresses and writes a new entry
+	 *
+	 * @param name
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void writeEntry(String name, byte[] bytes) throws IOException {
+		writeEntry(compress(name, bytes, ZipEntry.DEFLATED));
+	}
+
+	/**
+	 * Writes a new entry that has already been compressed
+	 *
+	 * @param entry
+	 * @throws IOException
+	 */
+	public void writeEntry(CompressedEntry entry) throws IOException {
+		CentralDirectoryRecord record = writeLocalHeader(entry.name, entry.method, time, entry.crc, entry.data.length, entry.size);
+		writeFully(ByteBuffer.wrap(entry.data));
+		position += entry.data.length;
+		addCentralDirectoryRecord(record);
+	}
+
+	/**
+	 * Copies the raw compressed data of an entry in an indexed archive without
+	 * inflating it. The entry keeps its original name, compression method and
+	 * modification time.
+	 *
+	 * @param source
+	 * @param entry
+	 * @throws IOException
+	 */
+	public void writeRawEntry(ArchiveIndex source, ArchiveIndex.Entry entry) throws IOException {
+		long dataOffset = source.getDataOffset(entry);
+		CentralDirectoryRecord record = writeLocalHeader(entry.getName(), entry.getMethod(), entry.getTime(), entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+		FileChannel sourceChannel = source.getChannel();
+		long transferred = 0;
+		while(transferred < entry.getCompressedSize()){
+			long count = sourceChannel.transferTo(dataOffset + transferred, entry.getCompressedSize() - transferred, channel);
+			if(count <= 0){
+				throw new ZipException("Unexpected end of archive while copying entry: " + entry.getName());
+			}
+			transferred += count;
+		}
+		position += transferred;
+		addCentralDirectoryRecord(record);
+	}
+
+	/**
+	 * Writes the central directory, the archive is complete after this method returns
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if(finished){
+			return;
+		}
+		finished = true;
+		long centralDirectoryOffset = position;
+		long centralDirectorySize = centralDirectory.size();
+		writeFully(centralDirectory.toByteBuffer());
+		position += centralDirectorySize;
+
+		if(zip64 || entryCount >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC){
+			long zip64EndOfCentralDirectoryOffset = position;
+			ByteBuffer zip64End = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+			zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+			zip64End.putLong(44); // size of the remaining record
+			zip64End.putShort((short) VERSION_ZIP64);
+			zip64End.putShort((short) VERSION_ZIP64);
+			zip64End.putInt(0); // this disk
+			zip64End.putInt(0); // central directory disk
+			zip64End.putLong(entryCount);
+			zip64End.putLong(entryCount);
+			zip64End.putLong(centralDirectorySize);
+			zip64End.putLong(centralDirectoryOffset);
+			// locator
+			zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+			zip64End.putInt(0);
+			zip64End.putLong(zip64EndOfCentralDirectoryOffset);
+			zip64End.putInt(1);
+			zip64End.flip();
+			position += zip64End.remaining();
+			writeFully(zip64End);
+		}
+
+		ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		end.putShort((short) 0); // this disk
+		end.putShort((short) 0); // central directory disk
+		end.putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+		end.putShort((short) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+		end.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+		end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+		end.putShort((short) 0); // comment length
+		end.flip();
+		position += end.remaining();
+		writeFully(end);
+	}
+
+	/**
+	 * Closes the output archive, callers should call finish() first to write
+	 * the central directory of a successfully written archive
+	 */
+	@Override
+	public void close() throws IOException {
+		outputStream.close();
+	}
+
+	private CentralDirectoryRecord writeLocalHeader(String name, int method, long time, long crc, long compressedSize, long size) throws IOException {
+		if(!names.add(name)){
+			throw new ZipException("duplicate entry: " + name);
+		}
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		boolean zip64Sizes = compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+		int extraLength = zip64Sizes ? 20 : 0;
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(LOCAL_HEADER_SIGNATURE);
+		header.putShort((short) (zip64Sizes ? VERSION_ZIP64 : getVersion(method)));
+		header.putShort((short) UTF8_FLAG);
+		header.putShort((short) method);
+		header.putInt((int) time);
+		header.putInt((int) crc);
+		header.putInt((int) (zip64Sizes ? ZIP64_MAGIC : compressedSize));
+		header.putInt((int) (zip64Sizes ? ZIP64_MAGIC : size));
+		header.putShort((short) nameBytes.length);
+		header.putShort((short) extraLength);
+		header.put(nameBytes);
+		if(zip64Sizes){
+			header.putShort((short) ZIP64_EXTRA_FIELD);
+			header.putShort((short) 16);
+			header.putLong(size);
+			header.putLong(compressedSize);
+		}
+		header.flip();
+		CentralDirectoryRecord record = new CentralDirectoryRecord(nameBytes, method, time, crc, compressedSize, size, position);
+		position += header.remaining();
+		writeFully(header);
+		return record;
+	}
+
+	private void addCentralDirectoryRecord(CentralDirectoryRecord record){
+		int extraLength = 0;
+		if(record.requiresZip64()){
+			zip64 = true;
+			extraLength = 4;
+			if(record.size >= ZIP64_MAGIC) extraLength += 8;
+			if(record.compressedSize >= ZIP64_MAGIC) extraLength += 8;
+			if(record.localHeaderOffset >= ZIP64_MAGIC) extraLength += 8;
+		}
+		ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + record.name.length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+		int version = record.requiresZip64() ? VERSION_ZIP64 : getVersion(record.method);
+		header.putInt(CENTRAL_HEADER_SIGNATURE);
+		header.putShort((short) version); // version made by
+		header.putShort((short) version); // version needed to extract
+		header.putShort((short) UTF8_FLAG);
+		header.putShort((short) record.method);
+		header.putInt((int) record.time);
+		header.putInt((int) record.crc);
+		header.putInt((int) Math.min(record.compressedSize, ZIP64_MAGIC));
+		header.putInt((int) Math.min(record.size, ZIP64_MAGIC));
+		header.putShort((short) record.name.length);
+		header.putShort((short) extraLength);
+		header.putShort((short) 0); // comment length
+		header.putShort((short) 0); // disk number
+		header.putShort((short) 0); // internal attributes
+		header.putInt(0); // external attributes
+		header.putInt((int) Math.min(record.localHeaderOffset, ZIP64_MAGIC));
+		header.put(record.name);
+		if(extraLength > 0){
+			header.putShort((short) ZIP64_EXTRA_FIELD);
+			header.putShort((short) (extraLength - 4));
+			if(record.size >= ZIP64_MAGIC) header.putLong(record.size);
+			if(record.compressedSize >= ZIP64_MAGIC) header.putLong(record.compressedSize);
+			if(record.localHeaderOffset >= ZIP64_MAGIC) header.putLong(record.localHeaderOffset);
+		}
+		centralDirectory.write(header.array(), 0, header.position());
+		entryCount++;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+	}
+
+	private static int getVersion(int method){
+		return method == ZipEntry.DEFLATED ? VERSION_DEFLATED : VERSION_STORED;
+	}
+
+	/**
+	 * Returns the raw deflated (no zlib wrapper) bytes of the given data
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public static byte[] deflate(byte[] bytes){
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayBuffer result = new ByteArrayBuffer(Math.max(64, bytes.length / 2));
+			byte[] buffer = new byte[8192];
+			while(!deflater.finished()){
+				int length = deflater.deflate(buffer);
+				result.write(buffer, 0, length);
+			}
+			return result.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Converts a Java time to the MS-DOS date and time format used by archive headers
+	 *
+	 * @param time
+	 * @return
+	 */
+	private static long toDosTime(long time){
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if(year < 1980){
+			return (1 << 21) | (1 << 16);
+		}
+		return ((year - 1980) << 25)
+				| ((calendar.get(Calendar.MONTH) + 1) << 21)
+				| (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+				| (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+				| (calendar.get(Calendar.MINUTE) << 5)
+				| (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * A growable byte array that exposes its contents without copying
+	 */
+	private static class ByteArrayBuffer extends java.io.ByteArrayOutputStream {
+		private ByteArrayBuffer(){
+			super(8192);
+		}
+
+		private ByteArrayBuffer(int size){
+			super(size);
+		}
+
+		private ByteBuffer toByteBuffer(){
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+}
@@ -22,6 +22,19 @@ public class BytecodeUtils {
         return classWriter.toByteArray();
 	}
 
+	/**
+	 * Writes a class to a byte array, resolving common super classes for
+	 * frame computation from the given class hierarchy
+	 * @param classNode
+	 * @param classHierarchy
+	 * @throws IOException
+	 */
+	public static byte[] writeClass(ClassNode classNode, ClassHierarchy classHierarchy) throws IOException {
+		ClassWriter classWriter = new HierarchyClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, classHierarchy);
+		classNode.accept(classWriter);
+		return classWriter.toByteArray();
+	}
+
 	/**
 	 * Reads a bytecode class file into a ClassNode object
 	 * @param classFile
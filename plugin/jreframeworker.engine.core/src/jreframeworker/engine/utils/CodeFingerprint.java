@@ -0,0 +1,95 @@
+package jreframeworker.engine.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Identifies the code a class was loaded from. The fingerprint covers every
+ * class of the jar or class directory the class was loaded from, so it changes
+ * whenever that code is rebuilt, even if its version number does not.
+ */
+public class CodeFingerprint {
+
+	/**
+	 * Returns a fingerprint of the code the given classes were loaded from.
+	 * If the code of a class can not be read, only the class itself is fingerprinted.
+	 * @param types
+	 * @return
+	 */
+	public static String of(Class<?>... types){
+		TransformationCache.Key key = new TransformationCache.Key();
+		for(Class<?> type : types){
+			try {
+				addCodeSource(key, type);
+			} catch (IOException | URISyntaxException | SecurityException | IllegalArgumentException e){
+				addClass(key, type);
+			}
+		}
+		return key.toString();
+	}
+
+	private static void addCodeSource(TransformationCache.Key key, Class<?> type) throws IOException, URISyntaxException {
+		CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+		URL location = codeSource == null ? null : codeSource.getLocation();
+		if(location == null || !"file".equals(location.getProtocol())){
+			throw new IOException("The code source of " + type.getName() + " is not a file");
+		}
+		File code = new File(location.toURI());
+		if(code.isDirectory()){
+			// the class files of the directory in a stable order
+			List<Path> classFiles = new ArrayList<Path>();
+			collectClassFiles(code, classFiles);
+			Collections.sort(classFiles);
+			for(Path classFile : classFiles){
+				key.add(code.toPath().relativize(classFile).toString().replace(File.separatorChar, '/'));
+				key.add(Files.readAllBytes(classFile));
+			}
+		} else if(code.isFile()){
+			key.add(code.getName());
+			key.add(Files.readAllBytes(code.toPath()));
+		} else {
+			throw new IOException("The code source of " + type.getName() + " does not exist");
+		}
+	}
+
+	private static void collectClassFiles(File file, List<Path> classFiles){
+		if(file.isDirectory()){
+			File[] children = file.listFiles();
+			if(children != null){
+				for(File child : children){
+					collectClassFiles(child, classFiles);
+				}
+			}
+		} else if(file.getName().endsWith(".class")){
+			classFiles.add(file.toPath());
+		}
+	}
+
+	private static void addClass(TransformationCache.Key key, Class<?> type){
+		key.add(type.getName());
+		try (InputStream input = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+			if(input != null){
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = input.read(buffer)) != -1){
+					bytes.write(buffer, 0, read);
+				}
+				key.add(bytes.toByteArray());
+			}
+		} catch (IOException e){
+			// the class name alone identifies the code
+		}
+	}
+
+}
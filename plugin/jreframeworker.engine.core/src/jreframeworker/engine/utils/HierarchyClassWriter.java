@@ -0,0 +1,29 @@
+package jreframeworker.engine.utils;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * A ClassWriter that computes common super classes from a ClassHierarchy
+ * instead of loading classes
+ */
+public class HierarchyClassWriter extends ClassWriter {
+
+	private ClassHierarchy classHierarchy;
+
+	public HierarchyClassWriter(int flags, ClassHierarchy classHierarchy) {
+		super(flags);
+		this.classHierarchy = classHierarchy;
+	}
+
+	public HierarchyClassWriter(ClassReader classReader, int flags, ClassHierarchy classHierarchy) {
+		super(classReader, flags);
+		this.classHierarchy = classHierarchy;
+	}
+
+	@Override
+	protected String getCommonSuperClass(String type1, String type2) {
+		return classHierarchy.getCommonSuperClass(type1, type2);
+	}
+
+}
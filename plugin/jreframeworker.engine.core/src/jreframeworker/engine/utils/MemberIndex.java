@@ -0,0 +1,176 @@
+package jreframeworker.engine.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * An index of the methods and fields of a class keyed by member name and by
+ * member name and descriptor, so that members can be located without
+ * scanning every member of the class.
+ */
+public class MemberIndex {
+
+	private Map<String,List<MethodNode>> methodsByName = new HashMap<String,List<MethodNode>>();
+	private Map<String,MethodNode> methodsByDescriptor = new HashMap<String,MethodNode>();
+	private Map<String,List<FieldNode>> fieldsByName = new HashMap<String,List<FieldNode>>();
+	private Map<String,FieldNode> fieldsByDescriptor = new HashMap<String,FieldNode>();
+
+	/**
+	 * Indexes the methods and fields of the given class
+	 * @param classNode
+	 */
+	public MemberIndex(ClassNode classNode) {
+		for(Object o : classNode.methods){
+			addMethod((MethodNode) o);
+		}
+		for(Object o : classNode.fields){
+			addField((FieldNode) o);
+		}
+	}
+
+	/**
+	 * Indexes the given methods and fields
+	 * @param methods
+	 * @param fields
+	 */
+	public MemberIndex(Collection<MethodNode> methods, Collection<FieldNode> fields) {
+		for(MethodNode methodNode : methods){
+			addMethod(methodNode);
+		}
+		for(FieldNode fieldNode : fields){
+			addField(fieldNode);
+		}
+	}
+
+	private void addMethod(MethodNode methodNode){
+		List<MethodNode> methods = methodsByName.get(methodNode.name);
+		if(methods == null){
+			methods = new LinkedList<MethodNode>();
+			methodsByName.put(methodNode.name, methods);
+		}
+		methods.add(methodNode);
+		String key = getKey(methodNode.name, methodNode.desc);
+		if(!methodsByDescriptor.containsKey(key)){
+			methodsByDescriptor.put(key, methodNode);
+		}
+	}
+
+	private void addField(FieldNode fieldNode){
+		List<FieldNode> fields = fieldsByName.get(fieldNode.name);
+		if(fields == null){
+			fields = new LinkedList<FieldNode>();
+			fieldsByName.put(fieldNode.name, fields);
+		}
+		fields.add(fieldNode);
+		String key = getKey(fieldNode.name, fieldNode.desc);
+		if(!fieldsByDescriptor.containsKey(key)){
+			fieldsByDescriptor.put(key, fieldNode);
+		}
+	}
+
+	/**
+	 * Returns the key of a member with the given name and descriptor. Member
+	 * names cannot contain a '(' or ';' so the key is unambiguous.
+	 * @param name
+	 * @param descriptor
+	 * @return
+	 */
+	public static String getKey(String name, String descriptor){
+		return name + descriptor;
+	}
+
+	/**
+	 * Returns every method with the given name in declaration order
+	 * @param name
+	 * @return
+	 */
+	public List<MethodNode> getMethods(String name){
+		List<MethodNode> methods = methodsByName.get(name);
+		if(methods == null){
+			return Collections.emptyList();
+		}
+		return methods;
+	}
+
+	/**
+	 * Returns the method with the given name and descriptor or null if no
+	 * such method exists
+	 * @param name
+	 * @param descriptor
+	 * @return
+	 */
+	public MethodNode getMethod(String name, String descriptor){
+		return methodsByDescriptor.get(getKey(name, descriptor));
+	}
+
+	/**
+	 * Returns the method matching the given method or null if no such method
+	 * exists. Methods match if they have the same name and descriptor and, if
+	 * both methods have a generic signature, the same signature.
+	 * @param name
+	 * @param descriptor
+	 * @param signature
+	 * @return
+	 */
+	public MethodNode getMethod(String name, String descriptor, String signature){
+		MethodNode methodNode = getMethod(name, descriptor);
+		if(methodNode != null && methodNode.signature != null && signature != null){
+			if(!methodNode.signature.equals(signature)){
+				return null;
+			}
+		}
+		return methodNode;
+	}
+
+	/**
+	 * Returns every field with the given name in declaration order
+	 * @param name
+	 * @return
+	 */
+	public List<FieldNode> getFields(String name){
+		List<FieldNode> fields = fieldsByName.get(name);
+		if(fields == null){
+			return Collections.emptyList();
+		}
+		return fields;
+	}
+
+	/**
+	 * Returns the field with the given name and descriptor or null if no
+	 * such field exists
+	 * @param name
+	 * @param descriptor
+	 * @return
+	 */
+	public FieldNode getField(String name, String descriptor){
+		return fieldsByDescriptor.get(getKey(name, descriptor));
+	}
+
+	/**
+	 * Returns the field matching the given field or null if no such field
+	 * exists. Fields match if they have the same name and descriptor and, if
+	 * both fields have a generic signature, the same signature.
+	 * @param name
+	 * @param descriptor
+	 * @param signature
+	 * @return
+	 */
+	public FieldNode getField(String name, String descriptor, String signature){
+		FieldNode fieldNode = getField(name, descriptor);
+		if(fieldNode != null && fieldNode.signature != null && signature != null){
+			if(!fieldNode.signature.equals(signature)){
+				return null;
+			}
+		}
+		return fieldNode;
+	}
+
+}
@@ -0,0 +1,149 @@
+package jreframeworker.engine.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import jreframeworker.engine.tests.utils.TestUtilities;
+import jreframeworker.engine.utils.ArchiveIndex;
+import jreframeworker.engine.utils.JarModifier;
+import junit.framework.TestCase;
+
+public class ArchiveTests extends TestCase {
+
+	private static final byte[] STORED_CONTENTS = "stored entry contents".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] DEFLATED_CONTENTS = repeat("deflated entry contents ", 100).getBytes(StandardCharsets.UTF_8);
+
+	private File workingDirectory = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		workingDirectory = Files.createTempDirectory("working-directory").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestUtilities.delete(workingDirectory);
+		workingDirectory = null;
+	}
+
+	@Test
+	public void testIndexReadsStoredAndDeflatedEntries() throws Exception {
+		File archive = new File(workingDirectory, "archive.jar");
+		writeArchive(archive);
+
+		ArchiveIndex archiveIndex = new ArchiveIndex(archive);
+		try {
+			// the entries are indexed in central directory order
+			assertEquals(Arrays.asList("a/", "a/stored.txt", "a/deflated.txt"), Arrays.asList(archiveIndex.getEntryNames().toArray()));
+			assertTrue(archiveIndex.getEntry("a/").isDirectory());
+			assertNull(archiveIndex.getEntry("a/missing.txt"));
+
+			ArchiveIndex.Entry storedEntry = archiveIndex.getEntry("a/stored.txt");
+			assertEquals(ZipEntry.STORED, storedEntry.getMethod());
+			assertTrue(Arrays.equals(STORED_CONTENTS, archiveIndex.read(storedEntry)));
+
+			ArchiveIndex.Entry deflatedEntry = archiveIndex.getEntry("a/deflated.txt");
+			assertEquals(ZipEntry.DEFLATED, deflatedEntry.getMethod());
+			assertTrue(deflatedEntry.getCompressedSize() < DEFLATED_CONTENTS.length);
+			assertTrue(Arrays.equals(DEFLATED_CONTENTS, archiveIndex.read(deflatedEntry)));
+		} finally {
+			archiveIndex.close();
+		}
+	}
+
+	@Test
+	public void testSaveCopiesStoredAndDeflatedEntries() throws Exception {
+		File archive = new File(workingDirectory, "archive.jar");
+		writeArchive(archive);
+
+		// add an entry and copy the rest of the archive
+		byte[] addedContents = "added entry contents".getBytes(StandardCharsets.UTF_8);
+		File savedArchive = new File(workingDirectory, "saved.jar");
+		JarModifier jarModifier = new JarModifier(archive);
+		jarModifier.add("a/added.txt", addedContents, false);
+		jarModifier.save(savedArchive);
+		jarModifier.close();
+
+		// the original entries keep their compression and compressed data
+		ArchiveIndex originalIndex = new ArchiveIndex(archive);
+		ArchiveIndex savedIndex = new ArchiveIndex(savedArchive);
+		try {
+			for(String name : new String[]{ "a/stored.txt", "a/deflated.txt" }){
+				ArchiveIndex.Entry originalEntry = originalIndex.getEntry(name);
+				ArchiveIndex.Entry savedEntry = savedIndex.getEntry(name);
+				assertNotNull(savedEntry);
+				assertEquals(originalEntry.getMethod(), savedEntry.getMethod());
+				assertEquals(originalEntry.getCrc(), savedEntry.getCrc());
+				assertTrue(Arrays.equals(originalIndex.readCompressed(originalEntry), savedIndex.readCompressed(savedEntry)));
+			}
+		} finally {
+			originalIndex.close();
+			savedIndex.close();
+		}
+
+		// the saved archive reads back with the zip reader of the JDK
+		try (ZipFile zipFile = new ZipFile(savedArchive)) {
+			assertTrue(Arrays.equals(STORED_CONTENTS, readEntry(zipFile, "a/stored.txt")));
+			assertTrue(Arrays.equals(DEFLATED_CONTENTS, readEntry(zipFile, "a/deflated.txt")));
+			assertTrue(Arrays.equals(addedContents, readEntry(zipFile, "a/added.txt")));
+		}
+	}
+
+	/**
+	 * Writes a directory, a stored entry, and a deflated entry in that order
+	 */
+	private static void writeArchive(File archive) throws Exception {
+		try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(archive))) {
+			output.putNextEntry(new ZipEntry("a/"));
+			output.closeEntry();
+
+			ZipEntry storedEntry = new ZipEntry("a/stored.txt");
+			storedEntry.setMethod(ZipEntry.STORED);
+			storedEntry.setSize(STORED_CONTENTS.length);
+			CRC32 crc = new CRC32();
+			crc.update(STORED_CONTENTS);
+			storedEntry.setCrc(crc.getValue());
+			output.putNextEntry(storedEntry);
+			output.write(STORED_CONTENTS);
+			output.closeEntry();
+
+			output.putNextEntry(new ZipEntry("a/deflated.txt"));
+			output.write(DEFLATED_CONTENTS);
+			output.closeEntry();
+		}
+	}
+
+	private static byte[] readEntry(ZipFile zipFile, String name) throws Exception {
+		ZipEntry entry = zipFile.getEntry(name);
+		assertNotNull(entry);
+		try (InputStream input = zipFile.getInputStream(entry)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = input.read(buffer)) != -1){
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		}
+	}
+
+	private static String repeat(String value, int times){
+		StringBuilder result = new StringBuilder();
+		for(int i=0; i<times; i++){
+			result.append(value);
+		}
+		return result.toString();
+	}
+
+}
@@ -1,17 +1,29 @@
 package jreframeworker.engine.tests;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
 import org.junit.Test;
+import org.objectweb.asm.tree.MethodNode;
 
 import jreframeworker.engine.Engine;
+import jreframeworker.engine.identifiers.DefineIdentifier;
 import jreframeworker.engine.tests.utils.TestUtilities;
 import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.utils.JarModifier;
 import junit.framework.TestCase;
 
 public class EngineTests extends TestCase {
@@ -114,5 +126,487 @@ public class EngineTests extends TestCase {
 		// the replaced method should return merge-method
 		assertEquals("merged-original-method", result);
 	}
+	
+	@Test
+	public void testStoredAndDeflatedEntriesRoundTrip() throws Exception {
+		// gather sources
+		String pkg = "inputs.a";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File mergeClass = TestUtilities.getClassFile("MergeClass", classFiles);
+		assertNotNull(mergeClass);
+		byte[] mergeClassBytes = BytecodeUtils.writeClass(BytecodeUtils.getClassNode(mergeClass));
+		
+		// jar base class
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		
+		// save the merged class stored
+		File storedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "stored.jar");
+		Engine storingEngine = new Engine(originalJar, "jref_");
+		storingEngine.setCompressEntries(false);
+		storingEngine.process(mergeClassBytes);
+		storingEngine.save(storedJar);
+		
+		// save the merged class deflated on more than one thread
+		File deflatedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "deflated.jar");
+		Engine deflatingEngine = new Engine(originalJar, "jref_");
+		deflatingEngine.setCompressEntries(true);
+		deflatingEngine.setCompressionThreads(2);
+		deflatingEngine.process(mergeClassBytes);
+		deflatingEngine.save(deflatedJar);
+		
+		// assert the merged class is written with the requested compression and reads back the same
+		String baseClassEntry = (packagePrefix + "." + pkg + ".BaseClass").replace(".", "/") + ".class";
+		try (JarFile jar = new JarFile(storedJar)) {
+			assertEquals(ZipEntry.STORED, jar.getJarEntry(baseClassEntry).getMethod());
+		}
+		try (JarFile jar = new JarFile(deflatedJar)) {
+			assertEquals(ZipEntry.DEFLATED, jar.getJarEntry(baseClassEntry).getMethod());
+		}
+		byte[] storedClass = TestUtilities.readJarEntry(storedJar, baseClassEntry);
+		assertNotNull(storedClass);
+		assertTrue(Arrays.equals(storedClass, TestUtilities.readJarEntry(deflatedJar, baseClassEntry)));
+		
+		// execute the stored base class method
+		URL[] jarURL = { new URL("jar:file:" + storedJar.getCanonicalPath() + "!/") };
+		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		Class modifiedBaseClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
+		Method modifiedBaseClassMethod = modifiedBaseClass.getDeclaredMethod("method");
+		Object result = modifiedBaseClassMethod.invoke(modifiedBaseClass.newInstance());
+		assertEquals("merge-method", result);
+	}
+	
+	@Test
+	public void testPrefetchedClassesAreMerged() throws Exception {
+		// gather sources
+		String pkg = "inputs.a";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File mergeClass = TestUtilities.getClassFile("MergeClass", classFiles);
+		assertNotNull(mergeClass);
+		
+		// jar base class
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		
+		// extract the base class along with a class that is not in the jar
+		String baseClassName = (packagePrefix + "." + pkg + ".BaseClass").replace(".", "/");
+		String missingClassName = "missing/MissingClass";
+		JarModifier jarModifier = new JarModifier(originalJar);
+		Map<String,byte[]> entries = jarModifier.extractEntries(Arrays.asList(baseClassName + ".class", missingClassName + ".class"));
+		jarModifier.close();
+		assertEquals(1, entries.size());
+		assertTrue(Arrays.equals(Files.readAllBytes(baseClass.toPath()), entries.get(baseClassName + ".class")));
+		
+		// prefetch the classes and merge into the prefetched base class
+		Engine engine = new Engine(originalJar, "jref_");
+		engine.prefetch(new HashSet<String>(Arrays.asList(baseClassName, missingClassName)));
+		File modifiedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "modified.jar");
+		engine.process(BytecodeUtils.writeClass(BytecodeUtils.getClassNode(mergeClass)));
+		engine.save(modifiedJar);
+		
+		// the missing class is not added and the base class is merged
+		assertNull(TestUtilities.readJarEntry(modifiedJar, missingClassName + ".class"));
+		URL[] jarURL = { new URL("jar:file:" + modifiedJar.getCanonicalPath() + "!/") };
+		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		Class modifiedBaseClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
+		Method modifiedBaseClassMethod = modifiedBaseClass.getDeclaredMethod("method");
+		Object result = modifiedBaseClassMethod.invoke(modifiedBaseClass.newInstance());
+		assertEquals("merge-method", result);
+	}
+	
+	@Test
+	public void testDefineTypeDefaultsToFirstPhase() throws Exception {
+		// gather sources
+		String pkg = "inputs.c";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File definedClass = TestUtilities.getClassFile("DefinedClass", classFiles);
+		assertNotNull(definedClass);
+		
+		// assert a define type annotation without a phase is in the first phase
+		DefineIdentifier defineIdentifier = new DefineIdentifier(BytecodeUtils.getClassNode(definedClass));
+		assertNotNull(defineIdentifier.getDefineTypeAnnotation());
+		assertEquals(1, defineIdentifier.getDefineTypeAnnotation().getPhase());
+		
+		// jar base class
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		
+		// define the class in the first phase
+		Engine engine = new Engine(originalJar, "jref_");
+		File modifiedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "modified.jar");
+		engine.process(BytecodeUtils.writeClass(BytecodeUtils.getClassNode(definedClass)), 1, 1);
+		engine.save(modifiedJar);
+		
+		// execute the defined class method
+		URL[] jarURL = { new URL("jar:file:" + modifiedJar.getCanonicalPath() + "!/") };
+		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		Class modifiedDefinedClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "DefinedClass");
+		Method modifiedDefinedClassMethod = modifiedDefinedClass.getDeclaredMethod("method");
+		Object result = modifiedDefinedClassMethod.invoke(modifiedDefinedClass.newInstance());
+		assertEquals("defined-method", result);
+	}
+	
+	@Test
+	public void testProcessAllSkipsInvalidInputClass() throws Exception {
+		// gather sources
+		String pkg = "inputs.d";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File otherClass = TestUtilities.getClassFile("OtherClass", classFiles);
+		assertNotNull(otherClass);
+		File firstMergeClass = TestUtilities.getClassFile("FirstMergeClass", classFiles);
+		assertNotNull(firstMergeClass);
+		File otherMergeClass = TestUtilities.getClassFile("OtherMergeClass", classFiles);
+		assertNotNull(otherMergeClass);
+		
+		// jar base classes
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass, otherClass);
+		
+		// merge the independent classes in parallel along with an input that is not a class
+		byte[] invalidClass = new byte[]{ (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE };
+		Engine engine = new Engine(originalJar, "jref_");
+		engine.setProcessingThreads(2);
+		File modifiedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "modified.jar");
+		assertTrue(engine.processAll(Arrays.asList(invalidClass,
+				BytecodeUtils.writeClass(BytecodeUtils.getClassNode(firstMergeClass)),
+				BytecodeUtils.writeClass(BytecodeUtils.getClassNode(otherMergeClass))), -1, -1));
+		engine.save(modifiedJar);
+		
+		// assert the invalid input was skipped and both classes were merged
+		URL[] jarURL = { new URL("jar:file:" + modifiedJar.getCanonicalPath() + "!/") };
+		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		Class modifiedBaseClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
+		Object baseResult = modifiedBaseClass.getDeclaredMethod("method").invoke(modifiedBaseClass.newInstance());
+		assertEquals("first-original-method", baseResult);
+		Class modifiedOtherClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "OtherClass");
+		Object otherResult = modifiedOtherClass.getDeclaredMethod("method").invoke(modifiedOtherClass.newInstance());
+		assertEquals("other-original-method", otherResult);
+	}
+	
+	@Test
+	public void testMergesInOnePassMatchSequentialMerges() throws Exception {
+		// gather sources
+		String pkg = "inputs.d";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File firstMergeClass = TestUtilities.getClassFile("FirstMergeClass", classFiles);
+		assertNotNull(firstMergeClass);
+		File secondMergeClass = TestUtilities.getClassFile("SecondMergeClass", classFiles);
+		assertNotNull(secondMergeClass);
+		byte[] firstMergeClassBytes = BytecodeUtils.writeClass(BytecodeUtils.getClassNode(firstMergeClass));
+		byte[] secondMergeClassBytes = BytecodeUtils.writeClass(BytecodeUtils.getClassNode(secondMergeClass));
+		
+		// jar base class
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		
+		// merge both classes into the base class one at a time
+		Engine sequentialEngine = new Engine(originalJar, "jref_");
+		File sequentialJar = new File(workingDirectory.getAbsolutePath() + File.separator + "sequential.jar");
+		sequentialEngine.process(firstMergeClassBytes);
+		sequentialEngine.process(secondMergeClassBytes);
+		sequentialEngine.save(sequentialJar);
+		
+		// merge both classes into the base class in one pass
+		Engine batchEngine = new Engine(originalJar, "jref_");
+		File batchJar = new File(workingDirectory.getAbsolutePath() + File.separator + "batch.jar");
+		batchEngine.processAll(Arrays.asList(firstMergeClassBytes, secondMergeClassBytes), -1, -1);
+		batchEngine.save(batchJar);
+		
+		// assert the original methods are renamed the same way in both jars
+		String baseClassEntry = (packagePrefix + "." + pkg + ".BaseClass").replace(".", "/") + ".class";
+		Set<String> sequentialMethods = new TreeSet<String>();
+		for(Object methodNode : BytecodeUtils.getClassNode(TestUtilities.readJarEntry(sequentialJar, baseClassEntry)).methods){
+			sequentialMethods.add(((MethodNode) methodNode).name);
+		}
+		Set<String> batchMethods = new TreeSet<String>();
+		for(Object methodNode : BytecodeUtils.getClassNode(TestUtilities.readJarEntry(batchJar, baseClassEntry)).methods){
+			batchMethods.add(((MethodNode) methodNode).name);
+		}
+		assertEquals(5, sequentialMethods.size());
+		assertEquals(sequentialMethods, batchMethods);
+		
+		// execute the second merged method of both jars, which calls the original and the first merged method
+		URL[] sequentialJarURL = { new URL("jar:file:" + sequentialJar.getCanonicalPath() + "!/") };
+		ClassLoader sequentialClassLoader = new URLClassLoader(sequentialJarURL, null); // important: set parent class loader to null!
+		Class sequentialBaseClass = sequentialClassLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
+		Object sequentialResult = sequentialBaseClass.getDeclaredMethod("otherMethod").invoke(sequentialBaseClass.newInstance());
+		URL[] batchJarURL = { new URL("jar:file:" + batchJar.getCanonicalPath() + "!/") };
+		ClassLoader batchClassLoader = new URLClassLoader(batchJarURL, null); // important: set parent class loader to null!
+		Class batchBaseClass = batchClassLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
+		Object batchResult = batchBaseClass.getDeclaredMethod("otherMethod").invoke(batchBaseClass.newInstance());
+		assertEquals("second-original-other-method-first-original-method", sequentialResult);
+		assertEquals(sequentialResult, batchResult);
+	}
+	
+	@Test
+	public void testParallelMergesMatchMergesInOrder() throws Exception {
+		// gather sources
+		String pkg = "inputs.d";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File otherClass = TestUtilities.getClassFile("OtherClass", classFiles);
+		assertNotNull(otherClass);
+		List<byte[]> mergeClasses = new ArrayList<byte[]>();
+		for(String mergeClass : new String[]{ "FirstMergeClass", "OtherMergeClass", "SecondMergeClass" }){
+			File mergeClassFile = TestUtilities.getClassFile(mergeClass, classFiles);
+			assertNotNull(mergeClassFile);
+			mergeClasses.add(BytecodeUtils.writeClass(BytecodeUtils.getClassNode(mergeClassFile)));
+		}
+		
+		// jar base classes
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass, otherClass);
+		
+		// merge the classes on one thread
+		Engine serialEngine = new Engine(originalJar, "jref_");
+		serialEngine.setProcessingThreads(1);
+		File serialJar = new File(workingDirectory.getAbsolutePath() + File.separator + "serial.jar");
+		serialEngine.processAll(mergeClasses, -1, -1);
+		serialEngine.save(serialJar);
+		
+		// merge the classes on two threads, which separates the merges into the other class
+		Engine parallelEngine = new Engine(originalJar, "jref_");
+		parallelEngine.setProcessingThreads(2);
+		File parallelJar = new File(workingDirectory.getAbsolutePath() + File.separator + "parallel.jar");
+		parallelEngine.processAll(mergeClasses, -1, -1);
+		parallelEngine.save(parallelJar);
+		
+		// assert the base classes are identical in both jars
+		for(String className : new String[]{ "BaseClass", "OtherClass" }){
+			String entry = (packagePrefix + "." + pkg + "." + className).replace(".", "/") + ".class";
+			byte[] serialBytes = TestUtilities.readJarEntry(serialJar, entry);
+			assertNotNull(serialBytes);
+			assertTrue(Arrays.equals(serialBytes, TestUtilities.readJarEntry(parallelJar, entry)));
+		}
+	}
+	
+	@Test
+	public void testStreamingMatchesEagerProcessing() throws Exception {
+		// gather sources
+		String pkg = "inputs.d";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File otherClass = TestUtilities.getClassFile("OtherClass", classFiles);
+		assertNotNull(otherClass);
+		List<byte[]> mergeClasses = new ArrayList<byte[]>();
+		for(String mergeClass : new String[]{ "FirstMergeClass", "OtherMergeClass", "SecondMergeClass" }){
+			File mergeClassFile = TestUtilities.getClassFile(mergeClass, classFiles);
+			assertNotNull(mergeClassFile);
+			mergeClasses.add(BytecodeUtils.writeClass(BytecodeUtils.getClassNode(mergeClassFile)));
+		}
+		
+		// jar base classes
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass, otherClass);
+		
+		// merge as the classes are processed
+		Engine eagerEngine = new Engine(originalJar, "jref_");
+		File eagerJar = new File(workingDirectory.getAbsolutePath() + File.separator + "eager.jar");
+		for(byte[] mergeClass : mergeClasses){
+			eagerEngine.process(mergeClass);
+		}
+		eagerEngine.save(eagerJar);
+		
+		// record the merges and apply them as the jar is saved
+		Engine streamingEngine = new Engine(originalJar, "jref_");
+		streamingEngine.setStreaming(true);
+		File streamingJar = new File(workingDirectory.getAbsolutePath() + File.separator + "streaming.jar");
+		for(byte[] mergeClass : mergeClasses){
+			streamingEngine.process(mergeClass);
+		}
+		streamingEngine.save(streamingJar);
+		
+		// assert both jars contain the same merged classes
+		for(String className : new String[]{ "BaseClass", "OtherClass" }){
+			String classEntry = (packagePrefix + "." + pkg + "." + className).replace(".", "/") + ".class";
+			byte[] eagerClass = TestUtilities.readJarEntry(eagerJar, classEntry);
+			assertNotNull(eagerClass);
+			assertTrue(Arrays.equals(eagerClass, TestUtilities.readJarEntry(streamingJar, classEntry)));
+		}
+		
+		// execute the streamed base class method
+		URL[] jarURL = { new URL("jar:file:" + streamingJar.getCanonicalPath() + "!/") };
+		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		Class modifiedBaseClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
+		Object result = modifiedBaseClass.getDeclaredMethod("otherMethod").invoke(modifiedBaseClass.newInstance());
+		assertEquals("second-original-other-method-first-original-method", result);
+	}
+	
+	@Test
+	public void testSpilledEntriesMatchEntriesInMemory() throws Exception {
+		// gather sources
+		String pkg = "inputs.d";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File otherClass = TestUtilities.getClassFile("OtherClass", classFiles);
+		assertNotNull(otherClass);
+		File firstMergeClass = TestUtilities.getClassFile("FirstMergeClass", classFiles);
+		assertNotNull(firstMergeClass);
+		File otherMergeClass = TestUtilities.getClassFile("OtherMergeClass", classFiles);
+		assertNotNull(otherMergeClass);
+		byte[] firstMergeClassBytes = BytecodeUtils.writeClass(BytecodeUtils.getClassNode(firstMergeClass));
+		byte[] otherMergeClassBytes = BytecodeUtils.writeClass(BytecodeUtils.getClassNode(otherMergeClass));
+		
+		// jar base classes
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass, otherClass);
+		
+		// keep the modified and added classes in memory
+		Engine memoryEngine = new Engine(originalJar, "jref_");
+		File memoryJar = new File(workingDirectory.getAbsolutePath() + File.separator + "memory.jar");
+		memoryEngine.process(firstMergeClassBytes);
+		memoryEngine.process(otherMergeClassBytes);
+		memoryEngine.addUnprocessed(firstMergeClassBytes, false);
+		memoryEngine.save(memoryJar);
+		memoryEngine.close();
+		
+		// spill every modified and added class to the temporary file
+		Engine spillingEngine = new Engine(originalJar, "jref_");
+		spillingEngine.setPendingEntryHeapBudget(1);
+		File spilledJar = new File(workingDirectory.getAbsolutePath() + File.separator + "spilled.jar");
+		spillingEngine.process(firstMergeClassBytes);
+		spillingEngine.process(otherMergeClassBytes);
+		spillingEngine.addUnprocessed(firstMergeClassBytes, false);
+		spillingEngine.save(spilledJar);
+		spillingEngine.close();
+		
+		// assert both jars contain the same classes
+		for(String className : new String[]{ "BaseClass", "OtherClass", "FirstMergeClass" }){
+			String classEntry = (packagePrefix + "." + pkg + "." + className).replace(".", "/") + ".class";
+			byte[] memoryClass = TestUtilities.readJarEntry(memoryJar, classEntry);
+			assertNotNull(memoryClass);
+			assertTrue(Arrays.equals(memoryClass, TestUtilities.readJarEntry(spilledJar, classEntry)));
+		}
+		
+		// execute the spilled base class method
+		URL[] jarURL = { new URL("jar:file:" + spilledJar.getCanonicalPath() + "!/") };
+		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		Class modifiedBaseClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
+		Object result = modifiedBaseClass.getDeclaredMethod("method").invoke(modifiedBaseClass.newInstance());
+		assertEquals("first-original-method", result);
+	}
+	
+	@Test
+	public void testConsecutiveSavesKeepAddedClasses() throws Exception {
+		// gather sources
+		String pkg = "inputs.d";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File firstMergeClass = TestUtilities.getClassFile("FirstMergeClass", classFiles);
+		assertNotNull(firstMergeClass);
+		byte[] firstMergeClassBytes = BytecodeUtils.writeClass(BytecodeUtils.getClassNode(firstMergeClass));
+		
+		// jar base class
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		
+		// merge into the base class, add the merge class as is, and save twice
+		Engine engine = new Engine(originalJar, "jref_");
+		engine.process(firstMergeClassBytes);
+		engine.addUnprocessed(firstMergeClassBytes, false);
+		File firstJar = new File(workingDirectory.getAbsolutePath() + File.separator + "first.jar");
+		File secondJar = new File(workingDirectory.getAbsolutePath() + File.separator + "second.jar");
+		engine.save(firstJar);
+		engine.save(secondJar);
+		engine.close();
+		
+		// assert the second jar still contains the merged and the added classes
+		String baseClassEntry = (packagePrefix + "." + pkg + ".BaseClass").replace(".", "/") + ".class";
+		String mergeClassEntry = (packagePrefix + "." + pkg + ".FirstMergeClass").replace(".", "/") + ".class";
+		byte[] mergedClass = TestUtilities.readJarEntry(firstJar, baseClassEntry);
+		assertNotNull(mergedClass);
+		assertTrue(Arrays.equals(mergedClass, TestUtilities.readJarEntry(secondJar, baseClassEntry)));
+		assertTrue(Arrays.equals(firstMergeClassBytes, TestUtilities.readJarEntry(firstJar, mergeClassEntry)));
+		assertTrue(Arrays.equals(firstMergeClassBytes, TestUtilities.readJarEntry(secondJar, mergeClassEntry)));
+	}
+	
+	@Test
+	public void testFailedSaveKeepsAddedClasses() throws Exception {
+		// gather sources
+		String pkg = "inputs.d";
+		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
+		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		
+		// compile sources
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		assertNotNull(baseClass);
+		File firstMergeClass = TestUtilities.getClassFile("FirstMergeClass", classFiles);
+		assertNotNull(firstMergeClass);
+		byte[] firstMergeClassBytes = BytecodeUtils.writeClass(BytecodeUtils.getClassNode(firstMergeClass));
+		
+		// jar base class
+		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
+		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		
+		// add the merge class as is and save to a directory, which fails
+		Engine engine = new Engine(originalJar, "jref_");
+		engine.addUnprocessed(firstMergeClassBytes, false);
+		File failedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "failed.jar");
+		assertTrue(failedJar.mkdir());
+		try {
+			engine.save(failedJar);
+			fail("Saving to a directory should fail");
+		} catch (IOException e){
+			// expected
+		}
+		
+		// assert saving again still writes the added class
+		File savedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "saved.jar");
+		engine.save(savedJar);
+		engine.close();
+		String mergeClassEntry = (packagePrefix + "." + pkg + ".FirstMergeClass").replace(".", "/") + ".class";
+		assertTrue(Arrays.equals(firstMergeClassBytes, TestUtilities.readJarEntry(savedJar, mergeClassEntry)));
+	}
 
 }
@@ -0,0 +1,53 @@
+package jreframeworker.engine.tests;
+
+import org.junit.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import jreframeworker.engine.utils.MemberIndex;
+import junit.framework.TestCase;
+
+public class MemberIndexTests extends TestCase {
+
+	@Test
+	public void testMethodsMatchByDescriptor() throws Exception {
+		// a class with two overloads of a method
+		ClassNode classNode = new ClassNode();
+		MethodNode intMethod = new MethodNode(Opcodes.ACC_PUBLIC, "method", "(I)V", null, null);
+		MethodNode stringMethod = new MethodNode(Opcodes.ACC_PUBLIC, "method", "(Ljava/lang/String;)V", null, null);
+		classNode.methods.add(intMethod);
+		classNode.methods.add(stringMethod);
+		MemberIndex memberIndex = new MemberIndex(classNode);
+
+		// each overload is found by its descriptor and both are found by name in declaration order
+		assertSame(intMethod, memberIndex.getMethod("method", "(I)V"));
+		assertSame(stringMethod, memberIndex.getMethod("method", "(Ljava/lang/String;)V"));
+		assertNull(memberIndex.getMethod("method", "(J)V"));
+		assertEquals(2, memberIndex.getMethods("method").size());
+		assertSame(intMethod, memberIndex.getMethods("method").get(0));
+		assertTrue(memberIndex.getMethods("missing").isEmpty());
+	}
+
+	@Test
+	public void testSignaturesOnlyMatchWhenBothMembersHaveOne() throws Exception {
+		ClassNode classNode = new ClassNode();
+		MethodNode genericMethod = new MethodNode(Opcodes.ACC_PUBLIC, "method", "(Ljava/util/List;)V", "(Ljava/util/List<Ljava/lang/String;>;)V", null);
+		FieldNode field = new FieldNode(Opcodes.ACC_PUBLIC, "field", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/String;>;", null);
+		classNode.methods.add(genericMethod);
+		classNode.fields.add(field);
+		MemberIndex memberIndex = new MemberIndex(classNode);
+
+		// a member without a signature matches on name and descriptor alone
+		assertSame(genericMethod, memberIndex.getMethod("method", "(Ljava/util/List;)V", null));
+		assertSame(field, memberIndex.getField("field", "Ljava/util/List;", null));
+
+		// a different signature does not match
+		assertSame(genericMethod, memberIndex.getMethod("method", "(Ljava/util/List;)V", "(Ljava/util/List<Ljava/lang/String;>;)V"));
+		assertNull(memberIndex.getMethod("method", "(Ljava/util/List;)V", "(Ljava/util/List<Ljava/lang/Integer;>;)V"));
+		assertNull(memberIndex.getField("field", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/Integer;>;"));
+		assertNull(memberIndex.getField("field", "Ljava/util/Set;"));
+	}
+
+}
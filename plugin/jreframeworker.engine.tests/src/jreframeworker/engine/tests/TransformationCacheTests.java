@@ -0,0 +1,86 @@
+package jreframeworker.engine.tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jreframeworker.engine.tests.utils.TestUtilities;
+import jreframeworker.engine.utils.TransformationCache;
+import junit.framework.TestCase;
+
+public class TransformationCacheTests extends TestCase {
+
+	private File workingDirectory = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		workingDirectory = Files.createTempDirectory("working-directory").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestUtilities.delete(workingDirectory);
+		workingDirectory = null;
+	}
+
+	@Test
+	public void testKeysDistinguishValueBoundaries() throws Exception {
+		String key = new TransformationCache.Key().add("ab").add("c").toString();
+		assertEquals(key, new TransformationCache.Key().add("ab").add("c").toString());
+		assertFalse(key.equals(new TransformationCache.Key().add("a").add("bc").toString()));
+		assertFalse(key.equals(new TransformationCache.Key().add("abc").toString()));
+	}
+
+	@Test
+	public void testCachedClassesAreFoundAgain() throws Exception {
+		File directory = new File(workingDirectory, "cache");
+		String key = new TransformationCache.Key().add("cached").toString();
+		String missingKey = new TransformationCache.Key().add("missing").toString();
+		byte[] bytes = new byte[]{ 1, 2, 3 };
+
+		TransformationCache cache = new TransformationCache(directory, TransformationCache.DEFAULT_CAPACITY);
+		assertNull(cache.get(key));
+		cache.put(key, bytes);
+		assertTrue(Arrays.equals(bytes, cache.get(key)));
+		assertNull(cache.get(missingKey));
+
+		// a partially written class is discarded and the cached class is found after reopening the cache
+		Files.write(new File(directory, missingKey + ".tmp").toPath(), bytes);
+		TransformationCache reopenedCache = new TransformationCache(directory, TransformationCache.DEFAULT_CAPACITY);
+		assertTrue(Arrays.equals(bytes, reopenedCache.get(key)));
+		assertNull(reopenedCache.get(missingKey));
+		assertFalse(new File(directory, missingKey + ".tmp").exists());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedClassesAreEvicted() throws Exception {
+		File directory = new File(workingDirectory, "cache");
+		String firstKey = new TransformationCache.Key().add("first").toString();
+		String secondKey = new TransformationCache.Key().add("second").toString();
+		String thirdKey = new TransformationCache.Key().add("third").toString();
+		String largeKey = new TransformationCache.Key().add("large").toString();
+		byte[] bytes = new byte[4];
+
+		// the cache holds two of the classes
+		TransformationCache cache = new TransformationCache(directory, 10);
+		cache.put(firstKey, bytes);
+		cache.put(secondKey, bytes);
+
+		// using the first class makes the second class the least recently used
+		assertNotNull(cache.get(firstKey));
+		cache.put(thirdKey, bytes);
+		assertNull(cache.get(secondKey));
+		assertFalse(new File(directory, secondKey).exists());
+		assertNotNull(cache.get(firstKey));
+		assertNotNull(cache.get(thirdKey));
+
+		// a class larger than the capacity is not cached and evicts nothing
+		cache.put(largeKey, new byte[11]);
+		assertNull(cache.get(largeKey));
+		assertNotNull(cache.get(firstKey));
+		assertNotNull(cache.get(thirdKey));
+	}
+
+}
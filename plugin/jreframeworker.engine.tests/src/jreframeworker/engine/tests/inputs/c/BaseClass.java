@@ -0,0 +1,9 @@
+package jreframeworker.engine.tests.inputs.c;
+
+public class BaseClass {
+
+	public String method(){
+		return "original-method";
+	}
+	
+}
@@ -0,0 +1,12 @@
+package jreframeworker.engine.tests.inputs.c;
+
+import jreframeworker.annotations.types.DefineType;
+
+@DefineType
+public class DefinedClass {
+
+	public String method(){
+		return "defined-method";
+	}
+	
+}
@@ -0,0 +1,13 @@
+package jreframeworker.engine.tests.inputs.d;
+
+public class BaseClass {
+
+	public String method(){
+		return "original-method";
+	}
+	
+	public String otherMethod(){
+		return "original-other-method";
+	}
+	
+}
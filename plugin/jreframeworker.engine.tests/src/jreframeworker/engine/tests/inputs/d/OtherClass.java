@@ -0,0 +1,9 @@
+package jreframeworker.engine.tests.inputs.d;
+
+public class OtherClass {
+
+	public String method(){
+		return "original-method";
+	}
+	
+}
@@ -0,0 +1,15 @@
+package jreframeworker.engine.tests.inputs.d;
+
+import jreframeworker.annotations.methods.MergeMethod;
+import jreframeworker.annotations.types.MergeType;
+
+@MergeType
+public class OtherMergeClass extends OtherClass {
+
+	@Override
+	@MergeMethod
+	public String method(){
+		return "other-" + super.method();
+	}
+	
+}
@@ -0,0 +1,15 @@
+package jreframeworker.engine.tests.inputs.d;
+
+import jreframeworker.annotations.methods.MergeMethod;
+import jreframeworker.annotations.types.MergeType;
+
+@MergeType
+public class SecondMergeClass extends BaseClass {
+
+	@Override
+	@MergeMethod
+	public String otherMethod(){
+		return "second-" + super.otherMethod() + "-" + method();
+	}
+	
+}
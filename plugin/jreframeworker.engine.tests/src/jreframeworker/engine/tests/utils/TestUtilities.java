@@ -1,11 +1,13 @@
 package jreframeworker.engine.tests.utils;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.ArrayList;
@@ -14,6 +16,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
@@ -171,4 +174,22 @@ public class TestUtilities {
 		Files.copy(from.toPath(), to.toPath());
 	}
 	
+	public static byte[] readJarEntry(File jarFile, String entry) throws IOException {
+		try (JarFile jar = new JarFile(jarFile)) {
+			JarEntry jarEntry = jar.getJarEntry(entry);
+			if(jarEntry == null){
+				return null;
+			}
+			try (InputStream input = jar.getInputStream(jarEntry)) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = input.read(buffer)) != -1){
+					bytes.write(buffer, 0, read);
+				}
+				return bytes.toByteArray();
+			}
+		}
+	}
+	
 }
@@ -2,25 +2,42 @@ package jreframeworker.engine;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.JarException;
 
-import org.objectweb.asm.ClassLoaders;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.InnerClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import jreframeworker.engine.identifiers.BaseMethodsIdentifier;
+import jreframeworker.engine.ModificationPlan.AccessModification;
+import jreframeworker.engine.identifiers.AnnotationModel;
 import jreframeworker.engine.identifiers.DefineFinalityIdentifier;
 import jreframeworker.engine.identifiers.DefineFinalityIdentifier.DefineFieldFinalityAnnotation;
 import jreframeworker.engine.identifiers.DefineFinalityIdentifier.DefineMethodFinalityAnnotation;
@@ -32,7 +49,8 @@ import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.DefineFieldV
 import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.DefineMethodVisibilityAnnotation;
 import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.DefineTypeVisibilityAnnotation;
 import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.Visibility;
-import jreframeworker.engine.identifiers.JREFAnnotationIdentifier;
+import jreframeworker.engine.identifiers.JREFAnnotationKind;
+import jreframeworker.engine.identifiers.JREFAnnotationKind.Category;
 import jreframeworker.engine.identifiers.MergeIdentifier;
 import jreframeworker.engine.identifiers.MergeIdentifier.MergeMethodAnnotation;
 import jreframeworker.engine.identifiers.MergeIdentifier.MergeTypeAnnotation;
@@ -41,9 +59,15 @@ import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeFieldAnnotation;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeMethodAnnotation;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeTypeAnnotation;
 import jreframeworker.engine.log.Log;
-import jreframeworker.engine.utils.AnnotationUtils;
 import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.utils.ClassHierarchy;
+import jreframeworker.engine.utils.ClassHierarchy.ClassHeader;
+import jreframeworker.engine.utils.ClassHierarchy.ClassHeaderSource;
+import jreframeworker.engine.utils.ClassHierarchy.ClassLoaderSource;
+import jreframeworker.engine.utils.CodeFingerprint;
+import jreframeworker.engine.utils.HierarchyClassWriter;
 import jreframeworker.engine.utils.JarModifier;
+import jreframeworker.engine.utils.TransformationCache;
 
 public class Engine {
 
@@ -78,8 +102,9 @@ public class Engine {
 	private String mergeRenamePrefix;
 	private JarModifier jarModifier;
 	private ClassLoader[] classLoaders = new ClassLoader[]{ getClass().getClassLoader() };
+	private ClassHierarchy classHierarchy = createClassHierarchy();
 	
-	private static class Bytecode {
+	private class Bytecode {
 		private byte[] bytecode;
 		
 		public Bytecode(byte[] bytecode){
@@ -89,10 +114,128 @@ public class Engine {
 		public byte[] getBytecode(){
 			return bytecode;
 		}
+		
+		public ClassHeader getClassHeader(){
+			return ClassHeader.read(bytecode);
+		}
+	}
+	
+	/**
+	 * Resolves class headers from the engine's current version of each class,
+	 * so that frames are computed against classes modified in earlier phases
+	 */
+	private class EngineClassHeaderSource implements ClassHeaderSource {
+		@Override
+		public ClassHeader getClassHeader(String className) throws IOException {
+			Bytecode bytecode = bytecodeCache.get(className);
+			if(bytecode != null){
+				return bytecode.getClassHeader();
+			}
+			byte[] originalBytecode = getOriginalBytecode(className);
+			return originalBytecode == null ? null : ClassHeader.read(originalBytecode);
+		}
 	}
 	
-	private HashMap<String,Bytecode> bytecodeCache = new HashMap<String,Bytecode>();
-	private Set<String> purgedEntries = new HashSet<String>();
+	/**
+	 * A least recently used cache of class bytes read from the original jar,
+	 * bounded by the total size of the cached classes, safe for concurrent use
+	 */
+	private static class ReadCache {
+		private LinkedHashMap<String,byte[]> entries = new LinkedHashMap<String,byte[]>(16, 0.75f, true);
+		private long capacity;
+		private long size = 0;
+		
+		public ReadCache(long capacity){
+			this.capacity = capacity;
+		}
+		
+		public synchronized byte[] get(String entry){
+			return entries.get(entry);
+		}
+		
+		public synchronized void put(String entry, byte[] bytecode){
+			remove(entry);
+			entries.put(entry, bytecode);
+			size += bytecode.length;
+			evict();
+		}
+		
+		public synchronized void remove(String entry){
+			byte[] bytecode = entries.remove(entry);
+			if(bytecode != null){
+				size -= bytecode.length;
+			}
+		}
+		
+		public synchronized void setCapacity(long capacity){
+			this.capacity = capacity;
+			evict();
+		}
+		
+		private void evict(){
+			Iterator<byte[]> iterator = entries.values().iterator();
+			while(size > capacity && iterator.hasNext()){
+				size -= iterator.next().length;
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * The default capacity in bytes of the cache of unmodified classes
+	 */
+	public static final long DEFAULT_READ_CACHE_SIZE = 32 * 1024 * 1024;
+	
+	// classes that have been modified, these are written to the jar on save
+	private Map<String,Bytecode> bytecodeCache = new ConcurrentHashMap<String,Bytecode>();
+	
+	// classes that have only been read
+	private ReadCache readCache = new ReadCache(DEFAULT_READ_CACHE_SIZE);
+	
+	private Set<String> purgedEntries = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+	
+	/**
+	 * A deferred modification of a class, applied to the bytes of the class
+	 * as modified by the modifications deferred before it
+	 */
+	private static interface Transformation {
+		public byte[] apply(byte[] bytecode) throws IOException;
+	}
+	
+	// modifications recorded in streaming mode, in order, for each class that has not been read since
+	private Map<String,List<Transformation>> pendingTransformations = new ConcurrentHashMap<String,List<Transformation>>();
+	
+	private boolean streaming = false;
+	
+	/**
+	 * Identifies the build of the engine and of ASM that transforms classes,
+	 * transformed classes cached by a different build are not reused. The
+	 * bundle version does not change between development builds, so the code
+	 * itself is fingerprinted.
+	 */
+	public static final String VERSION = CodeFingerprint.of(Engine.class, ClassReader.class);
+	
+	private TransformationCache transformationCache = null;
+	
+	// identifies the jar and the classes that have been defined or purged, computed
+	// frames depend on the class hierarchy so merges are only reused for the same hierarchy
+	private String jarFingerprint;
+	private Map<String,String> hierarchyChanges = new TreeMap<String,String>();
+	private String hierarchyFingerprint = null;
+	
+	/**
+	 * The number of locks that guard the target classes of the input classes
+	 * being processed, each target class is guarded by the lock its name hashes to
+	 */
+	private static final int LOCK_STRIPES = 64;
+	private ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+	{
+		for(int i=0; i<LOCK_STRIPES; i++){
+			locks[i] = new ReentrantLock();
+		}
+	}
+	
+	private int processingThreads = 1;
 
 	public String getJarName(){
 		return jarName;
@@ -107,7 +250,9 @@ public class Engine {
 	}
 	
 	public Set<String> getModificationEntries(){
-		return new HashSet<String>(bytecodeCache.keySet());
+		HashSet<String> modificationEntries = new HashSet<String>(bytecodeCache.keySet());
+		modificationEntries.addAll(pendingTransformations.keySet());
+		return modificationEntries;
 	}
 	
 	public Engine(File jar, String mergeRenamePrefix) throws JarException, IOException {
@@ -115,42 +260,289 @@ public class Engine {
 		this.jarModifier = new JarModifier(jar);
 		this.jarName = jar.getName();
 		this.originalEntries = new HashSet<String>(jarModifier.getJarEntrySet());
+		this.jarFingerprint = new TransformationCache.Key().add(jar.getName()).add(Long.toString(jar.length())).add(Long.toString(jar.lastModified())).toString();
 	}
 	
 	public Engine(File jar, String mergeRenamePrefix, ClassLoader[] classLoaders) throws JarException, IOException {
 		this(jar, mergeRenamePrefix);
-		this.classLoaders = classLoaders;
+		setClassLoaders(classLoaders);
 	}
 	
+	/**
+	 * Sets the ordered class loaders used to resolve classes that are not in
+	 * the engine's jar. The class loaders belong to this engine only, so
+	 * engines with different class loaders may process classes concurrently.
+	 * 
+	 * @param classLoaders
+	 */
 	public void setClassLoaders(ClassLoader... classLoaders){
 		this.classLoaders = classLoaders;
+		this.classHierarchy = createClassHierarchy();
 	}
 	
-	private ClassNode getBytecode(String entry) throws IOException {
-		return BytecodeUtils.getClassNode(getRawBytecode(entry));
+	/**
+	 * Returns a class hierarchy that resolves classes from this engine first
+	 * and then from the class loaders, without loading any classes
+	 */
+	private ClassHierarchy createClassHierarchy(){
+		return new ClassHierarchy(new EngineClassHeaderSource(), new ClassLoaderSource(classLoaders));
+	}
+	
+	/**
+	 * Sets whether modified classes are compressed in the saved jar. Disabling
+	 * compression is useful for intermediate jars that are read once and discarded.
+	 * 
+	 * @param compressEntries
+	 */
+	public void setCompressEntries(boolean compressEntries){
+		jarModifier.setCompressEntries(compressEntries);
+	}
+	
+	/**
+	 * Sets the number of threads used to compress modified classes when saving
+	 * 
+	 * @param compressionThreads
+	 */
+	public void setCompressionThreads(int compressionThreads){
+		jarModifier.setCompressionThreads(compressionThreads);
+	}
+	
+	/**
+	 * Sets the maximum total size in bytes of the classes added to the jar
+	 * that are kept in memory until the jar is saved, the rest are kept in a
+	 * temporary file
+	 * 
+	 * @param heapBudget
+	 */
+	public void setPendingEntryHeapBudget(long heapBudget){
+		jarModifier.setPendingEntryHeapBudget(heapBudget);
+	}
+	
+	/**
+	 * Sets the number of threads used by processAll to process input classes
+	 * that modify disjoint target classes. If processAll is called from a
+	 * fork join pool the input classes are forked into that pool instead, so
+	 * any value greater than one enables parallel processing.
+	 * 
+	 * @param processingThreads
+	 */
+	public void setProcessingThreads(int processingThreads){
+		if(processingThreads < 1){
+			throw new IllegalArgumentException("At least one processing thread is required");
+		}
+		this.processingThreads = processingThreads;
+	}
+	
+	/**
+	 * Sets the maximum total size in bytes of the unmodified classes kept in
+	 * memory after they are read. Modified classes are always kept until the
+	 * engine is saved.
+	 * 
+	 * @param readCacheSize
+	 */
+	public void setReadCacheSize(long readCacheSize){
+		readCache.setCapacity(readCacheSize);
+	}
+	
+	/**
+	 * Sets whether merges and planned purge, finality, and visibility
+	 * modifications are recorded per target class instead of being applied as
+	 * they are processed. Recorded modifications are applied when the engine
+	 * is saved, in a single pass over the jar that transforms and writes one
+	 * class at a time, so the modified classes never need to be held in memory
+	 * together. A class with recorded modifications that is read before then
+	 * has its modifications applied when it is read. Defined classes are always
+	 * held in memory. Defaults to false.
+	 * 
+	 * @param streaming
+	 */
+	public void setStreaming(boolean streaming){
+		this.streaming = streaming;
+	}
+	
+	/**
+	 * Sets a persistent cache of transformed classes that is consulted before
+	 * merging classes or applying planned modifications. The cache assumes the
+	 * engine's class loaders resolve the same classes from build to build.
+	 * 
+	 * @param transformationCache The cache or null to disable caching
+	 */
+	public void setTransformationCache(TransformationCache transformationCache){
+		this.transformationCache = transformationCache;
+	}
+	
+	/**
+	 * Records the latest change to a class in the class hierarchy of the jar
+	 * @param className
+	 * @param bytecode The defined class or null if the class was purged
+	 */
+	private synchronized void updateHierarchyFingerprint(String className, byte[] bytecode){
+		hierarchyChanges.put(className, bytecode == null ? "purged" : new TransformationCache.Key().add(bytecode).toString());
+		hierarchyFingerprint = null;
+	}
+	
+	/**
+	 * Returns a fingerprint of the class hierarchy, which does not depend on
+	 * the order in which different classes were changed
+	 */
+	private synchronized String getHierarchyFingerprint(){
+		if(hierarchyFingerprint == null){
+			TransformationCache.Key key = new TransformationCache.Key().add(jarFingerprint);
+			for(Entry<String,String> change : hierarchyChanges.entrySet()){
+				key.add(change.getKey()).add(change.getValue());
+			}
+			hierarchyFingerprint = key.toString();
+		}
+		return hierarchyFingerprint;
+	}
+	
+	/**
+	 * Returns the start of a transformation cache key for a transformation of
+	 * the given class by this version of the engine
+	 */
+	private TransformationCache.Key getTransformationKey(String transformation, byte[] bytecode){
+		return new TransformationCache.Key().add(VERSION).add(transformation).add(mergeRenamePrefix).add(bytecode);
 	}
 	
 	private byte[] getRawBytecode(String entry) throws IOException {
-		if(bytecodeCache.containsKey(entry)){
-			return bytecodeCache.get(entry).getBytecode();
-		} else {
+		applyTransformations(entry);
+		return getCachedBytecode(entry);
+	}
+	
+	/**
+	 * Returns the bytes of the given class without applying its recorded
+	 * modifications or null if the class does not exist
+	 */
+	private byte[] getCachedBytecode(String entry) throws IOException {
+		Bytecode bytecode = bytecodeCache.get(entry);
+		if(bytecode != null){
+			return bytecode.getBytecode();
+		}
+		return getOriginalBytecode(entry);
+	}
+	
+	/**
+	 * Records a modification of the given class to be applied when the class
+	 * is next read or when the engine is saved. The caller must hold the lock
+	 * of the class.
+	 */
+	private void deferTransformation(String entry, Transformation transformation){
+		List<Transformation> transformations = pendingTransformations.get(entry);
+		if(transformations == null){
+			transformations = new ArrayList<Transformation>();
+			pendingTransformations.put(entry, transformations);
+		}
+		transformations.add(transformation);
+	}
+	
+	/**
+	 * Applies and clears the recorded modifications of the given class
+	 */
+	private void applyTransformations(String entry) throws IOException {
+		List<Transformation> transformations = pendingTransformations.remove(entry);
+		if(transformations != null){
+			byte[] bytecode = transform(entry, getCachedBytecode(entry), transformations);
+			if(bytecode != null){
+				updateBytecode(entry, bytecode);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the result of applying the given modifications to the bytes of
+	 * a class in order. A modification that fails is logged and skipped, the
+	 * same as an input class that fails to process.
+	 */
+	private byte[] transform(String entry, byte[] bytecode, List<Transformation> transformations) throws IOException {
+		if(bytecode == null){
+			Log.warning("Could not locate base class " + entry + ".", new RuntimeException("Missing base class"));
+			return null;
+		}
+		for(Transformation transformation : transformations){
+			try {
+				bytecode = transformation.apply(bytecode);
+			} catch (RuntimeException e){
+				Log.error("Error modifying class " + entry + "...", e);
+			}
+		}
+		return bytecode;
+	}
+	
+	/**
+	 * Returns the bytes of the given class with every modification made so far
+	 * applied, or null if the class does not exist or has been purged
+	 * 
+	 * @param className Qualified class name (example: java/lang/Object)
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readClass(String className) throws IOException {
+		return getRawBytecode(className);
+	}
+	
+	/**
+	 * Returns true if the given class exists, without reading it
+	 */
+	private boolean hasClass(String entry){
+		return bytecodeCache.containsKey(entry) || (!purgedEntries.contains(entry) && jarModifier.hasOriginalEntry(entry + ".class"));
+	}
+	
+	/**
+	 * Returns the unmodified bytes of the given class or null if the class does
+	 * not exist or has been purged
+	 */
+	private byte[] getOriginalBytecode(String entry) throws IOException {
+		if(purgedEntries.contains(entry)){
+			return null;
+		}
+		byte[] bytecode = readCache.get(entry);
+		if(bytecode == null){
 			String qualifiedClassFilename = entry + ".class";
-			byte[] bytecode = jarModifier.extractEntry(qualifiedClassFilename);
-			bytecodeCache.put(entry, new Bytecode(bytecode));
-			return bytecode;
+			bytecode = jarModifier.extractEntry(qualifiedClassFilename);
+			if(bytecode != null){
+				readCache.put(entry, bytecode);
+			}
+		}
+		return bytecode;
+	}
+	
+	/**
+	 * Loads the given classes into the engine's read cache in a single pass
+	 * over the jar, so that processing modifications to them does not need to
+	 * read the jar again. Classes that are already cached or that are not in
+	 * the jar are ignored. The read cache should be large enough to hold the
+	 * prefetched classes.
+	 * 
+	 * @param classNames Qualified class names (example: java/lang/Object)
+	 * @throws IOException
+	 */
+	public void prefetch(Set<String> classNames) throws IOException {
+		List<String> entries = new LinkedList<String>();
+		for(String className : classNames){
+			if(!bytecodeCache.containsKey(className) && readCache.get(className) == null && !purgedEntries.contains(className)){
+				entries.add(className + ".class");
+			}
+		}
+		if(!entries.isEmpty()){
+			for(Entry<String,byte[]> entry : jarModifier.extractEntries(entries).entrySet()){
+				String className = entry.getKey().substring(0, entry.getKey().length() - ".class".length());
+				readCache.put(className, entry.getValue());
+			}
 		}
 	}
 	
 	private void purgeBytecode(String entry){
+		pendingTransformations.remove(entry);
 		bytecodeCache.remove(entry);
+		readCache.remove(entry);
 		purgedEntries.add(entry);
-	}
-	
-	private void updateBytecode(String entry, ClassNode classNode) throws IOException {
-		updateBytecode(entry, BytecodeUtils.writeClass(classNode));
+		classHierarchy.invalidate(entry);
+		updateHierarchyFingerprint(entry, null);
 	}
 	
 	private void updateBytecode(String entry, byte[] bytecode) throws IOException {
+		// the bytes replace the class, including any modifications still recorded for it
+		pendingTransformations.remove(entry);
 		bytecodeCache.put(entry, new Bytecode(bytecode));
 	}
 	
@@ -160,76 +552,461 @@ public class Engine {
 //	}
 	
 	public void addUnprocessed(byte[] inputClass, boolean overwrite) throws IOException {
-		ClassNode classNode = BytecodeUtils.getClassNode(inputClass);
-		String qualifiedClassName = classNode.name + ".class";
+		// only the class name is needed, so the class body is not parsed
+		String qualifiedClassName = new ClassReader(inputClass).getClassName() + ".class";
 		jarModifier.add(qualifiedClassName, inputClass, overwrite);
 	}
 	
 	/**
-	 * Process the annotations of the class for the given phase
+	 * An input class along with the target classes it modifies in a phase
+	 */
+	private static class InputClass {
+		private byte[] bytecode;
+		private ClassNode classNode;
+		private AnnotationModel annotations;
+		private Set<String> targets = new TreeSet<String>();
+		private boolean hierarchyModification = false;
+		private String mergeTarget = null;
+		private int mergeGroup = 0;
+		
+		public InputClass(byte[] bytecode){
+			this.bytecode = bytecode;
+			this.classNode = BytecodeUtils.getClassNode(bytecode);
+			this.annotations = new AnnotationModel(classNode);
+		}
+	}
+	
+	/**
+	 * Parses the input class and collects the target classes it modifies in the given phase
+	 * @param inputClass
+	 * @param namedPhase
+	 * @return
+	 */
+	private InputClass getInputClass(byte[] inputClass, int namedPhase){
+		InputClass input = new InputClass(inputClass);
+		ClassNode classNode = input.classNode;
+		AnnotationModel annotations = input.annotations;
+		
+		// purges, finality, and visibility modifications target the classes they modify
+		if(namedPhase == -1){
+			input.targets.addAll(PurgeIdentifier.getPurgeTargets(annotations.getPurgeIdentifier()));
+			input.targets.addAll(DefineFinalityIdentifier.getFinalityTargets(annotations.getDefineFinalityIdentifier()));
+			input.targets.addAll(DefineVisibilityIdentifier.getVisibilityTargets(annotations.getDefineVisibilityIdentifier()));
+		} else {
+			input.targets.addAll(PurgeIdentifier.getPurgeTargets(annotations.getPurgeIdentifier(), namedPhase));
+			input.targets.addAll(DefineFinalityIdentifier.getFinalityTargets(annotations.getDefineFinalityIdentifier(), namedPhase));
+			input.targets.addAll(DefineVisibilityIdentifier.getVisibilityTargets(annotations.getDefineVisibilityIdentifier(), namedPhase));
+		}
+		
+		// purged types remove classes from the hierarchy
+		for(PurgeTypeAnnotation purgeTypeAnnotation : annotations.getPurgeIdentifier().getPurgeTypeAnnotations()){
+			if(namedPhase == -1 || purgeTypeAnnotation.getPhase() == namedPhase){
+				input.hierarchyModification = true;
+			}
+		}
+		
+		if(annotations.hasTypeAnnotation(JREFAnnotationKind.DEFINE_TYPE)){
+			// defined types replace classes in the hierarchy
+			if(namedPhase == -1 || annotations.getDefineIdentifier().getDefineTypeAnnotation().getPhase() == namedPhase){
+				input.targets.add(classNode.name);
+				input.hierarchyModification = true;
+			}
+		}
+		if(annotations.hasTypeAnnotation(JREFAnnotationKind.MERGE_TYPE)){
+			MergeTypeAnnotation mergeTypeAnnotation = annotations.getMergeIdentifier().getMergeTypeAnnotation();
+			if(namedPhase == -1 || mergeTypeAnnotation.getPhase() == namedPhase){
+				input.targets.add(mergeTypeAnnotation.getSupertype());
+				// inputs that only merge into a base class may be merged together
+				if(input.targets.size() == 1 && !annotations.hasTypeAnnotation(Category.DEFINE) 
+						&& !annotations.hasTypeAnnotation(Category.PURGE) 
+						&& !annotations.hasTypeAnnotation(Category.FINALITY) 
+						&& !annotations.hasTypeAnnotation(Category.VISIBILITY)){
+					input.mergeTarget = mergeTypeAnnotation.getSupertype();
+				}
+			}
+		}
+		
+		// modifications to inner classes also modify the outer class
+		for(String target : new ArrayList<String>(input.targets)){
+			if(target.contains("$")){
+				input.targets.add(target.substring(0, target.lastIndexOf("$")));
+			}
+		}
+		return input;
+	}
+	
+	/**
+	 * Process the annotations of the class for the given phase. This method
+	 * may be called concurrently, input classes that modify the same target
+	 * classes are processed one at a time.
 	 * @param inputClass
 	 * @param namedPhase
 	 * @return
 	 * @throws IOException
 	 */
 	public boolean process(byte[] inputClass, int phase, int namedPhase) throws IOException {
-		// set the ASM class loaders to be used to process this input
-		ClassLoaders.setClassLoaders(classLoaders);
+		return process(getInputClass(inputClass, namedPhase), phase, namedPhase);
+	}
+	
+	private boolean process(InputClass input, int phase, int namedPhase) throws IOException {
+		List<ReentrantLock> targetLocks = getLocks(input);
+		for(ReentrantLock lock : targetLocks){
+			lock.lock();
+		}
+		try {
+			return process(input.classNode, input.annotations, input.bytecode, phase, namedPhase);
+		} finally {
+			for(ReentrantLock lock : targetLocks){
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the locks guarding the target classes of the input class, in
+	 * lock order. Modifications to the class hierarchy require every lock.
+	 */
+	private List<ReentrantLock> getLocks(InputClass input){
+		List<ReentrantLock> targetLocks = new ArrayList<ReentrantLock>();
+		if(input.hierarchyModification){
+			for(ReentrantLock lock : locks){
+				targetLocks.add(lock);
+			}
+		} else {
+			Set<Integer> stripes = new TreeSet<Integer>();
+			for(String target : input.targets){
+				stripes.add((target.hashCode() & 0x7fffffff) % LOCK_STRIPES);
+			}
+			for(Integer stripe : stripes){
+				targetLocks.add(locks[stripe]);
+			}
+		}
+		return targetLocks;
+	}
+	
+	/**
+	 * Observes the progress of processAll and decides whether it continues.
+	 * Input classes may be processed on several threads, so implementations
+	 * must be thread safe.
+	 */
+	public static interface ProcessingMonitor {
+		/**
+		 * Returns true if the remaining input classes should not be processed
+		 * @return
+		 */
+		public boolean isCanceled();
 		
+		/**
+		 * Called after the given number of input classes are processed
+		 * @param inputClasses
+		 */
+		public void worked(int inputClasses);
+	}
+	
+	/**
+	 * Processes the annotations of the given classes for the given phase. The
+	 * result is the same as processing each class in order with process, but
+	 * classes that modify disjoint target classes are processed in parallel
+	 * (see setProcessingThreads). Input classes that define or purge types
+	 * change the class hierarchy, so they are processed once every preceding
+	 * input class is processed and before any following input class.
+	 * 
+	 * An input class that fails with a runtime exception is logged and skipped.
+	 * 
+	 * @param inputClasses
+	 * @param phase
+	 * @param namedPhase
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean processAll(Collection<byte[]> inputClasses, int phase, int namedPhase) throws IOException {
+		return processAll(inputClasses, phase, namedPhase, null);
+	}
+	
+	/**
+	 * Processes the annotations of the given classes for the given phase as
+	 * processAll does, reporting each processed input class to the given
+	 * monitor. If the monitor is canceled the input classes that have not
+	 * started are skipped, the engine is then left partially modified and
+	 * should be discarded.
+	 * 
+	 * @param inputClasses
+	 * @param phase
+	 * @param namedPhase
+	 * @param monitor The processing monitor or null
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean processAll(Collection<byte[]> inputClasses, int phase, int namedPhase, ProcessingMonitor monitor) throws IOException {
 		boolean processed = false;
-		ClassNode classNode = BytecodeUtils.getClassNode(inputClass);
+		// a caller that is already running in a fork join pool shares its pool with the input classes
+		ExecutorService executor = processingThreads > 1 && !ForkJoinTask.inForkJoinPool() ? new ForkJoinPool(processingThreads) : null;
+		try {
+			List<InputClass> batch = new ArrayList<InputClass>();
+			for(byte[] inputClass : inputClasses){
+				if(isCanceled(monitor)){
+					return processed;
+				}
+				InputClass input;
+				try {
+					input = getInputClass(inputClass, namedPhase);
+				} catch (RuntimeException e){
+					Log.error("Error processing input class...", e);
+					worked(monitor, 1);
+					continue;
+				}
+				if(input.hierarchyModification){
+					processed |= processBatch(batch, phase, namedPhase, executor, monitor);
+					batch.clear();
+					processed |= processInOrder(Collections.singletonList(input), phase, namedPhase, monitor);
+				} else {
+					batch.add(input);
+				}
+			}
+			processed |= processBatch(batch, phase, namedPhase, executor, monitor);
+		} finally {
+			if(executor != null){
+				executor.shutdownNow();
+			}
+		}
+		return processed;
+	}
+	
+	/**
+	 * Processes input classes that do not modify the class hierarchy. Input
+	 * classes that share a target class, directly or through other input
+	 * classes, are processed in order by the same task. The tasks run on the
+	 * given executor, or are forked into the calling fork join pool if the
+	 * executor is null and processing is parallel.
+	 */
+	private boolean processBatch(List<InputClass> batch, int phase, int namedPhase, ExecutorService executor, final ProcessingMonitor monitor) throws IOException {
+		if(batch.isEmpty()){
+			return false;
+		}
 		
-		if(namedPhase == -1){
-			Log.info("Processing input class: " + classNode.name + "...");
-		} else {
-			if(phase == namedPhase){
-				Log.info("Processing phase " + namedPhase + " of input class: " + classNode.name + "...");
+		// consecutive inputs that merge into the same base class are merged in
+		// one pass, which is decided before the batch is split into tasks so that
+		// the merged classes do not depend on the number of processing threads
+		for(int i=0; i<batch.size(); i++){
+			InputClass input = batch.get(i);
+			if(i > 0 && input.mergeTarget != null && input.mergeTarget.equals(batch.get(i-1).mergeTarget)){
+				input.mergeGroup = batch.get(i-1).mergeGroup;
 			} else {
-				Log.info("Processing phase " + phase + " (identified as " + namedPhase + ") of input class: " + classNode.name + "...");
+				input.mergeGroup = i;
 			}
-			
 		}
 		
+		// union the input classes that share a target class
+		int[] parents = new int[batch.size()];
+		Map<String,Integer> targetInputs = new HashMap<String,Integer>();
+		for(int i=0; i<batch.size(); i++){
+			parents[i] = i;
+			for(String target : batch.get(i).targets){
+				Integer input = targetInputs.get(target);
+				if(input == null){
+					targetInputs.put(target, i);
+				} else {
+					parents[find(parents, i)] = find(parents, input);
+				}
+			}
+		}
+		Map<Integer,List<InputClass>> components = new LinkedHashMap<Integer,List<InputClass>>();
+		for(int i=0; i<batch.size(); i++){
+			int root = find(parents, i);
+			List<InputClass> component = components.get(root);
+			if(component == null){
+				component = new ArrayList<InputClass>();
+				components.put(root, component);
+			}
+			component.add(batch.get(i));
+		}
+		
+		if(processingThreads == 1 || components.size() == 1){
+			return processInOrder(batch, phase, namedPhase, monitor);
+		}
+		
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for(final List<InputClass> component : components.values()){
+			Callable<Boolean> task = new Callable<Boolean>(){
+				@Override
+				public Boolean call() throws Exception {
+					return processInOrder(component, phase, namedPhase, monitor);
+				}
+			};
+			if(executor != null){
+				results.add(executor.submit(task));
+			} else {
+				results.add(ForkJoinTask.adapt(task).fork());
+			}
+		}
+		
+		// wait for every task before reporting the first failure
+		boolean processed = false;
+		IOException failure = null;
+		for(Future<Boolean> result : results){
+			try {
+				processed |= result.get();
+			} catch (InterruptedException e){
+				InterruptedIOException interruption = new InterruptedIOException("Interrupted while processing input classes");
+				interruption.initCause(e);
+				throw interruption;
+			} catch (ExecutionException e){
+				if(failure == null){
+					failure = getIOException(e, "Could not process input classes");
+				}
+			}
+		}
+		if(failure != null){
+			throw failure;
+		}
+		return processed;
+	}
+	
+	private boolean processInOrder(List<InputClass> inputs, int phase, int namedPhase, ProcessingMonitor monitor) throws IOException {
+		boolean processed = false;
+		int start = 0;
+		while(start < inputs.size() && !isCanceled(monitor)){
+			// inputs in the same merge group are merged in one pass
+			InputClass first = inputs.get(start);
+			int end = start + 1;
+			if(first.mergeTarget != null){
+				while(end < inputs.size() && first.mergeGroup == inputs.get(end).mergeGroup){
+					end++;
+				}
+			}
+			if(end - start > 1){
+				try {
+					processed |= processMerges(inputs.subList(start, end), phase, namedPhase);
+					worked(monitor, end - start);
+					start = end;
+					continue;
+				} catch (RuntimeException e){
+					// nothing has been updated yet, fall back to merging one at a time to skip the bad input
+				}
+			}
+			for(InputClass input : inputs.subList(start, end)){
+				if(isCanceled(monitor)){
+					return processed;
+				}
+				try {
+					processed |= process(input, phase, namedPhase);
+				} catch (RuntimeException e){
+					Log.error("Error processing input class " + input.classNode.name + "...", e);
+				}
+				worked(monitor, 1);
+			}
+			start = end;
+		}
+		return processed;
+	}
+	
+	/**
+	 * Returns the IOException that failed a task, which fork join tasks may
+	 * have wrapped in runtime exceptions
+	 */
+	private static IOException getIOException(ExecutionException e, String message){
+		for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()){
+			if(cause instanceof IOException){
+				return (IOException) cause;
+			}
+		}
+		return new IOException(message, e.getCause());
+	}
+	
+	private static boolean isCanceled(ProcessingMonitor monitor){
+		return monitor != null && monitor.isCanceled();
+	}
+	
+	private static void worked(ProcessingMonitor monitor, int inputClasses){
+		if(monitor != null){
+			monitor.worked(inputClasses);
+		}
+	}
+	
+	/**
+	 * Merges input classes that only merge into the same base class with a
+	 * single pass over the base class
+	 */
+	private boolean processMerges(List<InputClass> inputs, int phase, int namedPhase) throws IOException {
+		List<ReentrantLock> targetLocks = getLocks(inputs.get(0));
+		for(ReentrantLock lock : targetLocks){
+			lock.lock();
+		}
+		try {
+			String qualifiedParentClassName = inputs.get(0).mergeTarget;
+			List<byte[]> classesToMerge = new ArrayList<byte[]>();
+			for(InputClass input : inputs){
+				logProcessing(input.classNode, phase, namedPhase);
+				classesToMerge.add(input.bytecode);
+			}
+			mergeClasses(qualifiedParentClassName, classesToMerge);
+			for(InputClass input : inputs){
+				Log.info("Merged: " + input.classNode.name + " into " + qualifiedParentClassName + " in " + jarModifier.getJarFile().getName());
+			}
+			return true;
+		} finally {
+			for(ReentrantLock lock : targetLocks){
+				lock.unlock();
+			}
+		}
+	}
+	
+	private static int find(int[] parents, int i){
+		while(parents[i] != i){
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+	
+	private boolean process(ClassNode classNode, AnnotationModel annotations, byte[] inputClass, int phase, int namedPhase) throws IOException {
+		boolean processed = false;
+		
+		logProcessing(classNode, phase, namedPhase);
+		
+		// collect the requested purges, finality, and visibility modifications of each target class
+		Map<String,ModificationPlan> plans = new LinkedHashMap<String,ModificationPlan>();
+		
 		// make requested method and field purges
-		PurgeIdentifier purgeIdentifier = new PurgeIdentifier(classNode);
-		processed |= purge(purgeIdentifier, namedPhase);
+		processed |= purge(annotations.getPurgeIdentifier(), namedPhase, plans);
 		
 		// set finality
-		DefineFinalityIdentifier defineFinalityIdentifier = new DefineFinalityIdentifier(classNode);
-		processed |= setFinality(defineFinalityIdentifier, namedPhase);
+		setFinality(annotations.getDefineFinalityIdentifier(), namedPhase, plans);
 		
 		// set visibility modifiers
-		DefineVisibilityIdentifier defineVisibilityIdentifier = new DefineVisibilityIdentifier(classNode);
-		processed |= setVisibility(defineVisibilityIdentifier, namedPhase);
+		setVisibility(annotations.getDefineVisibilityIdentifier(), namedPhase, plans);
+		
+		// apply all of the modifications to each target class at once
+		for(ModificationPlan plan : plans.values()){
+			processed |= applyModificationPlan(plan);
+		}
 		
 		// TODO: address innerclasses, classNode.innerClasses, could these even be found from class files? they would be different files...
 		if(classNode.invisibleAnnotations != null){
 			for(Object annotationObject : classNode.invisibleAnnotations){
 				AnnotationNode annotationNode = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotationNode.desc, false);
+				JREFAnnotationKind kind = JREFAnnotationKind.getKind(annotationNode.desc);
 				String qualifiedClassName = classNode.name;
-				if(checker.isDefineTypeAnnotation()){
-					DefineIdentifier defineIdentifier = new DefineIdentifier(classNode);
+				if(kind == JREFAnnotationKind.DEFINE_TYPE){
+					DefineIdentifier defineIdentifier = annotations.getDefineIdentifier();
 					if(namedPhase == -1 || defineIdentifier.getDefineTypeAnnotation().getPhase() == namedPhase){
-						String qualifiedClassFilename = qualifiedClassName + ".class";
-						if(jarModifier.getJarEntrySet().contains(qualifiedClassFilename)){
-							updateBytecode(classNode.name, inputClass);
+						boolean replaced = hasClass(qualifiedClassName);
+						updateBytecode(classNode.name, inputClass);
+						classHierarchy.invalidate(classNode.name);
+						updateHierarchyFingerprint(classNode.name, inputClass);
+						if(replaced){
 							Log.info("Replaced: " + qualifiedClassName + " in " + jarModifier.getJarFile().getName());
 						} else {
-							updateBytecode(classNode.name, inputClass);
 							Log.info("Inserted: " + qualifiedClassName + " into " + jarModifier.getJarFile().getName());
 						}
 						processed = true;
 					}
-				} else if(checker.isMergeTypeAnnotation()){
-					MergeIdentifier mergeIdentifier = new MergeIdentifier(classNode);
+				} else if(kind == JREFAnnotationKind.MERGE_TYPE){
+					MergeIdentifier mergeIdentifier = annotations.getMergeIdentifier();
 					MergeTypeAnnotation mergeTypeAnnotation = mergeIdentifier.getMergeTypeAnnotation();
 					if(namedPhase == -1 || mergeTypeAnnotation.getPhase() == namedPhase){
 						String qualifiedParentClassName = mergeTypeAnnotation.getSupertype();
-						byte[] baseClass = getRawBytecode(qualifiedParentClassName);
-						byte[] mergedClass = mergeClasses(baseClass, inputClass);
-						updateBytecode(qualifiedParentClassName, mergedClass);
+						mergeClasses(qualifiedParentClassName, Collections.singletonList(inputClass));
 						Log.info("Merged: " + qualifiedClassName + " into " + qualifiedParentClassName + " in " + jarModifier.getJarFile().getName());
 						processed = true;
 					}
@@ -240,6 +1017,19 @@ public class Engine {
 		return processed;
 	}
 	
+	private static void logProcessing(ClassNode classNode, int phase, int namedPhase){
+		if(namedPhase == -1){
+			Log.info("Processing input class: " + classNode.name + "...");
+		} else {
+			if(phase == namedPhase){
+				Log.info("Processing phase " + namedPhase + " of input class: " + classNode.name + "...");
+			} else {
+				Log.info("Processing phase " + phase + " (identified as " + namedPhase + ") of input class: " + classNode.name + "...");
+			}
+			
+		}
+	}
+	
 	/**
 	 * Process all annotations regardless of phase
 	 * @param inputClass
@@ -250,7 +1040,88 @@ public class Engine {
 		return process(inputClass, -1, -1);
 	}
 	
-	private boolean purge(PurgeIdentifier purgeIdentifier, int phase) throws IOException {
+	/**
+	 * Returns the modification plan for the given class, creating an empty plan if needed
+	 */
+	private static ModificationPlan getModificationPlan(Map<String,ModificationPlan> plans, String className){
+		ModificationPlan plan = plans.get(className);
+		if(plan == null){
+			plan = new ModificationPlan(className);
+			plans.put(className, plan);
+		}
+		return plan;
+	}
+	
+	/**
+	 * Applies every modification planned for a class in a single pass over the class
+	 * @param plan
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean applyModificationPlan(final ModificationPlan plan) throws IOException {
+		if(plan.isEmpty()){
+			return false;
+		}
+		String className = plan.getClassName();
+		if(streaming){
+			if(!hasClass(className)){
+				Log.warning("Could not locate base class " + className + ".", new RuntimeException("Missing base class"));
+				return false;
+			}
+			deferTransformation(className, new Transformation(){
+				@Override
+				public byte[] apply(byte[] bytecode) throws IOException {
+					byte[] modifiedBytecode = applyModificationPlan(bytecode, plan);
+					return modifiedBytecode != null ? modifiedBytecode : bytecode;
+				}
+			});
+			return true;
+		}
+		
+		byte[] classBytes = getRawBytecode(className);
+		if(classBytes == null){
+			Log.warning("Could not locate base class " + className + ".", new RuntimeException("Missing base class"));
+			return false;
+		}
+		byte[] modifiedClassBytes = applyModificationPlan(classBytes, plan);
+		if(modifiedClassBytes != null){
+			updateBytecode(className, modifiedClassBytes);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the bytes of the given class with the planned modifications
+	 * applied or null if the plan does not modify the class
+	 */
+	private byte[] applyModificationPlan(byte[] classBytes, ModificationPlan plan) throws IOException {
+		String key = null;
+		if(transformationCache != null){
+			// plans do not compute frames, so the result does not depend on the class hierarchy
+			key = getTransformationKey("plan", classBytes).add(plan.getFingerprint()).toString();
+			byte[] cachedClassBytes = transformationCache.get(key);
+			if(cachedClassBytes != null){
+				// an empty class records that the plan did not modify the class
+				return cachedClassBytes.length == 0 ? null : cachedClassBytes;
+			}
+		}
+		
+		// planned modifications only change access flags or remove members, so
+		// method bodies can not change and are copied as is along with the
+		// constant pool instead of recomputing their frames
+		ClassReader classReader = new ClassReader(classBytes);
+		ClassWriter classWriter = new HierarchyClassWriter(classReader, 0, classHierarchy);
+		ModificationPlanAdapter modificationPlanAdapter = new ModificationPlanAdapter(classWriter, plan);
+		classReader.accept(modificationPlanAdapter, 0);
+		byte[] modifiedClassBytes = modificationPlanAdapter.isModified() ? classWriter.toByteArray() : null;
+		if(key != null){
+			transformationCache.put(key, modifiedClassBytes != null ? modifiedClassBytes : new byte[0]);
+		}
+		return modifiedClassBytes;
+	}
+	
+	private boolean purge(PurgeIdentifier purgeIdentifier, int phase, Map<String,ModificationPlan> plans) throws IOException {
 		boolean processed = false;
 		// purge types
 		for(PurgeTypeAnnotation purgeTypeAnnotation : purgeIdentifier.getPurgeTypeAnnotations()){
@@ -259,18 +1130,7 @@ public class Engine {
 				if(className.contains("$")){
 					// deal with outer class references to inner class files first
 					String baseClassName = className.substring(0, className.lastIndexOf("$"));
-					ClassNode baseClassNode = getBytecode(baseClassName);
-					List<InnerClassNode> innerClassNodesToRemove = new LinkedList<InnerClassNode>();
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-							innerClassNodesToRemove.add(innerClassNode);
-						}
-					}
-					for(InnerClassNode innerClassNodeToRemove : innerClassNodesToRemove){
-						baseClassNode.innerClasses.remove(innerClassNodeToRemove);
-						Log.info("Purged " + baseClassName + " reference to " + innerClassNodeToRemove.name + " inner class.");
-					}
-					updateBytecode(baseClassName, BytecodeUtils.writeClass(baseClassNode));
+					getModificationPlan(plans, baseClassName).purgeInnerClass(className);
 
 					// deal with the inner class file directly
 					String innerClassName = className;
@@ -279,9 +1139,8 @@ public class Engine {
 					processed = true;
 				} else {
 					// simple case no inner classes
-					ClassNode baseClassNode = getBytecode(className);
-					if(baseClassNode != null){
-						Log.info("Purged " + baseClassNode.name + " class.");
+					if(hasClass(className)){
+						Log.info("Purged " + className + " class.");
 						purgeBytecode(className);
 						processed = true;
 					} else {
@@ -293,54 +1152,13 @@ public class Engine {
 		// purge methods
 		for(PurgeMethodAnnotation purgeMethodAnnotation : purgeIdentifier.getPurgeMethodAnnotations()){
 			if(phase == -1 || purgeMethodAnnotation.getPhase() == phase){
-				// final is not a valid modifier for initializers so no need to consider that case
-				String className = purgeMethodAnnotation.getClassName();
-				ClassNode classNode = getBytecode(className);
-				for (Object o : classNode.methods) {
-					MethodNode methodNode = (MethodNode) o;
-					if(methodNode.name.equals(purgeMethodAnnotation.getMethodName())){
-						ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-						PurgeAdapter purgeAdapter = new PurgeAdapter(classWriter, methodNode);
-						ClassReader purgedBaseClassReader = new ClassReader(BytecodeUtils.writeClass(classNode));
-						purgedBaseClassReader.accept(purgeAdapter, ClassReader.EXPAND_FRAMES);
-						byte[] purgedClassBytes = classWriter.toByteArray();
-						classNode = BytecodeUtils.getClassNode(purgedClassBytes);
-						updateBytecode(classNode.name, purgedClassBytes);
-						processed = true;
-						
-						updateBytecode(className, classNode);
-						processed = true;
-						
-						Log.info("Purged " + classNode.name + "." + methodNode.name + " method.");
-						processed = true;
-					}
-				}
+				getModificationPlan(plans, purgeMethodAnnotation.getClassName()).purgeMethod(purgeMethodAnnotation.getMethodName(), purgeMethodAnnotation.getMethodDescriptor());
 			}
 		}
 		// purge fields
 		for(PurgeFieldAnnotation purgeFieldAnnotation : purgeIdentifier.getPurgeFieldAnnotations()){
 			if(phase == -1 || purgeFieldAnnotation.getPhase() == phase){
-				String className = purgeFieldAnnotation.getClassName();
-				ClassNode classNode = getBytecode(className);
-				for (Object o : classNode.fields) {
-					FieldNode fieldNode = (FieldNode) o;
-					if(fieldNode.name.equals(purgeFieldAnnotation.getFieldName())){
-						ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-						PurgeAdapter purgeAdapter = new PurgeAdapter(classWriter, fieldNode);
-						ClassReader purgedBaseClassReader = new ClassReader(BytecodeUtils.writeClass(classNode));
-						purgedBaseClassReader.accept(purgeAdapter, ClassReader.EXPAND_FRAMES);
-						byte[] purgedClassBytes = classWriter.toByteArray();
-						classNode = BytecodeUtils.getClassNode(purgedClassBytes);
-						updateBytecode(classNode.name, purgedClassBytes);
-						processed = true;
-						
-						updateBytecode(className, classNode);
-						processed = true;
-						
-						Log.info("Purged " + classNode.name + "." + fieldNode.name + " field.");
-						break; // should only be one match
-					}
-				}
+				getModificationPlan(plans, purgeFieldAnnotation.getClassName()).purgeField(purgeFieldAnnotation.getFieldName());
 			}
 		}
 		return processed;
@@ -413,91 +1231,44 @@ public class Engine {
 	}
 	
 	/**
-	 * Sets the access (visibility) modifiers for types, methods, and fields as defined by the annotation system
+	 * Returns the access modification that applies the given annotated visibility
+	 */
+	private static AccessModification getVisibilityModification(Visibility visibility){
+		if(visibility == Visibility.PUBLIC){
+			return ModificationPlan.visibility(Opcodes.ACC_PUBLIC, "public");
+		} else if(visibility == Visibility.PROTECTED){
+			return ModificationPlan.visibility(Opcodes.ACC_PROTECTED, "protected");
+		} else if(visibility == Visibility.PRIVATE){
+			return ModificationPlan.visibility(Opcodes.ACC_PRIVATE, "private");
+		} else {
+			// should never happen
+			throw new RuntimeException("Missing visibility modifier");
+		}
+	}
+	
+	/**
+	 * Plans the visibility modifiers for types, methods, and fields as defined by the annotation system
 	 * @param defineVisibilityIdentifier
-	 * @param phase 
-	 * @param runtimeModifications
-	 * @throws IOException 
+	 * @param phase
+	 * @param plans
 	 */
-	private boolean setVisibility(DefineVisibilityIdentifier defineVisibilityIdentifier, int phase) throws IOException {
-		boolean processed = false;
+	private void setVisibility(DefineVisibilityIdentifier defineVisibilityIdentifier, int phase, Map<String,ModificationPlan> plans) {
 		// update types
 		for(DefineTypeVisibilityAnnotation defineTypeVisibilityAnnotation : defineVisibilityIdentifier.getTargetTypes()){
 			if(phase == -1 || defineTypeVisibilityAnnotation.getPhase() == phase){
 				String className = defineTypeVisibilityAnnotation.getClassName();
+				AccessModification modification = getVisibilityModification(defineTypeVisibilityAnnotation.getVisibility());
 				if(className.contains("$")){
 					// deal with outer class references to inner class files first
 					String baseClassName = className.substring(0, className.lastIndexOf("$"));
-					ClassNode baseClassNode = getBytecode(baseClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-							if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set outer class attributes for " + innerClassNode.name + " class to be public.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set outer class attributes for " + innerClassNode.name + " class to be protected.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set outer class attributes for " + innerClassNode.name + " class to be private.");
-							} else {
-								// should never happen
-								throw new RuntimeException("Missing visibility modifier");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(baseClassName, baseClassNode);
+					getModificationPlan(plans, baseClassName).modifyInnerClassAccess(className, modification);
 					
 					// deal with the inner class file directly
-					String innerClassName = className;
-					baseClassNode = getBytecode(innerClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-							if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set " + innerClassNode.name + " inner class to be public.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set " + innerClassNode.name + " inner class to be protected.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set " + innerClassNode.name + " inner class to be private.");
-							} else {
-								// should never happen
-								throw new RuntimeException("Missing visibility modifier");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(innerClassName, baseClassNode);
+					getModificationPlan(plans, className).modifyInnerClassAccess(className, modification);
 				} else {
 					// simple case no inner classes
-					ClassNode baseClassNode = getBytecode(className);
-//					Log.info("Pre Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-					baseClassNode.access = baseClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-					if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-						baseClassNode.access = baseClassNode.access | Opcodes.ACC_PUBLIC;
-						Log.info("Set " + baseClassNode.name + " class to be public.");
-					} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-						baseClassNode.access = baseClassNode.access | Opcodes.ACC_PROTECTED;
-						Log.info("Set " + baseClassNode.name + " class to be protected.");
-					} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-						baseClassNode.access = baseClassNode.access | Opcodes.ACC_PRIVATE;
-						Log.info("Set " + baseClassNode.name + " class to be private.");
-					} else {
-						// should never happen
-						throw new RuntimeException("Missing visibility modifier");
-					}
-//					Log.info("Post Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-					updateBytecode(className, baseClassNode);
+					getModificationPlan(plans, className).modifyClassAccess(modification);
 				}
-				
-				processed = true;
 			}
 		}
 		// update methods
@@ -505,178 +1276,56 @@ public class Engine {
 			if(phase == -1 || defineMethodVisibilityAnnotation.getPhase() == phase){
 				String qualifiedClassName = defineMethodVisibilityAnnotation.getClassName();
 				String[] simpleClassNameParts = qualifiedClassName.split("/");
-				ClassNode baseClassNode = getBytecode(qualifiedClassName);
 				String simpleClassName = simpleClassNameParts[simpleClassNameParts.length-1];
 				if(simpleClassName.contains("$")){
 					simpleClassName = simpleClassName.substring(simpleClassName.indexOf("$")+1,simpleClassName.length());
 				}
-				for (Object o : baseClassNode.methods) {
-					MethodNode methodNode = (MethodNode) o;
-					if(defineMethodVisibilityAnnotation.getMethodName().equals(simpleClassName)){
-						if(methodNode.name.equals("<init>")){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(methodNode.access));
-							methodNode.access = methodNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-							if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-								methodNode.access = methodNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set " + methodNode.name + " initializer to be public.");
-							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-								methodNode.access = methodNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set " + methodNode.name + " initializer to be protected.");
-							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-								methodNode.access = methodNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set " + methodNode.name + " initializer to be private.");
-							} else {
-								// should never happen
-								throw new RuntimeException("Missing visibility modifier");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(methodNode.access));
-						} else if(methodNode.name.equals("<clinit>")){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(methodNode.access));
-							methodNode.access = methodNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-							if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-								methodNode.access = methodNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set " + methodNode.name + " static initializer to be public.");
-							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-								methodNode.access = methodNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set " + methodNode.name + " static initializer to be protected.");
-							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-								methodNode.access = methodNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set " + methodNode.name + " static initializer to be private.");
-							} else {
-								// should never happen
-								throw new RuntimeException("Missing visibility modifier");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(methodNode.access));
-						}
-						updateBytecode(qualifiedClassName, baseClassNode);
-						processed = true;
-					} else if(methodNode.name.equals(defineMethodVisibilityAnnotation.getMethodName())){
-//						Log.info("Pre Access Modifiers: " + getAccessModifiers(methodNode.access));
-						methodNode.access = methodNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-						if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-							methodNode.access = methodNode.access | Opcodes.ACC_PUBLIC;
-							Log.info("Set " + methodNode.name + " method to be public.");
-						} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-							methodNode.access = methodNode.access | Opcodes.ACC_PROTECTED;
-							Log.info("Set " + methodNode.name + " method to be protected.");
-						} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-							methodNode.access = methodNode.access | Opcodes.ACC_PRIVATE;
-							Log.info("Set " + methodNode.name + " method to be private.");
-						} else {
-							// should never happen
-							throw new RuntimeException("Missing visibility modifier");
-						}
-//						Log.info("Post Access Modifiers: " + getAccessModifiers(methodNode.access));
-						updateBytecode(qualifiedClassName, baseClassNode);
-						processed = true;
-//						break; // should only be one match?
-						// TODO: is above true? need to do better signature matching I assume? for now just blast em all...
+				ModificationPlan plan = getModificationPlan(plans, qualifiedClassName);
+				AccessModification modification = getVisibilityModification(defineMethodVisibilityAnnotation.getVisibility());
+				if(defineMethodVisibilityAnnotation.getMethodName().equals(simpleClassName)){
+					// the class name refers to the initializers
+					String methodDescriptor = defineMethodVisibilityAnnotation.getMethodDescriptor();
+					plan.modifyMethodAccess("<init>", methodDescriptor, modification);
+					if(methodDescriptor == null){
+						plan.modifyMethodAccess("<clinit>", modification);
 					}
+				} else {
+					// without a descriptor every method with the name is modified
+					plan.modifyMethodAccess(defineMethodVisibilityAnnotation.getMethodName(), defineMethodVisibilityAnnotation.getMethodDescriptor(), modification);
 				}
 			}
 		}
 		// update fields
 		for(DefineFieldVisibilityAnnotation defineFieldVisibilityAnnotation : defineVisibilityIdentifier.getTargetFields()){
 			if(phase == -1 || defineFieldVisibilityAnnotation.getPhase() == phase){
-				String className = defineFieldVisibilityAnnotation.getClassName();
-				ClassNode baseClassNode = getBytecode(className);
-				for (Object o : baseClassNode.fields) {
-					FieldNode fieldNode = (FieldNode) o;
-					if(fieldNode.name.equals(defineFieldVisibilityAnnotation.getFieldName())){
-//						Log.info("Pre Access Modifiers: " + getAccessModifiers(fieldNode.access));
-						fieldNode.access = fieldNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-						if(defineFieldVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-							fieldNode.access = fieldNode.access | Opcodes.ACC_PUBLIC;
-							Log.info("Set " + fieldNode.name + " field to be public.");
-						} else if(defineFieldVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-							fieldNode.access = fieldNode.access | Opcodes.ACC_PROTECTED;
-							Log.info("Set " + fieldNode.name + " field to be protected.");
-						} else if(defineFieldVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-							fieldNode.access = fieldNode.access | Opcodes.ACC_PRIVATE;
-							Log.info("Set " + fieldNode.name + " field to be private.");
-						} else {
-							// should never happen
-							throw new RuntimeException("Missing visibility modifier");
-						}
-//						Log.info("Post Access Modifiers: " + getAccessModifiers(fieldNode.access));
-						updateBytecode(className, baseClassNode);
-						processed = true;
-						break; // should only be one match
-					}
-				}
+				AccessModification modification = getVisibilityModification(defineFieldVisibilityAnnotation.getVisibility());
+				getModificationPlan(plans, defineFieldVisibilityAnnotation.getClassName()).modifyFieldAccess(defineFieldVisibilityAnnotation.getFieldName(), modification);
 			}
 		}
-		return processed;
 	}
 
 	/**
-	 * Sets the finality bit for for types, methods, and fields as defined by the annotation system
+	 * Plans the finality bit for for types, methods, and fields as defined by the annotation system
 	 * @param defineFinalityIdentifier
 	 * @param phase 
-	 * @param runtimeModifications
-	 * @throws IOException
+	 * @param plans
 	 */
-	private boolean setFinality(DefineFinalityIdentifier defineFinalityIdentifier, int phase) throws IOException {
-		boolean processed = false;
+	private void setFinality(DefineFinalityIdentifier defineFinalityIdentifier, int phase, Map<String,ModificationPlan> plans) {
 		// update types
 		for(DefineTypeFinalityAnnotation defineTypeFinalityAnnotation : defineFinalityIdentifier.getTargetTypes()){
 			if(phase == -1 || defineTypeFinalityAnnotation.getPhase() == phase){
 				String className = defineTypeFinalityAnnotation.getClassName();
+				AccessModification modification = ModificationPlan.finality(defineTypeFinalityAnnotation.getFinality());
 				if(className.contains("$")){
 					// deal with outer class references to inner class files first
 					String baseClassName = className.substring(0, className.lastIndexOf("$"));
-					ClassNode baseClassNode = getBytecode(baseClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							if(defineTypeFinalityAnnotation.getFinality()){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_FINAL;
-								Log.info("Set " + innerClassNode.name + " class to be final.");
-							} else {
-								innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_FINAL);
-								Log.info("Set " + innerClassNode.name + " class to be non-final.");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(baseClassName, baseClassNode);
+					getModificationPlan(plans, baseClassName).modifyInnerClassAccess(className, modification);
 					
 					// deal with the inner class file directly
-					String innerClassName = className;
-					baseClassNode = getBytecode(innerClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							if(defineTypeFinalityAnnotation.getFinality()){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_FINAL;
-								Log.info("Set " + innerClassNode.name + " class to be final.");
-							} else {
-								innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_FINAL);
-								Log.info("Set " + innerClassNode.name + " class to be non-final.");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(innerClassName, baseClassNode);
-					processed = true;
+					getModificationPlan(plans, className).modifyInnerClassAccess(className, modification);
 				} else {
 					// simple case no inner classes
-					ClassNode baseClassNode = getBytecode(className);
-					if(baseClassNode != null){
-//						Log.info("Pre Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-						if(defineTypeFinalityAnnotation.getFinality()){
-							baseClassNode.access = baseClassNode.access | Opcodes.ACC_FINAL;
-							Log.info("Set " + baseClassNode.name + " class to be final.");
-						} else {
-							baseClassNode.access = baseClassNode.access & (~Opcodes.ACC_FINAL);
-							Log.info("Set " + baseClassNode.name + " class to be non-final.");
-						}
-//						Log.info("Post Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-						updateBytecode(className, baseClassNode);
-						processed = true;
-					} else {
-						Log.warning("Could not locate base class.", new RuntimeException("Missing base class"));
-					}
+					getModificationPlan(plans, className).modifyClassAccess(modification);
 				}
 			}
 		}
@@ -684,147 +1333,156 @@ public class Engine {
 		for(DefineMethodFinalityAnnotation defineMethodFinalityAnnotation : defineFinalityIdentifier.getTargetMethods()){
 			if(phase == -1 || defineMethodFinalityAnnotation.getPhase() == phase){
 				// final is not a valid modifier for initializers so no need to consider that case
-				String className = defineMethodFinalityAnnotation.getClassName();
-				ClassNode baseClassNode = getBytecode(className);
-				for (Object o : baseClassNode.methods) {
-					MethodNode methodNode = (MethodNode) o;
-					if(methodNode.name.equals(defineMethodFinalityAnnotation.getMethodName())){
-//						Log.info("Pre Access Modifiers: " + getAccessModifiers(methodNode.access));
-						if(defineMethodFinalityAnnotation.getFinality()){
-							methodNode.access = methodNode.access | Opcodes.ACC_FINAL;
-							Log.info("Set " + methodNode.name + " method to be final.");
-						} else {
-							methodNode.access = methodNode.access & (~Opcodes.ACC_FINAL);
-							Log.info("Set " + methodNode.name + " method to be non-final.");
-						}
-//						Log.info("Post Access Modifiers: " + getAccessModifiers(methodNode.access));
-						updateBytecode(className, baseClassNode);
-						processed = true;
-					}
-				}
+				AccessModification modification = ModificationPlan.finality(defineMethodFinalityAnnotation.getFinality());
+				getModificationPlan(plans, defineMethodFinalityAnnotation.getClassName()).modifyMethodAccess(defineMethodFinalityAnnotation.getMethodName(), defineMethodFinalityAnnotation.getMethodDescriptor(), modification);
 			}
 		}
 		// update fields
 		for(DefineFieldFinalityAnnotation defineFieldFinalityAnnotation : defineFinalityIdentifier.getTargetFields()){
 			if(phase == -1 || defineFieldFinalityAnnotation.getPhase() == phase){
-				String className = defineFieldFinalityAnnotation.getClassName();
-				ClassNode baseClassNode = getBytecode(className);
-				for (Object o : baseClassNode.fields) {
-					FieldNode fieldNode = (FieldNode) o;
-					if(fieldNode.name.equals(defineFieldFinalityAnnotation.getFieldName())){
-//						Log.info("Pre Access Modifiers: " + getAccessModifiers(fieldNode.access));
-						if(defineFieldFinalityAnnotation.getFinality()){
-							fieldNode.access = fieldNode.access | Opcodes.ACC_FINAL;
-							Log.info("Set " + fieldNode.name + " field to be final.");
-						} else {
-							fieldNode.access = fieldNode.access & (~Opcodes.ACC_FINAL);
-							Log.info("Set " + fieldNode.name + " field to be non-final.");
-						}
-//						Log.info("Post Access Modifiers: " + getAccessModifiers(fieldNode.access));
-						updateBytecode(className, baseClassNode);
-						processed = true;
-						break; // should only be one match
-					}
-				}
+				AccessModification modification = ModificationPlan.finality(defineFieldFinalityAnnotation.getFinality());
+				getModificationPlan(plans, defineFieldFinalityAnnotation.getClassName()).modifyFieldAccess(defineFieldFinalityAnnotation.getFieldName(), modification);
 			}
 		}
-		return processed;
 	}
 
 	public void save(File outputFile) throws IOException {
 		for(String entry : purgedEntries){
 			jarModifier.remove(entry + ".class");
 		}
-		for(Entry<String,Bytecode> entry : bytecodeCache.entrySet()){
-			jarModifier.add(entry.getKey() + ".class", entry.getValue().getBytecode(), true);
+		for(String entry : new ArrayList<String>(bytecodeCache.keySet())){
+			// classes that are already in memory are modified in memory
+			applyTransformations(entry);
+			jarModifier.add(entry + ".class", bytecodeCache.get(entry).getBytecode(), true);
+		}
+		if(pendingTransformations.isEmpty()){
+			jarModifier.save(outputFile);
+		} else {
+			// the remaining recorded modifications are of original classes, which
+			// are transformed one at a time as they are copied to the output jar
+			jarModifier.save(outputFile, new JarModifier.EntryTransformer(){
+				@Override
+				public boolean isTransformed(String entry) {
+					return getTransformations(entry) != null;
+				}
+				@Override
+				public byte[] transform(String entry, byte[] bytes) throws IOException {
+					String className = entry.substring(0, entry.length() - ".class".length());
+					byte[] bytecode = Engine.this.transform(className, bytes, getTransformations(entry));
+					return bytecode != null ? bytecode : bytes;
+				}
+				private List<Transformation> getTransformations(String entry){
+					if(!entry.endsWith(".class")){
+						return null;
+					}
+					return pendingTransformations.get(entry.substring(0, entry.length() - ".class".length()));
+				}
+			});
 		}
-		jarModifier.save(outputFile);
 	}
 	
-	private byte[] mergeClasses(byte[] baseClass, byte[] classToMerge) throws IOException {
-		// read the classes into ClassNode objects
-		ClassNode baseClassNode = BytecodeUtils.getClassNode(baseClass);
-		ClassNode classToMergeClassNode = BytecodeUtils.getClassNode(classToMerge);
-
-		// get a list of base methods conflicting with methods to merge
-		BaseMethodsIdentifier baseMethodsIdentifier = new BaseMethodsIdentifier(baseClassNode);
-		LinkedList<MethodNode> baseMethods = baseMethodsIdentifier.getBaseMethods();
-		
-		// identify methods to insert or replace
-		DefineIdentifier defineMethodsIdentifier = new DefineIdentifier(classToMergeClassNode);
-		LinkedList<DefineMethodAnnotation> methodsToDefine = defineMethodsIdentifier.getDefineMethodAnnotations();
-		
-		// identify methods to merge
-		MergeIdentifier mergeIdentifier = new MergeIdentifier(classToMergeClassNode);
-		LinkedList<MergeMethodAnnotation> methodToMergeAnnotations = mergeIdentifier.getMergeMethodAnnotations();
-		
-		// rename base methods that should be preserved
-		LinkedList<String> renamedMethods = new LinkedList<String>();
-		for(MergeMethodAnnotation methodToMergeAnnotation : methodToMergeAnnotations){
-			MethodNode methodToMerge = methodToMergeAnnotation.getMethodNode();
-			boolean foundTargetMethod = false;
-			for(MethodNode baseMethod : baseMethods){
-				if(methodToMerge.signature != null && baseMethod.signature != null){
-					if(methodToMerge.signature.equals(baseMethod.signature)){
-						if(methodToMerge.name.equals(baseMethod.name) && methodToMerge.desc.equals(baseMethod.desc)){
-							renamedMethods.add(baseClassNode.name + "." + renameMethod(baseMethod));
-							foundTargetMethod = true;
-							continue;
+	/**
+	 * Releases the file handle held on the original jar and the entries added
+	 * to the jar along with any temporary file holding them. The engine should
+	 * be closed once its jar has been saved for the last time.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		jarModifier.close();
+	}
+	
+	/**
+	 * Merges the given classes into the given base class, or records the merge
+	 * to be made later in streaming mode
+	 */
+	private void mergeClasses(String qualifiedParentClassName, final List<byte[]> classesToMerge) throws IOException {
+		if(streaming){
+			if(!hasClass(qualifiedParentClassName)){
+				throw new RuntimeException("Missing base class " + qualifiedParentClassName);
+			}
+			deferTransformation(qualifiedParentClassName, new Transformation(){
+				@Override
+				public byte[] apply(byte[] bytecode) throws IOException {
+					if(classesToMerge.size() > 1){
+						try {
+							return mergeClasses(bytecode, classesToMerge);
+						} catch (RuntimeException e){
+							// fall back to merging one at a time to skip the bad input, as processInOrder does
 						}
+						for(byte[] classToMerge : classesToMerge){
+							try {
+								bytecode = mergeClasses(bytecode, Collections.singletonList(classToMerge));
+							} catch (RuntimeException e){
+								Log.error("Error processing input class " + new ClassReader(classToMerge).getClassName() + "...", e);
+							}
+						}
+						return bytecode;
 					}
-				} else {
-					// signature was null, fall back to name and description only
-					if(methodToMerge.name.equals(baseMethod.name) && methodToMerge.desc.equals(baseMethod.desc)){
-						renamedMethods.add(baseClassNode.name + "." + renameMethod(baseMethod));
-						foundTargetMethod = true;
-						continue;
-					}
+					return mergeClasses(bytecode, classesToMerge);
 				}
+			});
+		} else {
+			byte[] baseClass = getRawBytecode(qualifiedParentClassName);
+			byte[] mergedClass = mergeClasses(baseClass, classesToMerge);
+			updateBytecode(qualifiedParentClassName, mergedClass);
+		}
+	}
+	
+	/**
+	 * Merges each class to merge into the base class, in order, in a single
+	 * pass over the base class. The result is the same as merging each class
+	 * into the result of merging the previous classes.
+	 */
+	private byte[] mergeClasses(byte[] baseClass, List<byte[]> classesToMerge) throws IOException {
+		String key = null;
+		if(transformationCache != null){
+			TransformationCache.Key transformationKey = getTransformationKey("merge", baseClass).add(getHierarchyFingerprint());
+			for(byte[] classToMerge : classesToMerge){
+				transformationKey.add(classToMerge);
 			}
-			if(!foundTargetMethod){
-				Log.warning("Target method " + methodToMerge.desc.toString() + " does not exist! Runtime behavior may not be correct.");
+			key = transformationKey.toString();
+			byte[] mergedClass = transformationCache.get(key);
+			if(mergedClass != null){
+				return mergedClass;
 			}
 		}
 		
-		// purge defined methods that were already there
-		// adapt a ClassWriter with the PurgeAdapter
-		ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-		Set<MethodNode> methodsToPurge = new HashSet<MethodNode>();
-		for(DefineMethodAnnotation methodToDefine : methodsToDefine){
-			methodsToPurge.add(methodToDefine.getMethodNode());
-		}
-		Set<FieldNode> fieldsToPurge = new HashSet<FieldNode>();
-		PurgeAdapter purgeAdapter = new PurgeAdapter(classWriter, methodsToPurge, fieldsToPurge);
-		ClassReader purgedBaseClassReader = new ClassReader(BytecodeUtils.writeClass(baseClassNode));
-		purgedBaseClassReader.accept(purgeAdapter, ClassReader.EXPAND_FRAMES);
-		baseClassNode = BytecodeUtils.getClassNode(classWriter.toByteArray());
-
-		// merge the classes
-		// adapt a ClassWriter with the MergeAdapter
-		// modifiedBaseClass, classToMerge -> MergeAdapter -> ClassWriter
-		classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-		MergeAdapter mergeAdapter = new MergeAdapter(classWriter, classToMergeClassNode, mergeRenamePrefix, renamedMethods);
-		ClassReader modifiedBaseClassReader = new ClassReader(BytecodeUtils.writeClass(baseClassNode));
-		modifiedBaseClassReader.accept(mergeAdapter, ClassReader.EXPAND_FRAMES);
-		return classWriter.toByteArray();
-	}
-
-	private String renameMethod(MethodNode methodToRename) {
-		// first remove any annotations from renamed base methods
-		AnnotationUtils.clearMethodAnnotations(methodToRename);
-		
-		// rename the method
-		String originalMethodName = methodToRename.name;
-		String renamedMethodName = mergeRenamePrefix + methodToRename.name;
-		methodToRename.name = renamedMethodName;
-		
-		// make the method private to hide it from the end user
-		methodToRename.access = methodToRename.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-		methodToRename.access = methodToRename.access | Opcodes.ACC_PRIVATE;
-
-		Log.info("Renamed " + originalMethodName + " to " + renamedMethodName);
-		
-		return originalMethodName; // return the original name
+		// baseClass -> (MergeRenameAdapter -> PurgeAdapter -> MergeAdapter) for each class to merge -> ClassWriter
+		// the writer shares the base class constant pool, so base methods that reach the writer 
+		// unchanged are copied as is and only added or modified methods have their frames computed
+		ClassReader baseClassReader = new ClassReader(baseClass);
+		ClassWriter classWriter = new HierarchyClassWriter(baseClassReader, ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, classHierarchy);
+		ClassVisitor classVisitor = classWriter;
+		for(int i=classesToMerge.size()-1; i>=0; i--){
+			ClassNode classToMergeClassNode = BytecodeUtils.getClassNode(classesToMerge.get(i));
+			AnnotationModel annotations = new AnnotationModel(classToMergeClassNode);
+			
+			// identify methods to insert or replace
+			Set<MethodNode> methodsToPurge = new HashSet<MethodNode>();
+			for(DefineMethodAnnotation methodToDefine : annotations.getDefineIdentifier().getDefineMethodAnnotations()){
+				methodsToPurge.add(methodToDefine.getMethodNode());
+			}
+			
+			// identify methods to merge
+			List<MethodNode> methodsToMerge = new LinkedList<MethodNode>();
+			for(MergeMethodAnnotation methodToMergeAnnotation : annotations.getMergeIdentifier().getMergeMethodAnnotations()){
+				methodsToMerge.add(methodToMergeAnnotation.getMethodNode());
+			}
+			
+			// rename base methods that should be preserved, purge defined methods 
+			// that were already there, then merge the classes
+			LinkedList<String> renamedMethods = new LinkedList<String>();
+			classVisitor = new MergeAdapter(classVisitor, classToMergeClassNode, mergeRenamePrefix, renamedMethods);
+			classVisitor = new PurgeAdapter(classVisitor, methodsToPurge, new HashSet<FieldNode>());
+			classVisitor = new MergeRenameAdapter(classVisitor, methodsToMerge, mergeRenamePrefix, renamedMethods);
+		}
+		baseClassReader.accept(classVisitor, ClassReader.EXPAND_FRAMES);
+		byte[] mergedClass = classWriter.toByteArray();
+		if(key != null){
+			transformationCache.put(key, mergedClass);
+		}
+		return mergedClass;
 	}
 	
 }
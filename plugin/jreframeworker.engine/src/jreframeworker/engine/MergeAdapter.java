@@ -1,9 +1,13 @@
 package jreframeworker.engine;
 
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.RemappingMethodAdapter;
@@ -11,27 +15,12 @@ import org.objectweb.asm.commons.SimpleRemapper;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.FrameNode;
-import org.objectweb.asm.tree.IincInsnNode;
-import org.objectweb.asm.tree.InsnList;
-import org.objectweb.asm.tree.InsnNode;
-import org.objectweb.asm.tree.IntInsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
-import org.objectweb.asm.tree.JumpInsnNode;
-import org.objectweb.asm.tree.LabelNode;
-import org.objectweb.asm.tree.LdcInsnNode;
-import org.objectweb.asm.tree.LineNumberNode;
-import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
-import org.objectweb.asm.tree.MultiANewArrayInsnNode;
-import org.objectweb.asm.tree.TableSwitchInsnNode;
-import org.objectweb.asm.tree.TypeInsnNode;
-import org.objectweb.asm.tree.VarInsnNode;
 
-import jreframeworker.engine.identifiers.JREFAnnotationIdentifier;
+import jreframeworker.engine.identifiers.JREFAnnotationKind;
 import jreframeworker.engine.log.Log;
 import jreframeworker.engine.utils.AnnotationUtils;
 
@@ -49,6 +38,10 @@ public class MergeAdapter extends ClassVisitor {
 	private String baseClassName;
 	private String mergeRenamePrefix;
 	private LinkedList<String> qualifiedRenamedMethods;
+	private Map<String,Map<String,Set<String>>> renamedMethodIndex = null;
+	
+	// a descriptor is never empty, so the empty string matches any descriptor
+	private static final String ANY_DESCRIPTOR = "";
 
 	public MergeAdapter(ClassVisitor baseClassVisitor, ClassNode classToMerge, String mergeReamePrefix, LinkedList<String> qualifiedRenamedMethods) {
 		super(Opcodes.ASM5, baseClassVisitor);
@@ -72,9 +65,7 @@ public class MergeAdapter extends ClassVisitor {
 				boolean addField = false;
 				for(Object annotationObject : fieldNode.invisibleAnnotations){
 					AnnotationNode annotationNode = (AnnotationNode) annotationObject;
-					JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-					checker.visitAnnotation(annotationNode.desc, false);
-					if(checker.isDefineFieldAnnotation()){
+					if(JREFAnnotationKind.getKind(annotationNode.desc) == JREFAnnotationKind.DEFINE_FIELD){
 						addField = true;
 						break;
 					}
@@ -107,14 +98,13 @@ public class MergeAdapter extends ClassVisitor {
 					for (Object annotationObject : methodNodeToMerge.invisibleAnnotations) {
 						AnnotationNode annotation = (AnnotationNode) annotationObject;
 						// check if the annotation is a jref annotation
-						JREFAnnotationIdentifier jrefChecker = new JREFAnnotationIdentifier();
-						jrefChecker.visitAnnotation(annotation.desc, false);
-						if(jrefChecker.isJREFAnnotation()){
+						JREFAnnotationKind kind = JREFAnnotationKind.getKind(annotation.desc);
+						if(kind != null){
 							jrefAnnotations.add(annotation);
-							if(jrefChecker.isDefineMethodAnnotation()){
+							if(kind == JREFAnnotationKind.DEFINE_METHOD){
 								define = true;
 							}
-							if(jrefChecker.isMergeMethodAnnotation()){
+							if(kind == JREFAnnotationKind.MERGE_METHOD){
 								merge = true;
 							}
 						}
@@ -159,75 +149,93 @@ public class MergeAdapter extends ClassVisitor {
 	 * @param methodNode
 	 * @param qualifiedRenamedMethods
 	 */
-	@SuppressWarnings("unused")
 	private void mergeMethod(MethodNode methodNode, LinkedList<String> qualifiedRenamedMethods) {
-		// clean up method instructions
-    	InsnList instructions = methodNode.instructions;
-		Iterator<AbstractInsnNode> instructionIterator = instructions.iterator();
-		while (instructionIterator.hasNext()) {
-			AbstractInsnNode abstractInstruction = instructionIterator.next();
-			if (abstractInstruction instanceof FieldInsnNode) {
-				FieldInsnNode instruction = (FieldInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof FrameNode) {
-				FrameNode instruction = (FrameNode) abstractInstruction;
-			} else if (abstractInstruction instanceof IincInsnNode) {
-				IincInsnNode instruction = (IincInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof InsnNode) {
-				InsnNode instruction = (InsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof IntInsnNode) {
-				IntInsnNode instruction = (IntInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof InvokeDynamicInsnNode) {
-				InvokeDynamicInsnNode instruction = (InvokeDynamicInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof JumpInsnNode) {
-				JumpInsnNode instruction = (JumpInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof LabelNode) {
-				LabelNode instruction = (LabelNode) abstractInstruction;
-			} else if (abstractInstruction instanceof LdcInsnNode) {
-				LdcInsnNode instruction = (LdcInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof LineNumberNode) {
-				LineNumberNode instruction = (LineNumberNode) abstractInstruction;
-			} else if (abstractInstruction instanceof LookupSwitchInsnNode) {
-				LookupSwitchInsnNode instruction = (LookupSwitchInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof MethodInsnNode) {
+		if(renamedMethodIndex == null){
+			renamedMethodIndex = indexRenamedMethods(qualifiedRenamedMethods);
+		}
+		
+		// clean up method instructions, only method invocations and 
+		// method handles can reference a renamed method
+		for(AbstractInsnNode abstractInstruction = methodNode.instructions.getFirst(); abstractInstruction != null; abstractInstruction = abstractInstruction.getNext()) {
+			int type = abstractInstruction.getType();
+			if (type == AbstractInsnNode.METHOD_INSN) {
 				MethodInsnNode instruction = (MethodInsnNode) abstractInstruction;
 				// check if the method call needs to be changed to a renamed method name
 				// replace calls to super.x methods with prefix+x calls in the class to merge
-				// TODO: should check more than just the name, need to check whole method signature
-				for (String renamedMethod : qualifiedRenamedMethods) {
-					String qualifiedMethodName = instruction.owner + "." + instruction.name;
-					if ((qualifiedMethodName).equals(renamedMethod)) {
-						// this method has been renamed, we need to rename the call as well
-						instruction.name = mergeRenamePrefix + instruction.name;
-						
-						// if the renamed method was a special invocation then we were
-						// calling the preserved method using super.foo(), so we need
-						// to make it a virtual invocation instead of special invocation
-						if (instruction.getOpcode() == Opcodes.INVOKESPECIAL) {
-							instruction.setOpcode(Opcodes.INVOKEVIRTUAL);
-						}
-					}
+				if (isRenamedMethod(instruction.owner, instruction.name, instruction.desc)) {
+					// this method has been renamed, we need to rename the call as well
+					instruction.name = mergeRenamePrefix + instruction.name;
 					
-					// if the renamed method was a static invocation
-					// and the static invocation is to the class being merged in
-					// then we are calling the new static method so we need to change the owner
-					if (instruction.getOpcode() == Opcodes.INVOKESTATIC) {
-						if(classToMerge.name.equals(instruction.owner) && instruction.name.equals(renamedMethod)){
-							instruction.owner = baseClassName;
+					// if the renamed method was a special invocation then we were
+					// calling the preserved method using super.foo(), so we need
+					// to make it a virtual invocation instead of special invocation
+					if (instruction.getOpcode() == Opcodes.INVOKESPECIAL) {
+						instruction.setOpcode(Opcodes.INVOKEVIRTUAL);
+					}
+				}
+			} else if (type == AbstractInsnNode.INVOKE_DYNAMIC_INSN) {
+				InvokeDynamicInsnNode instruction = (InvokeDynamicInsnNode) abstractInstruction;
+				// method references to preserved methods (super::foo) are renamed the same way
+				for (int i = 0; i < instruction.bsmArgs.length; i++) {
+					if (instruction.bsmArgs[i] instanceof Handle) {
+						Handle handle = (Handle) instruction.bsmArgs[i];
+						if (isRenamedMethod(handle.getOwner(), handle.getName(), handle.getDesc())) {
+							int tag = handle.getTag() == Opcodes.H_INVOKESPECIAL ? Opcodes.H_INVOKEVIRTUAL : handle.getTag();
+							instruction.bsmArgs[i] = new Handle(tag, handle.getOwner(), mergeRenamePrefix + handle.getName(), handle.getDesc(), handle.isInterface());
 						}
 					}
 				}
-			} else if (abstractInstruction instanceof MultiANewArrayInsnNode) {
-				MultiANewArrayInsnNode instruction = (MultiANewArrayInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof TableSwitchInsnNode) {
-				TableSwitchInsnNode instruction = (TableSwitchInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof TypeInsnNode) {
-				TypeInsnNode instruction = (TypeInsnNode) abstractInstruction;
-			} else if (abstractInstruction instanceof VarInsnNode) {
-				VarInsnNode instruction = (VarInsnNode) abstractInstruction;
 			}
 		}
 		
 		// finally insert the method
 		addMethod(methodNode);
 	}
-}
+	
+	/**
+	 * Indexes the qualified renamed methods by method name, then owner, then
+	 * method descriptor so that checking a call site is a few hash lookups
+	 * 
+	 * Qualified renamed methods are of the form owner.name followed by an
+	 * optional method descriptor (example: java/lang/Object.toString()Ljava/lang/String;).
+	 * An entry without a descriptor matches every method with the name.
+	 * 
+	 * @param qualifiedRenamedMethods
+	 * @return
+	 */
+	private static Map<String,Map<String,Set<String>>> indexRenamedMethods(LinkedList<String> qualifiedRenamedMethods){
+		Map<String,Map<String,Set<String>>> index = new HashMap<String,Map<String,Set<String>>>();
+		for(String renamedMethod : qualifiedRenamedMethods){
+			int descriptorIndex = renamedMethod.indexOf('(');
+			String qualifiedMethodName = descriptorIndex == -1 ? renamedMethod : renamedMethod.substring(0, descriptorIndex);
+			String descriptor = descriptorIndex == -1 ? ANY_DESCRIPTOR : renamedMethod.substring(descriptorIndex);
+			int nameIndex = qualifiedMethodName.lastIndexOf('.');
+			String owner = qualifiedMethodName.substring(0, nameIndex);
+			String name = qualifiedMethodName.substring(nameIndex + 1);
+			Map<String,Set<String>> owners = index.get(name);
+			if(owners == null){
+				owners = new HashMap<String,Set<String>>();
+				index.put(name, owners);
+			}
+			Set<String> descriptors = owners.get(owner);
+			if(descriptors == null){
+				descriptors = new HashSet<String>();
+				owners.put(owner, descriptors);
+			}
+			descriptors.add(descriptor);
+		}
+		return index;
+	}
+	
+	private boolean isRenamedMethod(String owner, String name, String descriptor){
+		Map<String,Set<String>> owners = renamedMethodIndex.get(name);
+		if(owners == null){
+			return false;
+		}
+		Set<String> descriptors = owners.get(owner);
+		if(descriptors == null){
+			return false;
+		}
+		return descriptors.contains(descriptor) || descriptors.contains(ANY_DESCRIPTOR);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,287 @@
+package jreframeworker.engine;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.objectweb.asm.Opcodes;
+
+import jreframeworker.engine.utils.MemberIndex;
+
+/**
+ * The set of purge, finality, and visibility modifications requested for a
+ * single target class. Modifications are recorded in the order they are
+ * requested and applied together in one pass with a ModificationPlanAdapter.
+ * 
+ * A plan can only change access flags or remove members, it never changes a
+ * method body, so a plan may be applied by a ClassWriter that copies the
+ * original methods and constant pool without computing frames or maxs.
+ * 
+ * Method modifications either target every method with a given name or, if
+ * a method descriptor is given, only the method with that name and descriptor.
+ */
+public class ModificationPlan {
+
+	/**
+	 * The access bits that are cleared when setting visibility
+	 */
+	public static final int VISIBILITY_MASK = Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE;
+
+	/**
+	 * A change to the access bits of a class, inner class, method, or field
+	 */
+	public static class AccessModification {
+		private int clearedAccess;
+		private int setAccess;
+		private String modifier;
+
+		public AccessModification(int clearedAccess, int setAccess, String modifier) {
+			this.clearedAccess = clearedAccess;
+			this.setAccess = setAccess;
+			this.modifier = modifier;
+		}
+
+		/**
+		 * Returns the access bits with the modification applied
+		 * @param access
+		 * @return
+		 */
+		public int apply(int access){
+			return (access & ~clearedAccess) | setAccess;
+		}
+
+		/**
+		 * Returns a description of the modification (example: public or non-final)
+		 * @return
+		 */
+		public String getModifier(){
+			return modifier;
+		}
+		
+		@Override
+		public String toString(){
+			return Integer.toHexString(clearedAccess) + ":" + Integer.toHexString(setAccess);
+		}
+	}
+
+	/**
+	 * Returns an access modification that sets the given visibility
+	 * @param visibility Opcodes.ACC_PUBLIC, Opcodes.ACC_PROTECTED, or Opcodes.ACC_PRIVATE
+	 * @param modifier
+	 * @return
+	 */
+	public static AccessModification visibility(int visibility, String modifier){
+		return new AccessModification(VISIBILITY_MASK, visibility, modifier);
+	}
+
+	/**
+	 * Returns an access modification that sets or clears the final bit
+	 * @param finality
+	 * @return
+	 */
+	public static AccessModification finality(boolean finality){
+		if(finality){
+			return new AccessModification(0, Opcodes.ACC_FINAL, "final");
+		} else {
+			return new AccessModification(Opcodes.ACC_FINAL, 0, "non-final");
+		}
+	}
+
+	private String className;
+	private List<AccessModification> classAccessModifications = new LinkedList<AccessModification>();
+	private Map<String,List<AccessModification>> innerClassAccessModifications = new HashMap<String,List<AccessModification>>();
+	private Map<String,List<AccessModification>> methodAccessModifications = new HashMap<String,List<AccessModification>>();
+	private Map<String,List<AccessModification>> fieldAccessModifications = new HashMap<String,List<AccessModification>>();
+	private Set<String> purgedInnerClasses = new HashSet<String>();
+	private Set<String> purgedMethods = new HashSet<String>();
+	private Map<String,Integer> purgedFields = new HashMap<String,Integer>();
+
+	/**
+	 * Creates an empty modification plan for the given class
+	 * @param className The qualified class name (example: java/lang/Object)
+	 */
+	public ModificationPlan(String className) {
+		this.className = className;
+	}
+
+	public String getClassName(){
+		return className;
+	}
+
+	/**
+	 * Returns true if no modifications have been requested
+	 * @return
+	 */
+	public boolean isEmpty(){
+		return classAccessModifications.isEmpty()
+				&& innerClassAccessModifications.isEmpty()
+				&& methodAccessModifications.isEmpty()
+				&& fieldAccessModifications.isEmpty()
+				&& purgedInnerClasses.isEmpty()
+				&& purgedMethods.isEmpty()
+				&& purgedFields.isEmpty();
+	}
+
+	/**
+	 * Removes every method with the given name
+	 * @param methodName
+	 */
+	public void purgeMethod(String methodName){
+		purgeMethod(methodName, null);
+	}
+
+	/**
+	 * Removes the method with the given name and descriptor
+	 * @param methodName
+	 * @param methodDescriptor The method descriptor or null to remove every method with the name
+	 */
+	public void purgeMethod(String methodName, String methodDescriptor){
+		purgedMethods.add(getMethodKey(methodName, methodDescriptor));
+	}
+
+	/**
+	 * Removes the first field with the given name. Purging the same field name
+	 * again removes the next field with that name.
+	 * @param fieldName
+	 */
+	public void purgeField(String fieldName){
+		Integer count = purgedFields.get(fieldName);
+		purgedFields.put(fieldName, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Removes the inner class attribute entries for the given inner class
+	 * @param innerClassName
+	 */
+	public void purgeInnerClass(String innerClassName){
+		purgedInnerClasses.add(innerClassName);
+	}
+
+	/**
+	 * Modifies the access bits of the class
+	 * @param modification
+	 */
+	public void modifyClassAccess(AccessModification modification){
+		classAccessModifications.add(modification);
+	}
+
+	/**
+	 * Modifies the access bits of the inner class attribute entries for the given inner class
+	 * @param innerClassName
+	 * @param modification
+	 */
+	public void modifyInnerClassAccess(String innerClassName, AccessModification modification){
+		add(innerClassAccessModifications, innerClassName, modification);
+	}
+
+	/**
+	 * Modifies the access bits of every method with the given name
+	 * @param methodName
+	 * @param modification
+	 */
+	public void modifyMethodAccess(String methodName, AccessModification modification){
+		modifyMethodAccess(methodName, null, modification);
+	}
+
+	/**
+	 * Modifies the access bits of the method with the given name and descriptor
+	 * @param methodName
+	 * @param methodDescriptor The method descriptor or null to modify every method with the name
+	 * @param modification
+	 */
+	public void modifyMethodAccess(String methodName, String methodDescriptor, AccessModification modification){
+		add(methodAccessModifications, getMethodKey(methodName, methodDescriptor), modification);
+	}
+
+	/**
+	 * Modifies the access bits of the first (unpurged) field with the given name
+	 * @param fieldName
+	 * @param modification
+	 */
+	public void modifyFieldAccess(String fieldName, AccessModification modification){
+		add(fieldAccessModifications, fieldName, modification);
+	}
+
+	List<AccessModification> getClassAccessModifications(){
+		return classAccessModifications;
+	}
+
+	List<AccessModification> getInnerClassAccessModifications(String innerClassName){
+		return innerClassAccessModifications.get(innerClassName);
+	}
+
+	/**
+	 * Returns the modifications of every method with the given name followed
+	 * by the modifications of the method with the given name and descriptor
+	 */
+	List<AccessModification> getMethodAccessModifications(String methodName, String methodDescriptor){
+		List<AccessModification> modifications = methodAccessModifications.get(methodName);
+		List<AccessModification> descriptorModifications = methodAccessModifications.get(MemberIndex.getKey(methodName, methodDescriptor));
+		if(modifications == null){
+			return descriptorModifications;
+		} else if(descriptorModifications == null){
+			return modifications;
+		} else {
+			List<AccessModification> result = new LinkedList<AccessModification>(modifications);
+			result.addAll(descriptorModifications);
+			return result;
+		}
+	}
+
+	List<AccessModification> getFieldAccessModifications(String fieldName){
+		return fieldAccessModifications.get(fieldName);
+	}
+
+	boolean isPurgedInnerClass(String innerClassName){
+		return purgedInnerClasses.contains(innerClassName);
+	}
+
+	boolean isPurgedMethod(String methodName, String methodDescriptor){
+		return purgedMethods.contains(methodName) || purgedMethods.contains(MemberIndex.getKey(methodName, methodDescriptor));
+	}
+
+	/**
+	 * Returns the number of fields with the given name to purge
+	 */
+	int getPurgedFieldCount(String fieldName){
+		Integer count = purgedFields.get(fieldName);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Returns a description of every requested modification that is the same
+	 * for any two plans that modify a class in the same way, regardless of the
+	 * order in which modifications of different members were requested
+	 * @return
+	 */
+	public String getFingerprint(){
+		StringBuilder result = new StringBuilder(className);
+		result.append("\nclass ").append(classAccessModifications);
+		result.append("\ninner classes ").append(new TreeMap<String,List<AccessModification>>(innerClassAccessModifications));
+		result.append("\nmethods ").append(new TreeMap<String,List<AccessModification>>(methodAccessModifications));
+		result.append("\nfields ").append(new TreeMap<String,List<AccessModification>>(fieldAccessModifications));
+		result.append("\npurged inner classes ").append(new TreeSet<String>(purgedInnerClasses));
+		result.append("\npurged methods ").append(new TreeSet<String>(purgedMethods));
+		result.append("\npurged fields ").append(new TreeMap<String,Integer>(purgedFields));
+		return result.toString();
+	}
+
+	private static String getMethodKey(String methodName, String methodDescriptor){
+		return methodDescriptor == null ? methodName : MemberIndex.getKey(methodName, methodDescriptor);
+	}
+
+	private static void add(Map<String,List<AccessModification>> modifications, String name, AccessModification modification){
+		List<AccessModification> memberModifications = modifications.get(name);
+		if(memberModifications == null){
+			memberModifications = new LinkedList<AccessModification>();
+			modifications.put(name, memberModifications);
+		}
+		memberModifications.add(modification);
+	}
+
+}
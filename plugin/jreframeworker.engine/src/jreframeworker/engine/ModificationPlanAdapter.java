@@ -0,0 +1,122 @@
+package jreframeworker.engine;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import jreframeworker.engine.ModificationPlan.AccessModification;
+import jreframeworker.engine.log.Log;
+
+/**
+ * This class is responsible for applying every modification in a
+ * ModificationPlan to a class in a single pass
+ */
+public class ModificationPlanAdapter extends ClassVisitor {
+
+	private ModificationPlan plan;
+	private String className;
+	private boolean modified = false;
+	private Map<String,Integer> purgedFields = new HashMap<String,Integer>();
+	private Set<String> modifiedFields = new HashSet<String>();
+
+	public ModificationPlanAdapter(ClassVisitor classVisitor, ModificationPlan plan) {
+		super(Opcodes.ASM5, classVisitor);
+		this.plan = plan;
+	}
+
+	/**
+	 * Returns true if any of the planned modifications were applied
+	 * @return
+	 */
+	public boolean isModified(){
+		return modified;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		this.className = name;
+		for(AccessModification modification : plan.getClassAccessModifications()){
+			access = modification.apply(access);
+			modified = true;
+			Log.info("Set " + name + " class to be " + modification.getModifier() + ".");
+		}
+		super.visit(version, access, name, signature, superName, interfaces);
+	}
+
+	@Override
+	public void visitInnerClass(String name, String outerName, String innerName, int access) {
+		if(plan.isPurgedInnerClass(name)){
+			// skip the entry in order to remove it
+			modified = true;
+			Log.info("Purged " + className + " reference to " + name + " inner class.");
+			return;
+		}
+		List<AccessModification> modifications = plan.getInnerClassAccessModifications(name);
+		if(modifications != null){
+			for(AccessModification modification : modifications){
+				access = modification.apply(access);
+				modified = true;
+				Log.info("Set " + name + " inner class to be " + modification.getModifier() + ".");
+			}
+		}
+		super.visitInnerClass(name, outerName, innerName, access);
+	}
+
+	@Override
+	public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+		// purges and access modifications apply to the first fields with a matching name
+		int purgeCount = plan.getPurgedFieldCount(name);
+		if(purgeCount > 0){
+			Integer purged = purgedFields.get(name);
+			if(purged == null || purged < purgeCount){
+				purgedFields.put(name, purged == null ? 1 : purged + 1);
+				modified = true;
+				Log.info("Purged " + className + "." + name + " field.");
+				// return null in order to remove this field
+				return null;
+			}
+		}
+		List<AccessModification> modifications = plan.getFieldAccessModifications(name);
+		if(modifications != null && modifiedFields.add(name)){
+			for(AccessModification modification : modifications){
+				access = modification.apply(access);
+				modified = true;
+				Log.info("Set " + name + " field to be " + modification.getModifier() + ".");
+			}
+		}
+		return super.visitField(access, name, desc, signature, value);
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+		if(plan.isPurgedMethod(name, desc)){
+			modified = true;
+			Log.info("Purged " + className + "." + name + " method.");
+			// return null in order to remove this method
+			return null;
+		}
+		List<AccessModification> modifications = plan.getMethodAccessModifications(name, desc);
+		if(modifications != null){
+			for(AccessModification modification : modifications){
+				access = modification.apply(access);
+				modified = true;
+				if(name.equals("<init>")){
+					Log.info("Set " + name + " initializer to be " + modification.getModifier() + ".");
+				} else if(name.equals("<clinit>")){
+					Log.info("Set " + name + " static initializer to be " + modification.getModifier() + ".");
+				} else {
+					Log.info("Set " + name + " method to be " + modification.getModifier() + ".");
+				}
+			}
+		}
+		return super.visitMethod(access, name, desc, signature, exceptions);
+	}
+
+}
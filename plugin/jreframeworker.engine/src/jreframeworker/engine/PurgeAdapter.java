@@ -11,6 +11,7 @@ import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import jreframeworker.engine.log.Log;
+import jreframeworker.engine.utils.MemberIndex;
 
 /**
  * This class is responsible for purging methods and fields from a class 
@@ -23,6 +24,7 @@ public class PurgeAdapter extends ClassVisitor {
 	
 	private Set<MethodNode> methodsToPurge;
 	private Set<FieldNode> fieldsToPurge;
+	private MemberIndex purgeIndex = null;
 	
 	public PurgeAdapter(ClassVisitor classVisitor, MethodNode... methodsToPurgeArray) {
 		super(Opcodes.ASM5, classVisitor);
@@ -60,23 +62,10 @@ public class PurgeAdapter extends ClassVisitor {
 	@Override
 	public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
 		// purge based on FieldNode references
-		for (FieldNode fieldToPurge : fieldsToPurge) {
-			if (fieldToPurge.signature != null && signature != null) {
-				if (fieldToPurge.signature.equals(signature)) {
-					if (fieldToPurge.name.equals(name) && fieldToPurge.desc.equals(desc)) {
-						// return null in order to remove this field
-						Log.info("Purged Field: " + name);
-						return null;
-					}
-				}
-			} else {
-				// signature was null, fall back to name and description only
-				if (fieldToPurge.name.equals(name) && fieldToPurge.desc.equals(desc)) {
-					// return null in order to remove this field
-					Log.info("Purged Field: " + name);
-					return null;
-				}
-			}
+		if(getPurgeIndex().getField(name, desc, signature) != null){
+			// return null in order to remove this field
+			Log.info("Purged Field: " + name);
+			return null;
 		}
 		
 		// make the next visitor visit this field, in order to keep it
@@ -85,27 +74,25 @@ public class PurgeAdapter extends ClassVisitor {
 	
 	@Override
 	public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions){
-		for (MethodNode methodToPurge : methodsToPurge) {
-			if (methodToPurge.signature != null && signature != null) {
-				if (methodToPurge.signature.equals(signature)) {
-					if (methodToPurge.name.equals(name) && methodToPurge.desc.equals(desc)) {
-						// return null in order to remove this method
-						Log.info("Purged Method: " + name);
-						return null;
-					}
-				}
-			} else {
-				// signature was null, fall back to name and description only
-				if (methodToPurge.name.equals(name) && methodToPurge.desc.equals(desc)) {
-					// return null in order to remove this method
-					Log.info("Purged Method: " + name);
-					return null;
-				}
-			}
+		if(getPurgeIndex().getMethod(name, desc, signature) != null){
+			// return null in order to remove this method
+			Log.info("Purged Method: " + name);
+			return null;
 		}
 		
 		// make the next visitor visit this field, in order to keep it
 		return super.visitMethod(access, name, desc, signature, exceptions);
 	}
 	
+	/**
+	 * Indexes the members to purge by name and descriptor the first time a
+	 * member is visited, so each visited member is a single lookup
+	 */
+	private MemberIndex getPurgeIndex(){
+		if(purgeIndex == null){
+			purgeIndex = new MemberIndex(methodsToPurge, fieldsToPurge);
+		}
+		return purgeIndex;
+	}
+	
 }
\ No newline at end of file
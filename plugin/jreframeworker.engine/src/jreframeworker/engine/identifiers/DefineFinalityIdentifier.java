@@ -11,7 +11,10 @@ import org.objectweb.asm.tree.ClassNode;
 public class DefineFinalityIdentifier {
 
 	public static Set<String> getFinalityTargets(ClassNode classNode) throws IOException {
-		DefineFinalityIdentifier finalityIdentifier = new DefineFinalityIdentifier(classNode);
+		return getFinalityTargets(new DefineFinalityIdentifier(classNode));
+	}
+	
+	public static Set<String> getFinalityTargets(DefineFinalityIdentifier finalityIdentifier) {
 		Set<String> targets = new HashSet<String>();
 		for(DefineTypeFinalityAnnotation annotation : finalityIdentifier.getTargetTypes()){
 			targets.add(annotation.getClassName());
@@ -25,8 +28,30 @@ public class DefineFinalityIdentifier {
 		return targets;
 	}
 	
+	/**
+	 * Returns the classes given a new finality by the class, only the class header is read
+	 * @param classBytes
+	 * @return
+	 */
+	public static Set<String> getFinalityTargets(byte[] classBytes) {
+		return getFinalityTargets(AnnotationScanner.scan(classBytes).getDefineFinalityIdentifier());
+	}
+	
+	/**
+	 * Returns the classes given a new finality by the class in the given phase, only the class header is read
+	 * @param classBytes
+	 * @param phase
+	 * @return
+	 */
+	public static Set<String> getFinalityTargets(byte[] classBytes, int phase) {
+		return getFinalityTargets(AnnotationScanner.scan(classBytes).getDefineFinalityIdentifier(), phase);
+	}
+	
 	public static Set<String> getFinalityTargets(ClassNode classNode, int phase) throws IOException {
-		DefineFinalityIdentifier finalityIdentifier = new DefineFinalityIdentifier(classNode);
+		return getFinalityTargets(new DefineFinalityIdentifier(classNode), phase);
+	}
+	
+	public static Set<String> getFinalityTargets(DefineFinalityIdentifier finalityIdentifier, int phase) {
 		Set<String> targets = new HashSet<String>();
 		for(DefineTypeFinalityAnnotation annotation : finalityIdentifier.getTargetTypes()){
 			if(annotation.getPhase() == phase){
@@ -50,6 +75,7 @@ public class DefineFinalityIdentifier {
 	private static final String TYPE = "type";
 	private static final String FIELD = "field";
 	private static final String METHOD = "method";
+	private static final String DESCRIPTOR = "descriptor";
 	private static final String FINALITY = "finality";
 	
 	public static class DefineTypeFinalityAnnotation {
@@ -80,12 +106,21 @@ public class DefineFinalityIdentifier {
 		private int phase;
 		private String className;
 		private String methodName;
+		private String methodDescriptor;
 		private boolean finality;
 		
 		public DefineMethodFinalityAnnotation(int phase, String className, String methodName, boolean finality) {
+			this(phase, className, methodName, null, finality);
+		}
+		
+		/**
+		 * @param methodDescriptor The method descriptor to match or null to match every method with the name
+		 */
+		public DefineMethodFinalityAnnotation(int phase, String className, String methodName, String methodDescriptor, boolean finality) {
 			this.phase = phase;
 			this.className = className;
 			this.methodName = methodName;
+			this.methodDescriptor = methodDescriptor;
 			this.finality = finality;
 		}
 		
@@ -101,6 +136,15 @@ public class DefineFinalityIdentifier {
 			return methodName;
 		}
 		
+		/**
+		 * Returns the descriptor of the method to match or null if every method
+		 * with the name should be matched
+		 * @return
+		 */
+		public String getMethodDescriptor(){
+			return methodDescriptor;
+		}
+		
 		public boolean getFinality(){
 			return finality;
 		}
@@ -140,65 +184,74 @@ public class DefineFinalityIdentifier {
 	private LinkedList<DefineMethodFinalityAnnotation> targetMethods = new LinkedList<DefineMethodFinalityAnnotation>();
 	private LinkedList<DefineFieldFinalityAnnotation> targetFields = new LinkedList<DefineFieldFinalityAnnotation>();
 
-	@SuppressWarnings("rawtypes")
+	/**
+	 * Creates an empty identifier, annotations are added with visitTypeAnnotation
+	 */
+	DefineFinalityIdentifier() {}
+
 	public DefineFinalityIdentifier(ClassNode classNode) {
 		if (classNode.invisibleAnnotations != null) {
 			for (Object annotationObject : classNode.invisibleAnnotations) {
 				AnnotationNode annotation = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotation.desc, false);
-				
-				// type finalities
-				if(checker.isDefineTypeFinalitiesAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractDefineTypeFinalityAnnotationValues(classNode, annotationValue);
-								}
-							}
+				visitTypeAnnotation(classNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
+			}
+		}
+    }
+
+	/**
+	 * Extracts the values of a type annotation of the given kind
+	 */
+	@SuppressWarnings("rawtypes")
+	void visitTypeAnnotation(ClassNode classNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		// type finalities
+		if(kind == JREFAnnotationKind.DEFINE_TYPE_FINALITIES){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractDefineTypeFinalityAnnotationValues(classNode, annotationValue);
 						}
-						
 					}
-				} else if(checker.isDefineTypeFinalityAnnotation()){
-					extractDefineTypeFinalityAnnotationValues(classNode, annotation);
-				} 
-				
-				// method finalities
-				else if(checker.isDefineMethodFinalitiesAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractDefineMethodFinalityValues(classNode, annotationValue);
-								}
-							}
+				}
+
+			}
+		} else if(kind == JREFAnnotationKind.DEFINE_TYPE_FINALITY){
+			extractDefineTypeFinalityAnnotationValues(classNode, annotation);
+		} 
+
+		// method finalities
+		else if(kind == JREFAnnotationKind.DEFINE_METHOD_FINALITIES){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractDefineMethodFinalityValues(classNode, annotationValue);
 						}
 					}
-				} else if(checker.isDefineMethodFinalityAnnotation()){
-					extractDefineMethodFinalityValues(classNode, annotation);
-				}  
-				
-				// field finalities
-				else if(checker.isDefineFieldFinalitiesAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractDefineFieldFinalityValues(classNode, annotationValue);
-								}
-							}
+				}
+			}
+		} else if(kind == JREFAnnotationKind.DEFINE_METHOD_FINALITY){
+			extractDefineMethodFinalityValues(classNode, annotation);
+		}  
+
+		// field finalities
+		else if(kind == JREFAnnotationKind.DEFINE_FIELD_FINALITIES){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractDefineFieldFinalityValues(classNode, annotationValue);
 						}
 					}
-				}  else if(checker.isDefineFieldFinalityAnnotation()){
-					extractDefineFieldFinalityValues(classNode, annotation);
-				} 	
+				}
 			}
-		}
-    }
+		}  else if(kind == JREFAnnotationKind.DEFINE_FIELD_FINALITY){
+			extractDefineFieldFinalityValues(classNode, annotation);
+		} 	
+	}
 
 	private void extractDefineFieldFinalityValues(ClassNode classNode, AnnotationNode annotation) {
 		int phaseValue = 1; // default to 1
@@ -233,6 +286,7 @@ public class DefineFinalityIdentifier {
 		int phaseValue = 1; // default to 1
 		String typeValue = null;
 		String methodValue = null;
+		String descriptorValue = null;
 		Boolean finalityValue = null;
 		if (annotation.values != null) {
 		    for (int i = 0; i < annotation.values.size(); i += 2) {
@@ -244,6 +298,8 @@ public class DefineFinalityIdentifier {
 		        	typeValue = ((String)value).replaceAll("\\.", "/");
 		        } else if(name.equals(METHOD)){
 		        	methodValue = (String) value;
+		        } else if(name.equals(DESCRIPTOR)){
+		        	descriptorValue = ((String) value).equals("") ? null : (String) value;
 		        } else if(name.equals(FINALITY)){
 		        	finalityValue = (boolean) value;
 		        }
@@ -253,7 +309,7 @@ public class DefineFinalityIdentifier {
 		    	if(className.equals("")){
 		    		className = classNode.superName;
 		    	}
-		    	targetMethods.add(new DefineMethodFinalityAnnotation(phaseValue, className, methodValue, finalityValue));
+		    	targetMethods.add(new DefineMethodFinalityAnnotation(phaseValue, className, methodValue, descriptorValue, finalityValue));
 		    }
 		}
 	}
@@ -5,34 +5,6 @@ import org.objectweb.asm.Opcodes;
 
 public class JREFAnnotationIdentifier extends ClassVisitor {
 
-	private static final String DEFINE_TYPE_ANNOTATION = "Ljreframeworker/annotations/types/DefineType;";
-	private static final String DEFINE_FIELD_ANNOTATION = "Ljreframeworker/annotations/fields/DefineField;";
-	private static final String DEFINE_METHOD_ANNOTATION = "Ljreframeworker/annotations/methods/DefineMethod;";
-	
-	private static final String MERGE_TYPE_ANNOTATION = "Ljreframeworker/annotations/types/MergeType;";
-	private static final String MERGE_METHOD_ANNOTATION = "Ljreframeworker/annotations/methods/MergeMethod;";
-	
-	private static final String PURGE_TYPE_ANNOTATION = "Ljreframeworker/annotations/types/PurgeType;";
-	private static final String PURGE_TYPES_ANNOTATION = "Ljreframeworker/annotations/types/PurgeTypes;";
-	private static final String PURGE_FIELD_ANNOTATION = "Ljreframeworker/annotations/fields/PurgeField;";
-	private static final String PURGE_FIELDS_ANNOTATION = "Ljreframeworker/annotations/fields/PurgeFields;";
-	private static final String PURGE_METHOD_ANNOTATION = "Ljreframeworker/annotations/methods/PurgeMethod;";
-	private static final String PURGE_METHODS_ANNOTATION = "Ljreframeworker/annotations/methods/PurgeMethods;";
-	
-	private static final String DEFINE_TYPE_FINALITY_ANNOTATION = "Ljreframeworker/annotations/types/DefineTypeFinality;";
-	private static final String DEFINE_TYPE_FINALITIES_ANNOTATION = "Ljreframeworker/annotations/types/DefineTypeFinalities;";
-	private static final String DEFINE_FIELD_FINALITY_ANNOTATION = "Ljreframeworker/annotations/fields/DefineFieldFinality;";
-	private static final String DEFINE_FIELD_FINALITIES_ANNOTATION = "Ljreframeworker/annotations/fields/DefineFieldFinalities;";
-	private static final String DEFINE_METHOD_FINALITY_ANNOTATION = "Ljreframeworker/annotations/methods/DefineMethodFinality;";
-	private static final String DEFINE_METHOD_FINALITIES_ANNOTATION = "Ljreframeworker/annotations/methods/DefineMethodFinalities;";
-	
-	private static final String DEFINE_TYPE_VISIBILITY_ANNOTATION = "Ljreframeworker/annotations/types/DefineTypeVisibility;";
-	private static final String DEFINE_TYPE_VISIBILITIES_ANNOTATION = "Ljreframeworker/annotations/types/DefineTypeVisibilities;";
-	private static final String DEFINE_FIELD_VISIBILITY_ANNOTATION = "Ljreframeworker/annotations/fields/DefineFieldVisibility;";
-	private static final String DEFINE_FIELD_VISIBILITIES_ANNOTATION = "Ljreframeworker/annotations/fields/DefineFieldVisibilities;";
-	private static final String DEFINE_METHOD_VISIBILITY_ANNOTATION = "Ljreframeworker/annotations/methods/DefineMethodVisibility;";
-	private static final String DEFINE_METHOD_VISIBILITIES_ANNOTATION = "Ljreframeworker/annotations/methods/DefineMethodVisibilities;";
-	
 	private boolean isDefineTypeAnnotation = false;
 	private boolean isDefineFieldAnnotation = false;
 	private boolean isDefineMethodAnnotation = false;
@@ -67,63 +39,35 @@ public class JREFAnnotationIdentifier extends ClassVisitor {
 	
 	@Override
 	public AnnotationVisitor visitAnnotation(String name, boolean visible) {
-		// System.out.println("Annotation: " + name);
-		if (name.equals(DEFINE_TYPE_ANNOTATION)) {
-			isDefineTypeAnnotation = true;
-		} else if (name.equals(DEFINE_FIELD_ANNOTATION)) {
-			isDefineFieldAnnotation = true;
-		} else if (name.equals(DEFINE_METHOD_ANNOTATION)) {
-			isDefineMethodAnnotation = true;
-		}
-		
-		else if (name.equals(MERGE_TYPE_ANNOTATION)) {
-			isMergeTypeAnnotation = true;
-		} else if (name.equals(MERGE_METHOD_ANNOTATION)) {
-			isMergeMethodAnnotation = true;
-		}
-		
-		else if (name.equals(PURGE_TYPE_ANNOTATION)) {
-			isPurgeTypeAnnotation = true;
-		} else if (name.equals(PURGE_TYPES_ANNOTATION)) {
-			isPurgeTypesAnnotation = true;
-		} else if (name.equals(PURGE_FIELD_ANNOTATION)) {
-			isPurgeFieldAnnotation = true;
-		} else if (name.equals(PURGE_FIELDS_ANNOTATION)) {
-			isPurgeFieldsAnnotation = true;
-		} else if (name.equals(PURGE_METHOD_ANNOTATION)) {
-			isPurgeMethodAnnotation = true;
-		} else if (name.equals(PURGE_METHODS_ANNOTATION)) {
-			isPurgeMethodsAnnotation = true;
-		}
-		
-		else if (name.equals(DEFINE_TYPE_FINALITY_ANNOTATION)) {
-			isDefineTypeFinalityAnnotation = true;
-		} else if (name.equals(DEFINE_TYPE_FINALITIES_ANNOTATION)) {
-			isDefineTypeFinalitiesAnnotation = true;
-		} else if (name.equals(DEFINE_FIELD_FINALITY_ANNOTATION)) {
-			isDefineFieldFinalityAnnotation = true;
-		} else if (name.equals(DEFINE_FIELD_FINALITIES_ANNOTATION)) {
-			isDefineFieldFinalitiesAnnotation = true;
-		} else if (name.equals(DEFINE_METHOD_FINALITY_ANNOTATION)) {
-			isDefineMethodFinalityAnnotation = true;
-		} else if (name.equals(DEFINE_METHOD_FINALITIES_ANNOTATION)) {
-			isDefineMethodFinalitiesAnnotation = true;
+		JREFAnnotationKind kind = JREFAnnotationKind.getKind(name);
+		if(kind == null){
+			return null;
 		}
-		
-		else if (name.equals(DEFINE_TYPE_VISIBILITY_ANNOTATION)) {
-			isDefineTypeVisibilityAnnotation = true;
-		} else if (name.equals(DEFINE_TYPE_VISIBILITIES_ANNOTATION)) {
-			isDefineTypeVisibilitiesAnnotation = true;
-		} else if (name.equals(DEFINE_FIELD_VISIBILITY_ANNOTATION)) {
-			isDefineFieldVisibilityAnnotation = true;
-		} else if (name.equals(DEFINE_FIELD_VISIBILITIES_ANNOTATION)) {
-			isDefineFieldVisibilitiesAnnotation = true;
-		} else if (name.equals(DEFINE_METHOD_VISIBILITY_ANNOTATION)) {
-			isDefineMethodVisibilityAnnotation = true;
-		} else if (name.equals(DEFINE_METHOD_VISIBILITIES_ANNOTATION)) {
-			isDefineMethodVisibilitiesAnnotation = true;
+		switch(kind){
+			case DEFINE_TYPE: isDefineTypeAnnotation = true; break;
+			case DEFINE_FIELD: isDefineFieldAnnotation = true; break;
+			case DEFINE_METHOD: isDefineMethodAnnotation = true; break;
+			case MERGE_TYPE: isMergeTypeAnnotation = true; break;
+			case MERGE_METHOD: isMergeMethodAnnotation = true; break;
+			case PURGE_TYPE: isPurgeTypeAnnotation = true; break;
+			case PURGE_TYPES: isPurgeTypesAnnotation = true; break;
+			case PURGE_FIELD: isPurgeFieldAnnotation = true; break;
+			case PURGE_FIELDS: isPurgeFieldsAnnotation = true; break;
+			case PURGE_METHOD: isPurgeMethodAnnotation = true; break;
+			case PURGE_METHODS: isPurgeMethodsAnnotation = true; break;
+			case DEFINE_TYPE_FINALITY: isDefineTypeFinalityAnnotation = true; break;
+			case DEFINE_TYPE_FINALITIES: isDefineTypeFinalitiesAnnotation = true; break;
+			case DEFINE_FIELD_FINALITY: isDefineFieldFinalityAnnotation = true; break;
+			case DEFINE_FIELD_FINALITIES: isDefineFieldFinalitiesAnnotation = true; break;
+			case DEFINE_METHOD_FINALITY: isDefineMethodFinalityAnnotation = true; break;
+			case DEFINE_METHOD_FINALITIES: isDefineMethodFinalitiesAnnotation = true; break;
+			case DEFINE_TYPE_VISIBILITY: isDefineTypeVisibilityAnnotation = true; break;
+			case DEFINE_TYPE_VISIBILITIES: isDefineTypeVisibilitiesAnnotation = true; break;
+			case DEFINE_FIELD_VISIBILITY: isDefineFieldVisibilityAnnotation = true; break;
+			case DEFINE_FIELD_VISIBILITIES: isDefineFieldVisibilitiesAnnotation = true; break;
+			case DEFINE_METHOD_VISIBILITY: isDefineMethodVisibilityAnnotation = true; break;
+			case DEFINE_METHOD_VISIBILITIES: isDefineMethodVisibilitiesAnnotation = true; break;
 		}
-		
 		return null;
 	}
 	
@@ -0,0 +1,91 @@
+package jreframeworker.engine.identifiers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The kinds of JReFrameworker annotations, keyed by annotation descriptor.
+ * Classifying a descriptor is a single hash lookup and does not allocate.
+ */
+public enum JREFAnnotationKind {
+
+	DEFINE_TYPE("Ljreframeworker/annotations/types/DefineType;", Category.DEFINE, false),
+	DEFINE_FIELD("Ljreframeworker/annotations/fields/DefineField;", Category.DEFINE, false),
+	DEFINE_METHOD("Ljreframeworker/annotations/methods/DefineMethod;", Category.DEFINE, false),
+
+	MERGE_TYPE("Ljreframeworker/annotations/types/MergeType;", Category.MERGE, false),
+	MERGE_METHOD("Ljreframeworker/annotations/methods/MergeMethod;", Category.MERGE, false),
+
+	PURGE_TYPE("Ljreframeworker/annotations/types/PurgeType;", Category.PURGE, false),
+	PURGE_TYPES("Ljreframeworker/annotations/types/PurgeTypes;", Category.PURGE, true),
+	PURGE_FIELD("Ljreframeworker/annotations/fields/PurgeField;", Category.PURGE, false),
+	PURGE_FIELDS("Ljreframeworker/annotations/fields/PurgeFields;", Category.PURGE, true),
+	PURGE_METHOD("Ljreframeworker/annotations/methods/PurgeMethod;", Category.PURGE, false),
+	PURGE_METHODS("Ljreframeworker/annotations/methods/PurgeMethods;", Category.PURGE, true),
+
+	DEFINE_TYPE_FINALITY("Ljreframeworker/annotations/types/DefineTypeFinality;", Category.FINALITY, false),
+	DEFINE_TYPE_FINALITIES("Ljreframeworker/annotations/types/DefineTypeFinalities;", Category.FINALITY, true),
+	DEFINE_FIELD_FINALITY("Ljreframeworker/annotations/fields/DefineFieldFinality;", Category.FINALITY, false),
+	DEFINE_FIELD_FINALITIES("Ljreframeworker/annotations/fields/DefineFieldFinalities;", Category.FINALITY, true),
+	DEFINE_METHOD_FINALITY("Ljreframeworker/annotations/methods/DefineMethodFinality;", Category.FINALITY, false),
+	DEFINE_METHOD_FINALITIES("Ljreframeworker/annotations/methods/DefineMethodFinalities;", Category.FINALITY, true),
+
+	DEFINE_TYPE_VISIBILITY("Ljreframeworker/annotations/types/DefineTypeVisibility;", Category.VISIBILITY, false),
+	DEFINE_TYPE_VISIBILITIES("Ljreframeworker/annotations/types/DefineTypeVisibilities;", Category.VISIBILITY, true),
+	DEFINE_FIELD_VISIBILITY("Ljreframeworker/annotations/fields/DefineFieldVisibility;", Category.VISIBILITY, false),
+	DEFINE_FIELD_VISIBILITIES("Ljreframeworker/annotations/fields/DefineFieldVisibilities;", Category.VISIBILITY, true),
+	DEFINE_METHOD_VISIBILITY("Ljreframeworker/annotations/methods/DefineMethodVisibility;", Category.VISIBILITY, false),
+	DEFINE_METHOD_VISIBILITIES("Ljreframeworker/annotations/methods/DefineMethodVisibilities;", Category.VISIBILITY, true);
+
+	/**
+	 * The kind of modification an annotation requests
+	 */
+	public static enum Category {
+		DEFINE, MERGE, PURGE, FINALITY, VISIBILITY;
+	}
+
+	private static final Map<String,JREFAnnotationKind> KINDS = new HashMap<String,JREFAnnotationKind>();
+	static {
+		for(JREFAnnotationKind kind : values()){
+			KINDS.put(kind.descriptor, kind);
+		}
+	}
+
+	/**
+	 * Returns the kind of the annotation with the given descriptor or null if
+	 * the descriptor is not a JReFrameworker annotation
+	 * @param descriptor
+	 * @return
+	 */
+	public static JREFAnnotationKind getKind(String descriptor){
+		return descriptor == null ? null : KINDS.get(descriptor);
+	}
+
+	private String descriptor;
+	private Category category;
+	private boolean container;
+
+	private JREFAnnotationKind(String descriptor, Category category, boolean container) {
+		this.descriptor = descriptor;
+		this.category = category;
+		this.container = container;
+	}
+
+	public String getDescriptor(){
+		return descriptor;
+	}
+
+	public Category getCategory(){
+		return category;
+	}
+
+	/**
+	 * Returns true if the annotation holds a list of repeated annotations
+	 * (example: @PurgeTypes holds @PurgeType annotations)
+	 * @return
+	 */
+	public boolean isContainer(){
+		return container;
+	}
+
+}
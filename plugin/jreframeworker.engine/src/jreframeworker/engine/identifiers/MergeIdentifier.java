@@ -13,16 +13,17 @@ public class MergeIdentifier {
 	private MergeTypeAnnotation mergeTypeAnnotation = null;
 	private LinkedList<MergeMethodAnnotation> mergeMethodAnnotations = new LinkedList<MergeMethodAnnotation>();
 	
+	/**
+	 * Creates an empty identifier, annotations are added with the visit methods
+	 */
+	MergeIdentifier() {}
+	
 	public MergeIdentifier(ClassNode classNode) {
 		// types
 		if (classNode.invisibleAnnotations != null) {
 			for (Object annotationObject : classNode.invisibleAnnotations) {
 				AnnotationNode annotation = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotation.desc, false);
-				if(checker.isMergeTypeAnnotation()){
-					extractMergeTypeAnnotationValues(classNode, annotation);
-				}	
+				visitTypeAnnotation(classNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
 			}
 		}
 		
@@ -32,15 +33,23 @@ public class MergeIdentifier {
 			if (methodNode.invisibleAnnotations != null) {
 				for (Object annotationObject : methodNode.invisibleAnnotations) {
 					AnnotationNode annotation = (AnnotationNode) annotationObject;
-					JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-					checker.visitAnnotation(annotation.desc, false);
-					if(checker.isMergeMethodAnnotation()){
-						extractMergeMethodAnnotationValues(methodNode, annotation);
-					}
+					visitMethodAnnotation(methodNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
 				}
 			}
     	}
     }
+	
+	void visitTypeAnnotation(ClassNode classNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		if(kind == JREFAnnotationKind.MERGE_TYPE){
+			extractMergeTypeAnnotationValues(classNode, annotation);
+		}
+	}
+	
+	void visitMethodAnnotation(MethodNode methodNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		if(kind == JREFAnnotationKind.MERGE_METHOD){
+			extractMergeMethodAnnotationValues(methodNode, annotation);
+		}
+	}
     
     public static class MergeTypeAnnotation {
     	private int phase;
@@ -18,7 +18,10 @@ public class PurgeIdentifier {
 	 * @throws IOException
 	 */
 	public static Set<String> getPurgeTargets(ClassNode classNode) throws IOException {
-		PurgeIdentifier purgeIdentifier = new PurgeIdentifier(classNode);
+		return getPurgeTargets(new PurgeIdentifier(classNode));
+	}
+	
+	public static Set<String> getPurgeTargets(PurgeIdentifier purgeIdentifier) {
 		Set<String> targets = new HashSet<String>();
 		for(PurgeTypeAnnotation annotation : purgeIdentifier.getPurgeTypeAnnotations()){
 			targets.add(annotation.getClassName());
@@ -32,6 +35,28 @@ public class PurgeIdentifier {
 		return targets;
 	}
 	
+	/**
+	 * Returns a collection of qualified classes that are marked to be purged or contain
+	 * classes, fields, or methods marked to be purged, only the class header is read
+	 * @param classBytes
+	 * @return
+	 */
+	public static Set<String> getPurgeTargets(byte[] classBytes) {
+		return getPurgeTargets(AnnotationScanner.scan(classBytes).getPurgeIdentifier());
+	}
+	
+	/**
+	 * Returns a collection of qualified classes that are marked to be purged or contain
+	 * classes, fields, or methods marked to be purged in the given phase, only the class
+	 * header is read
+	 * @param classBytes
+	 * @param phase
+	 * @return
+	 */
+	public static Set<String> getPurgeTargets(byte[] classBytes, int phase) {
+		return getPurgeTargets(AnnotationScanner.scan(classBytes).getPurgeIdentifier(), phase);
+	}
+	
 	/**
 	 * Returns a collection of qualified classes that are marked to be purged or contain
 	 * classes, fields, or methods marked to be purged
@@ -40,7 +65,10 @@ public class PurgeIdentifier {
 	 * @throws IOException
 	 */
 	public static Set<String> getPurgeTargets(ClassNode classNode, int phase) throws IOException {
-		PurgeIdentifier purgeIdentifier = new PurgeIdentifier(classNode);
+		return getPurgeTargets(new PurgeIdentifier(classNode), phase);
+	}
+	
+	public static Set<String> getPurgeTargets(PurgeIdentifier purgeIdentifier, int phase) {
 		Set<String> targets = new HashSet<String>();
 		for(PurgeTypeAnnotation annotation : purgeIdentifier.getPurgeTypeAnnotations()){
 			if(annotation.getPhase() == phase){
@@ -64,6 +92,7 @@ public class PurgeIdentifier {
 	private static final String TYPE = "type";
 	private static final String FIELD = "field";
 	private static final String METHOD = "method";
+	private static final String DESCRIPTOR = "descriptor";
 	
 	public static class PurgeTypeAnnotation {
 		private int phase;
@@ -87,11 +116,20 @@ public class PurgeIdentifier {
 		private int phase;
 		private String className;
 		private String methodName;
+		private String methodDescriptor;
 		
 		public PurgeMethodAnnotation(int phase, String className, String methodName) {
+			this(phase, className, methodName, null);
+		}
+		
+		/**
+		 * @param methodDescriptor The method descriptor to match or null to match every method with the name
+		 */
+		public PurgeMethodAnnotation(int phase, String className, String methodName, String methodDescriptor) {
 			this.phase = phase;
 			this.className = className;
 			this.methodName = methodName;
+			this.methodDescriptor = methodDescriptor;
 		}
 		
 		public int getPhase(){
@@ -105,6 +143,15 @@ public class PurgeIdentifier {
 		public String getMethodName(){
 			return methodName;
 		}
+		
+		/**
+		 * Returns the descriptor of the method to match or null if every method
+		 * with the name should be matched
+		 * @return
+		 */
+		public String getMethodDescriptor(){
+			return methodDescriptor;
+		}
 	}
 	
 	public static class PurgeFieldAnnotation {
@@ -135,67 +182,76 @@ public class PurgeIdentifier {
 	private LinkedList<PurgeMethodAnnotation> purgeMethodAnnotations = new LinkedList<PurgeMethodAnnotation>();
 	private LinkedList<PurgeFieldAnnotation> purgeFieldAnnotations = new LinkedList<PurgeFieldAnnotation>();
 
-	@SuppressWarnings("rawtypes")
+	/**
+	 * Creates an empty identifier, annotations are added with visitTypeAnnotation
+	 */
+	PurgeIdentifier() {}
+
 	public PurgeIdentifier(ClassNode classNode) {
 		// a purge annotation must be on a type, putting it on a field or a
 		// method is silly since you created it just to purge it
 		if (classNode.invisibleAnnotations != null) {
 			for (Object annotationObject : classNode.invisibleAnnotations) {
 				AnnotationNode annotation = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotation.desc, false);
-				
-				// types
-				if(checker.isPurgeTypesAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractPurgeTypeAnnotationValues(classNode, annotationValue);
-								}
-							}
+				visitTypeAnnotation(classNode, annotation, JREFAnnotationKind.getKind(annotation.desc));
+			}
+		}
+    }
+
+	/**
+	 * Extracts the values of a type annotation of the given kind
+	 */
+	@SuppressWarnings("rawtypes")
+	void visitTypeAnnotation(ClassNode classNode, AnnotationNode annotation, JREFAnnotationKind kind) {
+		// types
+		if(kind == JREFAnnotationKind.PURGE_TYPES){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractPurgeTypeAnnotationValues(classNode, annotationValue);
 						}
-						
 					}
-				} else if(checker.isPurgeTypeAnnotation()){
-					extractPurgeTypeAnnotationValues(classNode, annotation);
-				} 
-				
-				// methods
-				else if(checker.isPurgeMethodsAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractPurgeMethodValues(classNode, annotationValue);
-								}
-							}
+				}
+
+			}
+		} else if(kind == JREFAnnotationKind.PURGE_TYPE){
+			extractPurgeTypeAnnotationValues(classNode, annotation);
+		} 
+
+		// methods
+		else if(kind == JREFAnnotationKind.PURGE_METHODS){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractPurgeMethodValues(classNode, annotationValue);
 						}
 					}
-				} else if(checker.isPurgeMethodAnnotation()){
-					extractPurgeMethodValues(classNode, annotation);
-				}  
-				
-				// fields
-				else if(checker.isPurgeFieldsAnnotation()){
-					for(Object value : annotation.values){
-						if(value instanceof List){
-							for(Object valueObject : (List) value){
-								if(valueObject instanceof AnnotationNode){
-									AnnotationNode annotationValue = (AnnotationNode) valueObject;
-									extractPurgeFieldValues(classNode, annotationValue);
-								}
-							}
+				}
+			}
+		} else if(kind == JREFAnnotationKind.PURGE_METHOD){
+			extractPurgeMethodValues(classNode, annotation);
+		}  
+
+		// fields
+		else if(kind == JREFAnnotationKind.PURGE_FIELDS){
+			for(Object value : annotation.values){
+				if(value instanceof List){
+					for(Object valueObject : (List) value){
+						if(valueObject instanceof AnnotationNode){
+							AnnotationNode annotationValue = (AnnotationNode) valueObject;
+							extractPurgeFieldValues(classNode, annotationValue);
 						}
 					}
-				}  else if(checker.isPurgeFieldAnnotation()){
-					extractPurgeFieldValues(classNode, annotation);
-				} 	
+				}
 			}
-		}
-    }
+		}  else if(kind == JREFAnnotationKind.PURGE_FIELD){
+			extractPurgeFieldValues(classNode, annotation);
+		} 	
+	}
 
 	private void extractPurgeFieldValues(ClassNode classNode, AnnotationNode annotation) {
 		int phaseValue = 1; // default to 1
@@ -228,6 +284,7 @@ public class PurgeIdentifier {
 		int phaseValue = 1; // default to 1
 		String typeValue = null;
 		String methodValue = null;
+		String descriptorValue = null;
 		
 		if (annotation.values != null) {
 		    for (int i = 0; i < annotation.values.size(); i += 2) {
@@ -239,6 +296,8 @@ public class PurgeIdentifier {
 		        	typeValue = ((String)value).replaceAll("\\.", "/");
 		        } else if(name.equals(METHOD)){
 		        	methodValue = (String) value;
+		        } else if(name.equals(DESCRIPTOR)){
+		        	descriptorValue = ((String) value).equals("") ? null : (String) value;
 		        }
 		    }
 		    if(typeValue != null && methodValue != null){
@@ -246,7 +305,7 @@ public class PurgeIdentifier {
 		    	if(className.equals("")){
 		    		className = classNode.superName;
 		    	}
-		    	purgeMethodAnnotations.add(new PurgeMethodAnnotation(phaseValue, className, methodValue));
+		    	purgeMethodAnnotations.add(new PurgeMethodAnnotation(phaseValue, className, methodValue, descriptorValue));
 		    }
 		}
 	}
@@ -0,0 +1,261 @@
+package jreframeworker.engine.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Resolves the class hierarchy from class file headers instead of loading
+ * classes. Headers are looked up from an ordered list of sources and the
+ * results are memoized, so the hierarchy of each class is only read once.
+ */
+public class ClassHierarchy {
+
+	private static final String OBJECT = "java/lang/Object";
+
+	/**
+	 * The name, super class, and interfaces declared in a class file header
+	 */
+	public static class ClassHeader {
+		private String name;
+		private String superName;
+		private String[] interfaces;
+		private boolean isInterface;
+
+		public ClassHeader(String name, String superName, String[] interfaces, boolean isInterface) {
+			this.name = name;
+			this.superName = superName;
+			this.interfaces = interfaces == null ? new String[0] : interfaces;
+			this.isInterface = isInterface;
+		}
+
+		/**
+		 * Reads the header of a class file, only the constant pool and header are parsed
+		 * @param bytecode
+		 * @return
+		 */
+		public static ClassHeader read(byte[] bytecode){
+			ClassReader classReader = new ClassReader(bytecode);
+			return new ClassHeader(classReader.getClassName(), classReader.getSuperName(), classReader.getInterfaces(), (classReader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+		}
+
+		/**
+		 * Returns the header of a parsed class
+		 * @param classNode
+		 * @return
+		 */
+		public static ClassHeader read(ClassNode classNode){
+			return new ClassHeader(classNode.name, classNode.superName, classNode.interfaces.toArray(new String[classNode.interfaces.size()]), (classNode.access & Opcodes.ACC_INTERFACE) != 0);
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Returns the super class or null for java/lang/Object
+		 * @return
+		 */
+		public String getSuperName(){
+			return superName;
+		}
+
+		public String[] getInterfaces(){
+			return interfaces;
+		}
+
+		public boolean isInterface(){
+			return isInterface;
+		}
+	}
+
+	/**
+	 * A source of class file headers
+	 */
+	public static interface ClassHeaderSource {
+		/**
+		 * Returns the header of the given class or null if this source does not define the class
+		 * @param className The qualified class name (example: java/lang/Object)
+		 * @return
+		 * @throws IOException
+		 */
+		public ClassHeader getClassHeader(String className) throws IOException;
+	}
+
+	/**
+	 * A source that reads class file resources from class loaders without
+	 * loading the classes. The system class loader is always consulted last.
+	 */
+	public static class ClassLoaderSource implements ClassHeaderSource {
+		private ClassLoader[] classLoaders;
+
+		public ClassLoaderSource(ClassLoader... classLoaders) {
+			this.classLoaders = classLoaders;
+		}
+
+		@Override
+		public ClassHeader getClassHeader(String className) throws IOException {
+			String resource = className + ".class";
+			for(ClassLoader classLoader : classLoaders){
+				if(classLoader != null){
+					ClassHeader header = read(classLoader.getResourceAsStream(resource));
+					if(header != null){
+						return header;
+					}
+				}
+			}
+			return read(ClassLoader.getSystemResourceAsStream(resource));
+		}
+
+		private static ClassHeader read(InputStream inputStream) throws IOException {
+			if(inputStream == null){
+				return null;
+			}
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int length;
+				while((length = inputStream.read(buffer)) != -1){
+					bytes.write(buffer, 0, length);
+				}
+				return ClassHeader.read(bytes.toByteArray());
+			} finally {
+				inputStream.close();
+			}
+		}
+	}
+
+	private List<ClassHeaderSource> sources = new LinkedList<ClassHeaderSource>();
+	private Map<String,ClassHeader> headers = new ConcurrentHashMap<String,ClassHeader>();
+	private Map<String,Set<String>> supertypes = new ConcurrentHashMap<String,Set<String>>();
+
+	/**
+	 * Creates a class hierarchy that looks up class headers from the given
+	 * sources, in order
+	 * @param sources
+	 */
+	public ClassHierarchy(ClassHeaderSource... sources) {
+		for(ClassHeaderSource source : sources){
+			this.sources.add(source);
+		}
+	}
+
+	/**
+	 * Forgets the memoized hierarchy of the given class, for example because
+	 * the class was replaced or removed. Classes that extend or implement the
+	 * class are forgotten as well.
+	 * @param className
+	 */
+	public void invalidate(String className){
+		headers.remove(className);
+		for(Map.Entry<String,Set<String>> entry : supertypes.entrySet()){
+			if(entry.getValue().contains(className)){
+				supertypes.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Returns the header of the given class
+	 * @param className
+	 * @return
+	 * @throws TypeNotPresentException if no source defines the class
+	 */
+	public ClassHeader getClassHeader(String className){
+		ClassHeader header = headers.get(className);
+		if(header == null){
+			try {
+				for(ClassHeaderSource source : sources){
+					header = source.getClassHeader(className);
+					if(header != null){
+						break;
+					}
+				}
+			} catch (IOException e){
+				throw new TypeNotPresentException(className.replace('/', '.'), e);
+			}
+			if(header == null){
+				throw new TypeNotPresentException(className.replace('/', '.'), null);
+			}
+			headers.put(className, header);
+		}
+		return header;
+	}
+
+	/**
+	 * Returns the given class and all of its super classes and interfaces
+	 * @param className
+	 * @return
+	 */
+	public Set<String> getSupertypes(String className){
+		Set<String> result = supertypes.get(className);
+		if(result == null){
+			result = new HashSet<String>();
+			result.add(className);
+			ClassHeader header = getClassHeader(className);
+			if(header.getSuperName() != null){
+				result.addAll(getSupertypes(header.getSuperName()));
+			}
+			for(String interfaceName : header.getInterfaces()){
+				result.addAll(getSupertypes(interfaceName));
+			}
+			result = Collections.unmodifiableSet(result);
+			supertypes.put(className, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the type is the same as or a subtype of the given supertype
+	 * @param type
+	 * @param supertype
+	 * @return
+	 */
+	public boolean isAssignableFrom(String supertype, String type){
+		return supertype.equals(type) || getSupertypes(type).contains(supertype);
+	}
+
+	/**
+	 * Returns the common super class of the two given classes, with the same
+	 * semantics as ClassWriter.getCommonSuperClass
+	 * @param type1
+	 * @param type2
+	 * @return
+	 */
+	public String getCommonSuperClass(String type1, String type2){
+		try {
+			if(isAssignableFrom(type1, type2)){
+				return type1;
+			}
+			if(isAssignableFrom(type2, type1)){
+				return type2;
+			}
+			if(getClassHeader(type1).isInterface() || getClassHeader(type2).isInterface()){
+				return OBJECT;
+			}
+			Set<String> supertypes2 = getSupertypes(type2);
+			String type = type1;
+			do {
+				type = getClassHeader(type).getSuperName();
+				if(type == null){
+					return OBJECT;
+				}
+			} while(!supertypes2.contains(type));
+			return type;
+		} catch (TypeNotPresentException e){
+			throw new RuntimeException("Could not find common super class of: [type1=" + type1 + "], [type2=" + type2 + "]", e);
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+package jreframeworker.engine.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the contents of archive entries that are waiting to be written. Entries
+ * are kept in memory up to a heap budget, the oldest entries and entries that
+ * are larger than the budget are appended to a temporary file instead. The
+ * temporary file is created when the first entry spills and deleted when the
+ * store is cleared or closed.
+ */
+public class EntryStore implements Closeable {
+
+	/**
+	 * The default maximum total size in bytes of the entries kept in memory
+	 */
+	public static final long DEFAULT_HEAP_BUDGET = 64 * 1024 * 1024;
+
+	/**
+	 * The location and size of a spilled entry in the temporary file
+	 */
+	private static class SpilledEntry {
+		private long offset;
+		private int length;
+
+		public SpilledEntry(long offset, int length){
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	// in memory entries in the order they were stored, oldest first
+	private LinkedHashMap<String,byte[]> memoryEntries = new LinkedHashMap<String,byte[]>();
+	private Map<String,SpilledEntry> spilledEntries = new HashMap<String,SpilledEntry>();
+	private long heapBudget;
+	private long heapSize = 0;
+
+	private File spillFile;
+	private RandomAccessFile spillOutput;
+	private FileChannel spillChannel;
+
+	public EntryStore(){
+		this(DEFAULT_HEAP_BUDGET);
+	}
+
+	public EntryStore(long heapBudget){
+		setHeapBudget(heapBudget);
+	}
+
+	/**
+	 * Sets the maximum total size in bytes of the entries kept in memory. The
+	 * budget applies to entries stored after it is set.
+	 *
+	 * @param heapBudget
+	 */
+	public synchronized void setHeapBudget(long heapBudget){
+		if(heapBudget < 0){
+			throw new IllegalArgumentException("Heap budget must not be negative");
+		}
+		this.heapBudget = heapBudget;
+	}
+
+	/**
+	 * Stores the contents of an entry, replacing any previous contents
+	 *
+	 * @param entry
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public synchronized void put(String entry, byte[] bytes) throws IOException {
+		remove(entry);
+		if(bytes.length > heapBudget){
+			spill(entry, bytes);
+		} else {
+			memoryEntries.put(entry, bytes);
+			heapSize += bytes.length;
+			// spill the oldest entries until the new entry fits in the budget
+			Iterator<Map.Entry<String,byte[]>> oldestEntries = memoryEntries.entrySet().iterator();
+			while(heapSize > heapBudget){
+				Map.Entry<String,byte[]> oldestEntry = oldestEntries.next();
+				spill(oldestEntry.getKey(), oldestEntry.getValue());
+				heapSize -= oldestEntry.getValue().length;
+				oldestEntries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the contents of an entry or null if the entry is not stored
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized byte[] get(String entry) throws IOException {
+		byte[] bytes = memoryEntries.get(entry);
+		if(bytes != null){
+			return bytes;
+		}
+		SpilledEntry spilledEntry = spilledEntries.get(entry);
+		if(spilledEntry == null){
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(spilledEntry.length);
+		long position = spilledEntry.offset;
+		while(buffer.hasRemaining()){
+			int read = spillChannel.read(buffer, position);
+			if(read < 0){
+				throw new EOFException("Spilled entry " + entry + " is truncated");
+			}
+			position += read;
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Returns the size in bytes of an entry or -1 if the entry is not stored
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public synchronized int getSize(String entry){
+		byte[] bytes = memoryEntries.get(entry);
+		if(bytes != null){
+			return bytes.length;
+		}
+		SpilledEntry spilledEntry = spilledEntries.get(entry);
+		return spilledEntry == null ? -1 : spilledEntry.length;
+	}
+
+	public synchronized boolean containsKey(String entry){
+		return memoryEntries.containsKey(entry) || spilledEntries.containsKey(entry);
+	}
+
+	/**
+	 * Returns a copy of the names of the stored entries
+	 * @return
+	 */
+	public synchronized Set<String> keySet(){
+		Set<String> entries = new HashSet<String>(memoryEntries.keySet());
+		entries.addAll(spilledEntries.keySet());
+		return entries;
+	}
+
+	/**
+	 * Removes an entry, the space of a spilled entry is reclaimed when the store is cleared
+	 *
+	 * @param entry
+	 */
+	public synchronized void remove(String entry){
+		byte[] bytes = memoryEntries.remove(entry);
+		if(bytes != null){
+			heapSize -= bytes.length;
+		}
+		spilledEntries.remove(entry);
+	}
+
+	/**
+	 * Removes every entry and deletes the temporary file
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException {
+		memoryEntries.clear();
+		spilledEntries.clear();
+		heapSize = 0;
+		if(spillOutput != null){
+			try {
+				spillOutput.close();
+			} finally {
+				spillOutput = null;
+				spillChannel = null;
+				spillFile.delete();
+				spillFile = null;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		clear();
+	}
+
+	/**
+	 * Appends the contents of an entry to the end of the temporary file
+	 */
+	private void spill(String entry, byte[] bytes) throws IOException {
+		if(spillOutput == null){
+			spillFile = File.createTempFile("jref-entries", ".tmp");
+			spillFile.deleteOnExit();
+			spillOutput = new RandomAccessFile(spillFile, "rw");
+			spillChannel = spillOutput.getChannel();
+		}
+		long offset = spillChannel.size();
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long position = offset;
+		while(buffer.hasRemaining()){
+			position += spillChannel.write(buffer, position);
+		}
+		spilledEntries.put(entry, new SpilledEntry(offset, bytes.length));
+	}
+
+}
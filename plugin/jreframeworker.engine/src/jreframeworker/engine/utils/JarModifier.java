@@ -1,27 +1,32 @@
 package jreframeworker.engine.utils;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarException;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
 
 /**
  * A wrapper around the Java zip utilities to add, overwrite, or remove files
@@ -72,9 +77,12 @@ public class JarModifier {
 	}
 	
 	private HashMap<String,JarEntry> jarEntries = new HashMap<String,JarEntry>();
-	private HashMap<String,byte[]> jarEntriesToAdd = new HashMap<String,byte[]>();
+	private EntryStore jarEntriesToAdd = new EntryStore();
 	private File jarFile;
+	private ArchiveIndex archiveIndex;
 	private Manifest manifest;
+	private boolean compressEntries = true;
+	private int compressionThreads = 1;
 	
 	/**
 	 * Creates a new JarModifier with the given archive to be modified
@@ -86,28 +94,26 @@ public class JarModifier {
 	 */
 	public JarModifier(File jarFile) throws JarException, IOException {
 		this.jarFile = jarFile;
-		JarFile jar = new JarFile(jarFile);
+		
+		// index the central directory once, all later lookups are served from the index
+		this.archiveIndex = new ArchiveIndex(jarFile);
+		
 		// get references to all the archive file entries
-		Enumeration<? extends JarEntry> enumerator = jar.entries();
-		while(enumerator.hasMoreElements()){
-			JarEntry currentEntry = (JarEntry) enumerator.nextElement();
+		for(String entryName : archiveIndex.getEntryNames()){
 			// need to create a new entry to reset properties that will need to be recomputed automatically
 //			JarEntry resetEntry = resetEntry(currentEntry); // TODO: Fix
-			JarEntry resetEntry = new JarEntry(currentEntry.getName());
-			jarEntries.put(currentEntry.getName(), resetEntry);
+			JarEntry resetEntry = new JarEntry(entryName);
+			jarEntries.put(entryName, resetEntry);
 		}
 		
 		String manifestPath = META_INF + SEPERATOR + "MANIFEST.MF";
-		JarEntry jarManifestEntry = jar.getJarEntry(manifestPath);
+		ArchiveIndex.Entry jarManifestEntry = archiveIndex.getEntry(manifestPath);
 		// if manifest not found then search manually
 		if (jarManifestEntry == null) {
-			Enumeration<JarEntry> entries = jar.entries();
-			while (entries.hasMoreElements()) {
-				jarManifestEntry = (JarEntry) entries.nextElement();
-				if (manifestPath.equalsIgnoreCase(jarManifestEntry.getName())){
+			for(ArchiveIndex.Entry entry : archiveIndex.getEntries()){
+				if (manifestPath.equalsIgnoreCase(entry.getName())){
+					jarManifestEntry = entry;
 					break;
-				} else {
-					jarManifestEntry = null;
 				}
 			}
 		}
@@ -115,40 +121,123 @@ public class JarModifier {
 		// if we've found a manifest then parse it
 		if(jarManifestEntry != null){
 			Manifest manifest = new Manifest();
-			if (jarManifestEntry != null){
-				manifest.read(jar.getInputStream(jarManifestEntry));
-			}
+			manifest.read(new ByteArrayInputStream(archiveIndex.read(jarManifestEntry)));
 			this.manifest = manifest;
 		}
 		
-		jar.close();
+		// release the file handle until the archive is read again
+		archiveIndex.close();
 	}
 	
 	public File getJarFile(){
 		return jarFile;
 	}
 	
+	/**
+	 * Returns the contents of the entry in the original archive or null if the
+	 * original archive does not contain the entry
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
 	public byte[] extractEntry(String entry) throws IOException {
-		JarInputStream zin = new JarInputStream(new BufferedInputStream(new FileInputStream(jarFile)));
-		JarEntry currentEntry = null;
-		while ((currentEntry = zin.getNextJarEntry()) != null) {
-			if (currentEntry.getName().equals(entry)) {
-				// currentEntry.getSize() may not be accurate, so read bytes into a stream first
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				byte[] buf = new byte[4096];
-				while (true) {
-					int n = zin.read(buf);
-					if (n < 0){
-						break;
-					}
-					baos.write(buf, 0, n);
-				}
-				zin.close();
-				return baos.toByteArray();
+		ArchiveIndex.Entry indexedEntry = archiveIndex.getEntry(entry);
+		if(indexedEntry == null){
+			return null;
+		}
+		return archiveIndex.read(indexedEntry);
+	}
+	
+	/**
+	 * Returns the contents of each of the given entries in the original archive,
+	 * keyed by entry name. Entries that the original archive does not contain are
+	 * omitted. The entries are read together in a single pass over the archive.
+	 * 
+	 * @param entries
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String,byte[]> extractEntries(Collection<String> entries) throws IOException {
+		LinkedList<ArchiveIndex.Entry> indexedEntries = new LinkedList<ArchiveIndex.Entry>();
+		for(String entry : entries){
+			ArchiveIndex.Entry indexedEntry = archiveIndex.getEntry(entry);
+			if(indexedEntry != null){
+				indexedEntries.add(indexedEntry);
 			}
 		}
-		zin.close();
-		return null;
+		return archiveIndex.read(indexedEntries);
+	}
+	
+	/**
+	 * Returns true if the original archive contains the given entry
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean hasOriginalEntry(String entry){
+		return archiveIndex.containsEntry(entry);
+	}
+	
+	/**
+	 * Returns true if the archive, as it would be written to disk, contains the given entry
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public boolean hasEntry(String entry){
+		return jarEntries.containsKey(entry);
+	}
+	
+	/**
+	 * Releases the open file handle to the original archive and the added
+	 * entries along with any temporary file holding them. The archive index
+	 * is retained and the archive will be reopened if it is read again.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			archiveIndex.close();
+		} finally {
+			releaseAddedEntries();
+		}
+	}
+	
+	/**
+	 * Sets whether added or modified entries are deflated when saving. Entries
+	 * are stored without compression if false, which is faster to write and read
+	 * for short lived archives such as intermediate build outputs. Entries copied
+	 * from the original archive keep their original compression.
+	 * 
+	 * @param compressEntries
+	 */
+	public void setCompressEntries(boolean compressEntries){
+		this.compressEntries = compressEntries;
+	}
+	
+	/**
+	 * Sets the maximum total size in bytes of the added or modified entries
+	 * kept in memory until the archive is saved, larger or older entries are
+	 * kept in a temporary file. Defaults to EntryStore.DEFAULT_HEAP_BUDGET.
+	 * 
+	 * @param heapBudget
+	 */
+	public void setPendingEntryHeapBudget(long heapBudget){
+		jarEntriesToAdd.setHeapBudget(heapBudget);
+	}
+	
+	/**
+	 * Sets the number of threads used to compress added or modified entries
+	 * when saving. Defaults to 1, which compresses on the calling thread.
+	 * 
+	 * @param compressionThreads
+	 */
+	public void setCompressionThreads(int compressionThreads){
+		if(compressionThreads < 1){
+			throw new IllegalArgumentException("Compression threads must be positive");
+		}
+		this.compressionThreads = compressionThreads;
 	}
 	
 	/**
@@ -312,9 +401,9 @@ public class JarModifier {
 		entriesToRemove.clear();
 		
 		// clear the entries that may have queued to be added
-		for(Entry<String,byte[]> JarEntry : jarEntriesToAdd.entrySet()){
-			if(JarEntry.getKey().endsWith(filename)){
-				entriesToRemove.add(JarEntry.getKey());
+		for(String entryToAdd : jarEntriesToAdd.keySet()){
+			if(entryToAdd.endsWith(filename)){
+				entriesToRemove.add(entryToAdd);
 			}
 		}
 		for(String entryToRemove : entriesToRemove){
@@ -322,6 +411,29 @@ public class JarModifier {
 		}
 	}
 	
+	/**
+	 * Transforms the contents of original archive entries while the archive is
+	 * being saved, so that the transformed contents of each entry only need to
+	 * be held in memory while that entry is written
+	 */
+	public static interface EntryTransformer {
+		/**
+		 * Returns true if the given original entry should be transformed
+		 * @param entry
+		 * @return
+		 */
+		public boolean isTransformed(String entry);
+		
+		/**
+		 * Returns the transformed contents of the given original entry
+		 * @param entry
+		 * @param bytes The original contents of the entry
+		 * @return
+		 * @throws IOException
+		 */
+		public byte[] transform(String entry, byte[] bytes) throws IOException;
+	}
+	
 	/**
 	 * Writes the modified output archive to a file
 	 * 
@@ -329,73 +441,135 @@ public class JarModifier {
 	 * @throws IOException  
 	 */
 	public void save(File outputArchiveFile) throws IOException {
+		save(outputArchiveFile, null);
+	}
+	
+	/**
+	 * Writes the modified output archive to a file, transforming original
+	 * entries with the given transformer as they are copied to the output
+	 * archive. Saving does not change the modifier, so a later save writes the
+	 * same entries, including after a save that failed.
+	 * 
+	 * @param outputArchive
+	 * @param transformer The entry transformer or null to copy original entries as is
+	 * @throws IOException  
+	 */
+	public void save(File outputArchiveFile, EntryTransformer transformer) throws IOException {
+		String manifestPath = META_INF + SEPERATOR + "MANIFEST.MF";
+		
 		// update the manifest if needed
 		if(manifest != null){
 			// unsign the manifest, signatures have changed
 			unsign();
 			
 			// sanitize the manifest
-			String manifestPath = META_INF + SEPERATOR + "MANIFEST.MF";
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			Manifest sanitizedManifest = sanitizeManifest(manifest);
 			sanitizedManifest.write(baos);
 			add(manifestPath, baos.toByteArray(), true);
 		}
 		
-		JarInputStream zin = null;
-	    JarOutputStream zout = null;
+		// entries are written in sorted order so the output does not depend on the order of modifications
+		ArrayList<String> entriesToAdd = new ArrayList<String>(jarEntriesToAdd.keySet());
+		Collections.sort(entriesToAdd);
+		entriesToAdd.remove(manifestPath);
+		final int method = compressEntries ? ZipEntry.DEFLATED : ZipEntry.STORED;
+		
+		ExecutorService compressionPool = null;
+		ArchiveWriter writer = null;
 	    try {
-	    	byte[] buf = new byte[1024];
-	    	zin = new JarInputStream(new FileInputStream(jarFile));
-		    zout = new JarOutputStream(new FileOutputStream(outputArchiveFile));
-	    	JarEntry entry = zin.getNextJarEntry();
-		    while (entry != null) {
+	    	writer = new ArchiveWriter(outputArchiveFile);
+	    	// compress the saved files concurrently while the original entries are being copied
+	    	LinkedList<Future<ArchiveWriter.CompressedEntry>> compressedEntries = new LinkedList<Future<ArchiveWriter.CompressedEntry>>();
+	    	if(compressEntries && compressionThreads > 1 && entriesToAdd.size() > 1){
+	    		compressionPool = Executors.newFixedThreadPool(Math.min(compressionThreads, entriesToAdd.size()));
+	    		for(final String entryName : entriesToAdd){
+	    			compressedEntries.add(compressionPool.submit(new Callable<ArchiveWriter.CompressedEntry>(){
+						@Override
+						public ArchiveWriter.CompressedEntry call() throws Exception {
+							// entries are read when they are compressed so that spilled entries are not all in memory at once
+							return ArchiveWriter.compress(entryName, jarEntriesToAdd.get(entryName), method);
+						}
+	    			}));
+	    		}
+	    	}
+	    	
+	    	// the manifest is written first so that it is visible to streaming readers
+	    	if(jarEntriesToAdd.containsKey(manifestPath)){
+	    		writer.writeEntry(ArchiveWriter.compress(manifestPath, jarEntriesToAdd.get(manifestPath), method));
+	    	}
+		    for(ArchiveIndex.Entry entry : archiveIndex.getEntries()){
 		        // write the file to the zip depending on where it is located
 		    	// entries from files will be added later so skip those now
-		        if(jarEntries.containsKey(entry.getName()) && !jarEntriesToAdd.containsKey(entry.getName())){
-		            // transfer the bytes from the old archive to the output archive
-		        	zout.putNextEntry(jarEntries.get(entry.getName()));
-		            int len;
-		            while ((len = zin.read(buf)) > 0) {
-		                zout.write(buf, 0, len);
-		            }
-		            // complete the entry
-	                zout.closeEntry();
+		    	// the original manifest is always replaced by the sanitized manifest
+		        if(jarEntries.containsKey(entry.getName()) && !jarEntriesToAdd.containsKey(entry.getName()) && !isManifest(entry.getName())){
+		        	if(transformer != null && transformer.isTransformed(entry.getName())){
+		        		// read, transform, and write the entry before moving on to the next entry
+		        		byte[] bytes = transformer.transform(entry.getName(), archiveIndex.read(entry));
+		        		writer.writeEntry(ArchiveWriter.compress(entry.getName(), bytes, method));
+		        	} else {
+		        		// transfer the compressed bytes from the old archive to the output archive as is
+		        		writer.writeRawEntry(archiveIndex, entry);
+		        	}
 		        }
-		        // get the next zip entry to examine
-		        entry = zin.getNextJarEntry();
 		    }
-		    // transfer the bytes from the saved files to the output archive
-		    for(Entry<String,byte[]> jarEntryToAdd : jarEntriesToAdd.entrySet()){
-		    	String entryName = jarEntryToAdd.getKey();
-		    	byte[] bytes = jarEntryToAdd.getValue();
-	        	InputStream fin = null;
-	        	try {
-	        		fin = new ByteArrayInputStream(bytes);
-	        		zout.putNextEntry(jarEntries.get(entryName));
-	        		int len;
-	                while ((len = fin.read(buf)) > 0) {
-	                    zout.write(buf, 0, len);
-	                }
-	                // complete the entry
-	                zout.closeEntry();
-	        	} finally {
-	        		if(fin != null){
-	        			fin.close();
-	        		}
-	        	}
+		    
+		    // write the saved files to the output archive
+		    if(compressionPool != null){
+		    	for(Future<ArchiveWriter.CompressedEntry> compressedEntry : compressedEntries){
+		    		writer.writeEntry(getCompressedEntry(compressedEntry));
+		    	}
+		    } else {
+		    	for(String entryName : entriesToAdd){
+		    		writer.writeEntry(ArchiveWriter.compress(entryName, jarEntriesToAdd.get(entryName), method));
+		    	}
 		    }
+		    writer.finish();
 	    } finally {
 	    	// close the streams  
-	    	if(zin != null){
-	    		zin.close();
+	    	if(compressionPool != null){
+	    		compressionPool.shutdownNow();
 	    	}
-	    	if(zout != null){
-	    		zout.close();
+	    	archiveIndex.close();
+	    	if(writer != null){
+	    		writer.close();
 	    	}
 	    } 
 	}
 	
+	/**
+	 * Releases the added entries and any temporary file holding them, entries
+	 * that replaced an original entry revert to the original entry
+	 */
+	private void releaseAddedEntries() throws IOException {
+		for(String entry : jarEntriesToAdd.keySet()){
+			if(archiveIndex.containsEntry(entry)){
+				jarEntries.put(entry, new JarEntry(entry));
+			} else {
+				jarEntries.remove(entry);
+			}
+		}
+		jarEntriesToAdd.clear();
+	}
+	
+	private static ArchiveWriter.CompressedEntry getCompressedEntry(Future<ArchiveWriter.CompressedEntry> compressedEntry) throws IOException {
+		try {
+			return compressedEntry.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing archive entries");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error compressing archive entry", e.getCause());
+		}
+	}
+	
+	private static boolean isManifest(String entry){
+		return (META_INF + SEPERATOR + "MANIFEST.MF").equalsIgnoreCase(entry);
+	}
+	
 	/**
 	 * Returns a copy of the manifest without any seals or signatures
 	 * @param manifest
@@ -434,7 +608,7 @@ public class JarModifier {
 			result.append(entry);
 			result.append(" [");
 			if(jarEntriesToAdd.containsKey(entry)){
-				result.append(jarEntriesToAdd.get(entry).length + " (bytes)");
+				result.append(jarEntriesToAdd.getSize(entry) + " (bytes)");
 			} else {
 				result.append(jarFile.getAbsolutePath());
 			}
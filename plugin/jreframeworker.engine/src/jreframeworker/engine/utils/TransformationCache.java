@@ -0,0 +1,209 @@
+package jreframeworker.engine.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A persistent cache of transformed classes keyed by a hash of everything the
+ * transformation depends on. Each cached class is stored in its own file in
+ * the cache directory, named by its key. When the total size of the cached
+ * classes exceeds the capacity the least recently used classes are deleted,
+ * file modification times record use so the order survives between builds.
+ *
+ * The cache may be shared by engines that transform classes concurrently.
+ */
+public class TransformationCache {
+
+	/**
+	 * The default maximum total size in bytes of the cached classes
+	 */
+	public static final long DEFAULT_CAPACITY = 256 * 1024 * 1024;
+
+	/**
+	 * Builds a cache key from a sequence of values. Each value is length
+	 * prefixed so that different sequences of values produce different keys.
+	 */
+	public static class Key {
+		private MessageDigest digest;
+
+		public Key(){
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				// every Java platform is required to support SHA-256
+				throw new RuntimeException(e);
+			}
+		}
+
+		public Key add(byte[] bytes){
+			int length = bytes.length;
+			digest.update(new byte[]{ (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+			digest.update(bytes);
+			return this;
+		}
+
+		public Key add(String value){
+			return add(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Returns the key as a hexadecimal string, the key can not be added to afterwards
+		 */
+		@Override
+		public String toString(){
+			StringBuilder result = new StringBuilder();
+			for(byte b : digest.digest()){
+				result.append(Character.forDigit((b >> 4) & 0xF, 16));
+				result.append(Character.forDigit(b & 0xF, 16));
+			}
+			return result.toString();
+		}
+	}
+
+	private File directory;
+	private long capacity;
+	private long size = 0;
+
+	// cached class sizes keyed by cache key, least recently used first
+	private LinkedHashMap<String,Long> entries = new LinkedHashMap<String,Long>(16, 0.75f, true);
+
+	/**
+	 * Opens the cache in the given directory, creating the directory if needed
+	 *
+	 * @param directory
+	 * @param capacity The maximum total size in bytes of the cached classes
+	 * @throws IOException
+	 */
+	public TransformationCache(File directory, long capacity) throws IOException {
+		if(capacity < 0){
+			throw new IllegalArgumentException("Cache capacity must not be negative");
+		}
+		this.directory = directory;
+		this.capacity = capacity;
+		directory.mkdirs();
+		if(!directory.isDirectory()){
+			throw new IOException("Could not create transformation cache directory: " + directory);
+		}
+
+		// index the cached classes from least to most recently used
+		File[] files = directory.listFiles();
+		Arrays.sort(files, new Comparator<File>(){
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for(File file : files){
+			if(file.isFile()){
+				if(isKey(file.getName())){
+					entries.put(file.getName(), file.length());
+					size += file.length();
+				} else {
+					// a partially written class from an interrupted build
+					file.delete();
+				}
+			}
+		}
+		evict();
+	}
+
+	public File getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Returns the cached transformed class for the given key or null if the
+	 * class is not cached
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized byte[] get(String key){
+		if(entries.get(key) == null){
+			return null;
+		}
+		File file = new File(directory, key);
+		try {
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			file.setLastModified(System.currentTimeMillis());
+			return bytes;
+		} catch (IOException e){
+			// the file was removed or is unreadable, forget it
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Caches a transformed class. Classes larger than the capacity are not cached.
+	 *
+	 * @param key
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public synchronized void put(String key, byte[] bytes) throws IOException {
+		if(bytes.length > capacity){
+			return;
+		}
+		remove(key);
+		// write to a temporary file first so that a class is never partially cached
+		File temporaryFile = new File(directory, key + ".tmp");
+		Files.write(temporaryFile.toPath(), bytes);
+		Files.move(temporaryFile.toPath(), new File(directory, key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		entries.put(key, (long) bytes.length);
+		size += bytes.length;
+		evict();
+	}
+
+	/**
+	 * Deletes every cached class
+	 */
+	public synchronized void clear(){
+		for(String key : entries.keySet()){
+			new File(directory, key).delete();
+		}
+		entries.clear();
+		size = 0;
+	}
+
+	private void remove(String key){
+		Long length = entries.remove(key);
+		if(length != null){
+			size -= length;
+			new File(directory, key).delete();
+		}
+	}
+
+	private void evict(){
+		Iterator<Map.Entry<String,Long>> leastRecentlyUsed = entries.entrySet().iterator();
+		while(size > capacity && leastRecentlyUsed.hasNext()){
+			Map.Entry<String,Long> entry = leastRecentlyUsed.next();
+			new File(directory, entry.getKey()).delete();
+			size -= entry.getValue();
+			leastRecentlyUsed.remove();
+		}
+	}
+
+	private static boolean isKey(String name){
+		if(name.length() != 64){
+			return false;
+		}
+		for(int i=0; i<name.length(); i++){
+			if(Character.digit(name.charAt(i), 16) == -1){
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,104 @@
+package jreframeworker.builder;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The order the build phases of a build must run in. Each target jar has its
+ * own engine, so a phase only depends on the earlier phases that modify any of
+ * the same target jars. Phases that modify disjoint sets of target jars do not
+ * observe each other's modifications and may run concurrently.
+ *
+ * Build phases are identified by their normalized build phase number.
+ */
+public class BuildPhaseGraph {
+
+	private Map<Integer,Set<String>> targetJars = new TreeMap<Integer,Set<String>>();
+	private Map<Integer,Set<Integer>> dependencies = new TreeMap<Integer,Set<Integer>>();
+	private Set<Integer> started = new HashSet<Integer>();
+	private Set<Integer> completed = new HashSet<Integer>();
+
+	/**
+	 * Creates the graph of the given build phases
+	 * @param phaseTargetJars The names of the target jars each build phase modifies keyed by normalized build phase
+	 */
+	public BuildPhaseGraph(Map<Integer,Set<String>> phaseTargetJars){
+		for(Entry<Integer,Set<String>> phase : new TreeMap<Integer,Set<String>>(phaseTargetJars).entrySet()){
+			Set<Integer> phaseDependencies = new TreeSet<Integer>();
+			for(Entry<Integer,Set<String>> previousPhase : targetJars.entrySet()){
+				for(String targetJar : phase.getValue()){
+					if(previousPhase.getValue().contains(targetJar)){
+						phaseDependencies.add(previousPhase.getKey());
+						break;
+					}
+				}
+			}
+			targetJars.put(phase.getKey(), new HashSet<String>(phase.getValue()));
+			dependencies.put(phase.getKey(), phaseDependencies);
+		}
+	}
+
+	/**
+	 * Returns the build phases of the graph in ascending order
+	 * @return
+	 */
+	public Set<Integer> getPhases(){
+		return dependencies.keySet();
+	}
+
+	/**
+	 * Returns the names of the target jars the given build phase modifies
+	 * @param phase
+	 * @return
+	 */
+	public Set<String> getTargetJars(int phase){
+		return targetJars.get(phase);
+	}
+
+	/**
+	 * Returns the earlier build phases that must complete before the given build phase runs
+	 * @param phase
+	 * @return
+	 */
+	public Set<Integer> getDependencies(int phase){
+		return dependencies.get(phase);
+	}
+
+	/**
+	 * Returns the build phases that have not been started and whose
+	 * dependencies have all completed, in ascending order
+	 * @return
+	 */
+	public List<Integer> getReadyPhases(){
+		List<Integer> readyPhases = new LinkedList<Integer>();
+		for(Entry<Integer,Set<Integer>> phase : dependencies.entrySet()){
+			if(!started.contains(phase.getKey()) && completed.containsAll(phase.getValue())){
+				readyPhases.add(phase.getKey());
+			}
+		}
+		return readyPhases;
+	}
+
+	public void start(int phase){
+		started.add(phase);
+	}
+
+	public void complete(int phase){
+		completed.add(phase);
+	}
+
+	/**
+	 * Returns true if every build phase has completed
+	 * @return
+	 */
+	public boolean isComplete(){
+		return completed.containsAll(dependencies.keySet());
+	}
+
+}
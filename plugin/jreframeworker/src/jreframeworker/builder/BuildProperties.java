@@ -0,0 +1,70 @@
+package jreframeworker.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Reads and writes the properties files the builder keeps between builds.
+ * Sets of class names are stored as a single value of the sorted names.
+ */
+class BuildProperties {
+
+	// class names can not contain a ';'
+	static final String SEPARATOR = ";";
+
+	/**
+	 * Loads the properties of the given file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static Properties load(File file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream input = new FileInputStream(file)) {
+			properties.load(input);
+		}
+		return properties;
+	}
+
+	/**
+	 * Saves the properties to the given file, creating its parent directories
+	 * @param properties
+	 * @param file
+	 * @param comments
+	 * @throws IOException
+	 */
+	static void store(Properties properties, File file, String comments) throws IOException {
+		file.getParentFile().mkdirs();
+		try (OutputStream output = new FileOutputStream(file)) {
+			properties.store(output, comments);
+		}
+	}
+
+	static String join(Collection<String> values){
+		StringBuilder result = new StringBuilder();
+		for(String value : new TreeSet<String>(values)){
+			if(result.length() > 0){
+				result.append(SEPARATOR);
+			}
+			result.append(value);
+		}
+		return result.toString();
+	}
+
+	static Collection<String> split(String values){
+		if(values.isEmpty()){
+			return new HashSet<String>();
+		}
+		return Arrays.asList(values.split(SEPARATOR));
+	}
+
+}
@@ -0,0 +1,199 @@
+package jreframeworker.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The record of a completed build that an incremental build starts from: the
+ * original jar of each target jar with its size and modification time, the
+ * build phases of the build, and the target classes of each modification class
+ * in the project's binary directory.
+ *
+ * Modification classes are identified by their path relative to the binary
+ * directory using '/' separators (example: java/io/HiddenFile.class).
+ */
+public class BuildState {
+
+	private static final String ORIGINAL_JAR_PREFIX = "original:";
+	private static final String FINGERPRINT_PREFIX = "fingerprint:";
+	private static final String PHASES = "phases";
+	private static final String TARGETS_PREFIX = "targets:";
+	private static final String HIERARCHY_PREFIX = "hierarchy:";
+
+	private Map<String,File> originalJars = new TreeMap<String,File>();
+	private Map<String,String> originalJarFingerprints = new HashMap<String,String>();
+	private String phases = "";
+	private Map<String,Set<String>> modificationTargets = new HashMap<String,Set<String>>();
+	private Set<String> hierarchyModifications = new HashSet<String>();
+
+	/**
+	 * Loads a build state, returns null if there is no saved build state or it can not be read
+	 * @param file
+	 * @return
+	 */
+	public static BuildState load(File file){
+		if(!file.exists()){
+			return null;
+		}
+		Properties properties;
+		try {
+			properties = BuildProperties.load(file);
+		} catch (IOException e){
+			return null;
+		}
+		BuildState buildState = new BuildState();
+		buildState.phases = properties.getProperty(PHASES, "");
+		for(String key : properties.stringPropertyNames()){
+			if(key.startsWith(ORIGINAL_JAR_PREFIX)){
+				buildState.originalJars.put(key.substring(ORIGINAL_JAR_PREFIX.length()), new File(properties.getProperty(key)));
+			} else if(key.startsWith(FINGERPRINT_PREFIX)){
+				buildState.originalJarFingerprints.put(key.substring(FINGERPRINT_PREFIX.length()), properties.getProperty(key));
+			} else if(key.startsWith(TARGETS_PREFIX)){
+				buildState.modificationTargets.put(key.substring(TARGETS_PREFIX.length()), new HashSet<String>(BuildProperties.split(properties.getProperty(key))));
+			} else if(key.startsWith(HIERARCHY_PREFIX)){
+				buildState.hierarchyModifications.add(key.substring(HIERARCHY_PREFIX.length()));
+			}
+		}
+		return buildState;
+	}
+
+	/**
+	 * Saves the build state
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		Properties properties = new Properties();
+		for(Entry<String,File> entry : originalJars.entrySet()){
+			properties.setProperty(ORIGINAL_JAR_PREFIX + entry.getKey(), entry.getValue().getPath());
+		}
+		for(Entry<String,String> entry : originalJarFingerprints.entrySet()){
+			properties.setProperty(FINGERPRINT_PREFIX + entry.getKey(), entry.getValue());
+		}
+		properties.setProperty(PHASES, phases);
+		for(Entry<String,Set<String>> entry : modificationTargets.entrySet()){
+			properties.setProperty(TARGETS_PREFIX + entry.getKey(), BuildProperties.join(entry.getValue()));
+		}
+		for(String hierarchyModification : hierarchyModifications){
+			properties.setProperty(HIERARCHY_PREFIX + hierarchyModification, Boolean.TRUE.toString());
+		}
+		BuildProperties.store(properties, file, "JReFrameworker build state");
+	}
+
+	/**
+	 * Returns the original jars of the build keyed by target jar name
+	 * @return
+	 */
+	public Map<String,File> getOriginalJars(){
+		return originalJars;
+	}
+
+	/**
+	 * Records the original jar of a target jar along with the size and
+	 * modification time of the original jar at the time of the build
+	 * @param targetJar
+	 * @param originalJar
+	 */
+	public void putOriginalJar(String targetJar, File originalJar){
+		originalJars.put(targetJar, originalJar);
+		originalJarFingerprints.put(targetJar, getFingerprint(originalJar));
+	}
+
+	/**
+	 * Returns true if the original jar of the given target jar no longer
+	 * exists or its size or modification time changed since the build
+	 * @param targetJar
+	 * @return
+	 */
+	public boolean isOriginalJarChanged(String targetJar){
+		File originalJar = originalJars.get(targetJar);
+		if(originalJar == null || !originalJar.exists()){
+			return true;
+		}
+		return !getFingerprint(originalJar).equals(originalJarFingerprints.get(targetJar));
+	}
+
+	/**
+	 * Returns a description of the normalized build phases of the build
+	 * @return
+	 */
+	public String getPhases(){
+		return phases;
+	}
+
+	public void setPhases(Map<Integer,Integer> normalizedPhases){
+		this.phases = new TreeMap<Integer,Integer>(normalizedPhases).toString();
+	}
+
+	/**
+	 * Returns true if the given normalized build phases are the build phases of the build
+	 * @param normalizedPhases
+	 * @return
+	 */
+	public boolean hasPhases(Map<Integer,Integer> normalizedPhases){
+		return phases.equals(new TreeMap<Integer,Integer>(normalizedPhases).toString());
+	}
+
+	/**
+	 * Returns the modification classes of the build
+	 * @return
+	 */
+	public Set<String> getModifications(){
+		return modificationTargets.keySet();
+	}
+
+	/**
+	 * Returns the target classes of the given modification class or an empty set
+	 * @param modification
+	 * @return
+	 */
+	public Set<String> getTargets(String modification){
+		Set<String> targets = modificationTargets.get(modification);
+		if(targets == null){
+			return new HashSet<String>();
+		}
+		return targets;
+	}
+
+	/**
+	 * Returns true if the given modification class changes the class hierarchy
+	 * (defines or purges a type)
+	 * @param modification
+	 * @return
+	 */
+	public boolean isHierarchyModification(String modification){
+		return hierarchyModifications.contains(modification);
+	}
+
+	/**
+	 * Records the target classes of a modification class
+	 * @param modification
+	 * @param targets
+	 * @param hierarchyModification True if the modification class defines or purges a type
+	 */
+	public void putModification(String modification, Set<String> targets, boolean hierarchyModification){
+		modificationTargets.put(modification, targets);
+		if(hierarchyModification){
+			hierarchyModifications.add(modification);
+		} else {
+			hierarchyModifications.remove(modification);
+		}
+	}
+
+	public void removeModification(String modification){
+		modificationTargets.remove(modification);
+		hierarchyModifications.remove(modification);
+	}
+
+	private static String getFingerprint(File file){
+		return file.length() + BuildProperties.SEPARATOR + file.lastModified();
+	}
+
+}
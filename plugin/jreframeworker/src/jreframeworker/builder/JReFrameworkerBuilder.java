@@ -3,59 +3,63 @@ package jreframeworker.builder;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.launching.IVMInstall;
 import org.eclipse.jdt.launching.JavaRuntime;
 import org.eclipse.jdt.launching.LibraryLocation;
-import org.objectweb.asm.tree.AnnotationNode;
-import org.objectweb.asm.tree.ClassNode;
 import org.xml.sax.SAXException;
 
-import jreframeworker.common.RuntimeUtils;
+import jreframeworker.builder.ModificationIndex.IndexedClass;
 import jreframeworker.core.BuildFile;
 import jreframeworker.core.JReFrameworker;
 import jreframeworker.core.JReFrameworkerProject;
 import jreframeworker.engine.Engine;
-import jreframeworker.engine.identifiers.DefineFinalityIdentifier;
-import jreframeworker.engine.identifiers.DefineFinalityIdentifier.DefineFieldFinalityAnnotation;
-import jreframeworker.engine.identifiers.DefineFinalityIdentifier.DefineMethodFinalityAnnotation;
-import jreframeworker.engine.identifiers.DefineFinalityIdentifier.DefineTypeFinalityAnnotation;
-import jreframeworker.engine.identifiers.DefineIdentifier;
-import jreframeworker.engine.identifiers.DefineIdentifier.DefineTypeAnnotation;
-import jreframeworker.engine.identifiers.DefineVisibilityIdentifier;
-import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.DefineFieldVisibilityAnnotation;
-import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.DefineMethodVisibilityAnnotation;
-import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.DefineTypeVisibilityAnnotation;
-import jreframeworker.engine.identifiers.JREFAnnotationIdentifier;
-import jreframeworker.engine.identifiers.MergeIdentifier;
-import jreframeworker.engine.identifiers.MergeIdentifier.MergeTypeAnnotation;
-import jreframeworker.engine.identifiers.PurgeIdentifier;
-import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeFieldAnnotation;
-import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeMethodAnnotation;
-import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeTypeAnnotation;
-import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.Engine.ProcessingMonitor;
+import jreframeworker.engine.identifiers.JREFAnnotationKind;
+import jreframeworker.engine.utils.JarModifier;
+import jreframeworker.engine.utils.TransformationCache;
 import jreframeworker.log.Log;
 import jreframeworker.ui.PreferencesPage;
 
@@ -96,6 +100,7 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 
 			try {
 				jrefProject.clean();
+				getBuildStateFile(jrefProject).delete();
 				this.forgetLastBuiltState(); 
 			} catch (Exception e) {
 				Log.error("Error cleaning " + jrefProject.getProject().getName(), e);
@@ -119,7 +124,7 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 			}
 			
 			// build each jref project fresh
-			monitor.beginTask("Building: " + jrefProject.getProject().getName(), 1);
+			SubMonitor buildMonitor = SubMonitor.convert(monitor, "Building: " + jrefProject.getProject().getName(), 1);
 			Log.info("Building: " + jrefProject.getProject().getName());
 
 //			// add each class from classes in jars in raw directory
@@ -145,11 +150,17 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 //				}
 //			}
 			
-			// discover the build phases
+			// the previous build is replaced, if this build fails the next build must also be a full build
+			File buildStateFile = getBuildStateFile(jrefProject);
+			buildStateFile.delete();
+			
+			// discover the build phases from the index of the modification classes
 			File binDirectory = jrefProject.getProject().getFolder(JReFrameworker.BINARY_DIRECTORY).getLocation().toFile();
 			Map<Integer,Integer> phases = null;
+			List<IndexedClass> modifications = null;
 			try {
-				phases = getNormalizedBuildPhases(binDirectory, jrefProject);
+				modifications = getModifications(jrefProject, binDirectory);
+				phases = getNormalizedBuildPhases(modifications);
 				String phasePurality = phases.size() > 1 || phases.isEmpty() ? "s" : "";
 				Log.info("Discovered " + phases.size() + " explicit build phase" + phasePurality + "\nNormalized Build Phase Mapping: " + phases.toString());
 				if(phases.isEmpty()){
@@ -160,134 +171,160 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 				return;
 			}
 	
+			Set<Engine> allEngines = new HashSet<Engine>();
 			try {
 				LinkedList<Integer> sortedPhases = new LinkedList<Integer>(phases.keySet());
 				Collections.sort(sortedPhases);
-				int lastPhase = -1;
-				int lastNamedPhase = -1;
 				
-				for(int currentPhase : sortedPhases){
-					int currentNamedPhase = phases.get(currentPhase);
-					boolean isFirstPhase = false;
-					if(sortedPhases.getFirst().equals(currentPhase)){
-						isFirstPhase = true;
-					}
-					boolean isLastPhase = false;
-					if(sortedPhases.getLast().equals(currentPhase)){
-						isLastPhase = true;
+				// initialize the modification engines with the original jars, the engines are
+				// carried from one phase to the next in memory so each phase modifies the 
+				// classes as they were left by the previous phase
+				// classes transformed the same way by a previous build are reused from the transformation cache
+				TransformationCache transformationCache = getTransformationCache(jrefProject);
+				BuildState buildState = new BuildState();
+				BuildFile buildFile = jrefProject.getBuildFile();
+				for(String targetJar : buildFile.getTargets()) {
+					File originalJar = getClasspathJar(targetJar, jrefProject);
+					if (originalJar != null && originalJar.exists()) {
+						allEngines.add(createEngine(originalJar, transformationCache));
+						buildState.putOriginalJar(targetJar, originalJar.getCanonicalFile());
+					} else {
+						Log.warning("Original Jar not found: " + targetJar);
 					}
-					
-					// map class entries to and initial modification engine sets
-					Map<String, Set<Engine>> engineMap = new HashMap<String, Set<Engine>>();
-					Set<Engine> allEngines = new HashSet<Engine>();
-
-					// initialize the modification engines
-					// if its the first phase then we are just initializing with the original jars
-					// if its after the first phase then we are initializing with the last build phase jars
-					BuildFile buildFile = jrefProject.getBuildFile();
-					if(isFirstPhase){
-						for(String targetJar : buildFile.getTargets()) {
-							File originalJar = getClasspathJar(targetJar, jrefProject);
-							if (originalJar != null && originalJar.exists()) {
-								Engine engine = new Engine(originalJar, PreferencesPage.getMergeRenamingPrefix());
-								allEngines.add(engine);
-								for(String entry : engine.getOriginalEntries()){
-									entry = entry.replace(".class", "");
-									if(engineMap.containsKey(entry)){
-										engineMap.get(entry).add(engine);
-									} else {
-										Set<Engine> engines = new HashSet<Engine>();
-										engines.add(engine);
-										engineMap.put(entry, engines);
-									}
+				}
+				
+				// intermediate phase jars are not needed to build the next phase, so they are only written on request
+				boolean saveIntermediatePhaseJars = PreferencesPage.isSaveIntermediatePhaseJarsEnabled();
+				
+				// each target jar has its own engine, so a phase only waits for the earlier phases that
+				// modify any of its target jars and phases that modify disjoint target jars run concurrently
+				final Map<String,Engine> targetEngines = new HashMap<String,Engine>();
+				for(Engine engine : allEngines){
+					targetEngines.put(engine.getJarName(), engine);
+				}
+				final BuildPhaseGraph phaseGraph = getBuildPhaseGraph(modifications, phases, allEngines, saveIntermediatePhaseJars);
+				final Map<Integer,Integer> namedPhases = phases;
+				final List<IndexedClass> phaseModifications = modifications;
+				final int lastPhase = sortedPhases.getLast();
+				
+				runPhases(phaseGraph, new PhaseTask(){
+					@Override
+					public List<File> run(final int currentPhase, PhaseProgress progress) throws IOException {
+						final int currentNamedPhase = namedPhases.get(currentPhase);
+						final boolean isLastPhase = currentPhase == lastPhase;
+						
+						Set<Engine> phaseEngines = new HashSet<Engine>();
+						for(String targetJar : phaseGraph.getTargetJars(currentPhase)){
+							phaseEngines.add(targetEngines.get(targetJar));
+						}
+						
+						// the target jars of the phase are processed in parallel, so each engine gets its share of the processors
+						final int engineThreads = getEngineThreads(phaseEngines);
+						
+						// map class entries to modification engine sets
+						Map<String, Set<Engine>> engineMap = getEngineMap(phaseEngines);
+						
+						// compute the source based jar modifications
+						final Map<Engine, List<byte[]>> engineInputs = new HashMap<Engine, List<byte[]>>();
+						buildProject(binDirectory, phaseModifications, engineMap, phaseEngines, engineInputs, currentNamedPhase);
+						
+						// the modified jars are written in the last phase or on request
+						final Map<Engine,File> modifiedLibraryFiles = new HashMap<Engine,File>();
+						if(isLastPhase || saveIntermediatePhaseJars){
+							for(Engine engine : phaseEngines){
+								File modifiedLibrary;
+								if(isLastPhase){
+									modifiedLibrary = new File(projectBuildDirectory.getCanonicalPath() + File.separatorChar + engine.getJarName());
+								} else {
+									modifiedLibrary = getBuildPhaseJar(engine.getJarName(), jrefProject, currentPhase, currentNamedPhase);
 								}
-							} else {
-								Log.warning("Original Jar not found: " + targetJar);
+								modifiedLibrary.getParentFile().mkdirs();
+								modifiedLibraryFiles.put(engine, modifiedLibrary);
 							}
 						}
-					} else {
-						for(String targetJar : buildFile.getTargets()) {
-							File phaseJar = getBuildPhaseJar(targetJar, jrefProject, lastPhase, lastNamedPhase);
-							if(!phaseJar.exists()){
-								phaseJar = getClasspathJar(targetJar, jrefProject);;
-							}
-							if (phaseJar != null && phaseJar.exists()) {
-								Engine engine = new Engine(phaseJar, PreferencesPage.getMergeRenamingPrefix());
-								allEngines.add(engine);
-								for(String entry : engine.getOriginalEntries()){
-									entry = entry.replace(".class", "");
-									if(engineMap.containsKey(entry)){
-										engineMap.get(entry).add(engine);
-									} else {
-										Set<Engine> engines = new HashSet<Engine>();
-										engines.add(engine);
-										engineMap.put(entry, engines);
-									}
+						
+						// apply the modifications to each jar and write out the modified jars, the jars are processed
+						// in parallel, within a jar input classes with disjoint targets are processed in parallel and
+						// the recorded modifications of each class are applied as it is written
+						int work = modifiedLibraryFiles.size();
+						for(List<byte[]> inputs : engineInputs.values()){
+							work += inputs.size();
+						}
+						progress.setTotalWork(work);
+						invokeEngineTasks(phaseEngines, new EngineTask(){
+							@Override
+							public void run(Engine engine, ProcessingMonitor monitor) throws IOException {
+								List<byte[]> inputs = engineInputs.get(engine);
+								if(inputs != null){
+									engine.setProcessingThreads(engineThreads);
+									engine.processAll(inputs, currentPhase, currentNamedPhase, monitor);
+								}
+								File modifiedLibrary = modifiedLibraryFiles.get(engine);
+								if(modifiedLibrary != null && !monitor.isCanceled()){
+									// intermediate phase jars are only for debugging so skip compressing them
+									engine.setCompressEntries(isLastPhase);
+									engine.setCompressionThreads(engineThreads);
+									engine.save(modifiedLibrary);
+									monitor.worked(1);
 								}
-							} else {
-								Log.warning("Phase Jar not found: " + targetJar);
 							}
-						}
+						}, progress);
+						
+						return new LinkedList<File>(modifiedLibraryFiles.values());
 					}
 					
-					// compute the source based jar modifications
-					buildProject(binDirectory, jrefProject, engineMap, allEngines, currentPhase, currentNamedPhase);
-					
-					// write out the modified jars
-					for(Engine engine : allEngines){
-						File modifiedLibrary = getBuildPhaseJar(engine.getJarName(), jrefProject, currentPhase, currentNamedPhase);
-						modifiedLibrary.getParentFile().mkdirs();
-						engine.save(modifiedLibrary);
-
-						if(isLastPhase){
-							File finalModifiedLibrary = new File(projectBuildDirectory.getCanonicalPath() + File.separatorChar + engine.getJarName());
-							RuntimeUtils.copyFile(modifiedLibrary, finalModifiedLibrary);
+					@Override
+					public void completed(int currentPhase, List<File> modifiedLibraries) throws IOException {
+						int currentNamedPhase = namedPhases.get(currentPhase);
+						for(File modifiedLibrary : modifiedLibraries){
+							// log the modified runtime
+							String base = jrefProject.getProject().getLocation().toFile().getCanonicalPath();
+							String relativeFilePath = modifiedLibrary.getCanonicalPath().substring(base.length());
+							if(relativeFilePath.charAt(0) == File.separatorChar){
+								relativeFilePath = relativeFilePath.substring(1);
+							}
+							Log.info("Modified: " + relativeFilePath);
 						}
 						
-						// log the modified runtime
-						String base = jrefProject.getProject().getLocation().toFile().getCanonicalPath();
-						String relativeFilePath = modifiedLibrary.getCanonicalPath().substring(base.length());
-						if(relativeFilePath.charAt(0) == File.separatorChar){
-							relativeFilePath = relativeFilePath.substring(1);
+						// the current build  phase is over
+						if(currentPhase != currentNamedPhase){
+							Log.info("Phase " + currentPhase + " (identified as " + currentNamedPhase + ") completed.");
+						} else {
+							Log.info("Phase " + currentPhase + " completed.");
 						}
-						Log.info("Modified: " + relativeFilePath);
-					}
-					
-					// the current build  phase is over
-					lastPhase = currentPhase;
-					lastNamedPhase = currentNamedPhase;
-					if(currentPhase != currentNamedPhase){
-						Log.info("Phase " + currentPhase + " (identified as " + currentNamedPhase + ") completed.");
-					} else {
-						Log.info("Phase " + currentPhase + " completed.");
-					}
-					
-					jrefProject.refresh();
-					
-					// remove the java nature to prevent the Java builder from running until we are ready
-					// if the build phase directory is null or does not exist then nothing was done during the phase
-					File buildPhaseDirectory = getBuildPhaseDirectory(jrefProject, currentPhase, currentNamedPhase);
-					if(buildPhaseDirectory != null && buildPhaseDirectory.exists()){
-						jrefProject.removeJavaNature();
-						for(File file : buildPhaseDirectory.listFiles()){
-							if(file.getName().endsWith(".jar")){
-								File modifiedLibrary = file;
+						
+						jrefProject.refresh();
+						
+						// remove the java nature to prevent the Java builder from running until we are ready
+						// if no jars were written then the project libraries are unchanged
+						if(!modifiedLibraries.isEmpty()){
+							jrefProject.removeJavaNature();
+							for(File modifiedLibrary : modifiedLibraries){
 								jrefProject.updateProjectLibrary(modifiedLibrary.getName(), modifiedLibrary);
 							}
+							// restore the java nature
+							jrefProject.addJavaNature();
+							
+							jrefProject.refresh();
 						}
-						// restore the java nature
-						jrefProject.addJavaNature();
-						
-						jrefProject.refresh();
 					}
+				}, buildMonitor);
+				
+				// record the build so that later changes can be built incrementally
+				buildState.setPhases(phases);
+				for(IndexedClass modification : modifications){
+					buildState.putModification(modification.getPath(), modification.getTargets(), modification.isHierarchyModification());
 				}
+				buildState.save(buildStateFile);
 			} catch (IOException | SAXException | ParserConfigurationException e) {
 				Log.error("Error building " + jrefProject.getProject().getName(), e);
 				return;
+			} finally {
+				closeEngines(allEngines);
 			}
 
 			jrefProject.getProject().refreshLocal(IResource.DEPTH_INFINITE, new NullProgressMonitor());
-			monitor.worked(1);
+			monitor.done();
 		} else {
 			Log.warning(getProject().getName() + " is not a valid JReFrameworker project!");
 		}
@@ -299,12 +336,70 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 		return new File(projectBuildDirectory.getCanonicalPath() + File.separatorChar + buildPhaseDirectoryName);
 	}
 	
+	/**
+	 * Creates a modification engine for the given jar with its own class
+	 * loaders, runtime jars are resolved by the builder's class loader and
+	 * other jars are resolved from the jar itself
+	 * @param jar
+	 * @param transformationCache The shared transformation cache or null
+	 * @return
+	 * @throws IOException
+	 */
+	private Engine createEngine(File jar, TransformationCache transformationCache) throws IOException {
+		Engine engine;
+		if(isRuntimeJar(jar.getName())){
+			engine = new Engine(jar, PreferencesPage.getMergeRenamingPrefix(), new ClassLoader[]{ getClass().getClassLoader() });
+		} else {
+			URL[] jarURL = { new URL("jar:file:" + jar.getCanonicalPath() + "!/") };
+			engine = new Engine(jar, PreferencesPage.getMergeRenamingPrefix(), new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
+		}
+		// record modifications while processing and apply them while the jar is saved
+		engine.setStreaming(true);
+		engine.setTransformationCache(transformationCache);
+		return engine;
+	}
+	
+	/**
+	 * Opens the project's persistent transformation cache, returns null if the
+	 * cache can not be opened so that the build proceeds without it
+	 * @param jrefProject
+	 * @return
+	 */
+	private TransformationCache getTransformationCache(JReFrameworkerProject jrefProject) {
+		try {
+			File cacheDirectory = jrefProject.getProject().getFolder(JReFrameworker.TRANSFORMATION_CACHE_DIRECTORY).getLocation().toFile();
+			return new TransformationCache(cacheDirectory, TransformationCache.DEFAULT_CAPACITY);
+		} catch (IOException e){
+			Log.warning("Could not open the transformation cache", e);
+			return null;
+		}
+	}
+
 	private File getBuildPhaseJar(String targetJar, JReFrameworkerProject jrefProject, int buildPhase, int namedBuildPhase) throws IOException {
 		return new File(getBuildPhaseDirectory(jrefProject, buildPhase, namedBuildPhase).getCanonicalPath() + File.separatorChar + targetJar);
 	}
 
-	private Map<Integer,Integer> getNormalizedBuildPhases(File binDirectory, JReFrameworkerProject jrefProject) throws IOException {
-		Integer[] phases = getBuildPhases(binDirectory, jrefProject);
+	/**
+	 * Brings the project's modification index up to date and returns the
+	 * modification classes in the order the binary directory is walked
+	 * @param jrefProject
+	 * @param binDirectory
+	 * @return
+	 * @throws IOException
+	 */
+	private List<IndexedClass> getModifications(JReFrameworkerProject jrefProject, File binDirectory) throws IOException {
+		File indexFile = jrefProject.getProject().getFile(JReFrameworker.MODIFICATION_INDEX_FILE).getLocation().toFile();
+		ModificationIndex index = ModificationIndex.load(indexFile);
+		List<IndexedClass> modifications = index.update(binDirectory);
+		index.save(indexFile);
+		return modifications;
+	}
+
+	private Map<Integer,Integer> getNormalizedBuildPhases(List<IndexedClass> modifications) {
+		Set<Integer> phases = new TreeSet<Integer>();
+		for(IndexedClass modification : modifications){
+			phases.addAll(modification.getPhases());
+		}
 		Map<Integer,Integer> normalizedPhases = new HashMap<Integer,Integer>();
 		Integer normalizedPhase = 1;
 		for(Integer phase : phases){
@@ -312,279 +407,673 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 		}
 		return normalizedPhases;
 	}
+
+	private static void addEngineInput(Map<Engine, List<byte[]>> engineInputs, Engine engine, byte[] classBytes){
+		List<byte[]> inputs = engineInputs.get(engine);
+		if(inputs == null){
+			inputs = new LinkedList<byte[]>();
+			engineInputs.put(engine, inputs);
+		}
+		inputs.add(classBytes);
+	}
 	
-	private Integer[] getBuildPhases(File binDirectory, JReFrameworkerProject jrefProject) throws IOException {
-		Set<Integer> phases = getBuildPhases(binDirectory, jrefProject, new HashSet<Integer>());
-		ArrayList<Integer> phasesSorted = new ArrayList<Integer>(phases);
-		Collections.sort(phasesSorted);
-		Integer[] result = new Integer[phasesSorted.size()];
-		phases.toArray(result);
-		return result;
+	/**
+	 * Maps each class entry to the engines of the jars that contain it, classes
+	 * inserted by previous phases are mapped to the engine that inserted them
+	 */
+	private static Map<String, Set<Engine>> getEngineMap(Set<Engine> allEngines){
+		Map<String, Set<Engine>> engineMap = new HashMap<String, Set<Engine>>();
+		for(Engine engine : allEngines){
+			Set<String> entries = engine.getModificationEntries();
+			for(String entry : engine.getOriginalEntries()){
+				entries.add(entry.replace(".class", ""));
+			}
+			for(String entry : entries){
+				if(engineMap.containsKey(entry)){
+					engineMap.get(entry).add(engine);
+				} else {
+					Set<Engine> engines = new HashSet<Engine>();
+					engines.add(engine);
+					engineMap.put(entry, engines);
+				}
+			}
+		}
+		return engineMap;
 	}
 	
-	private Set<Integer> getBuildPhases(File binDirectory, JReFrameworkerProject jrefProject, Set<Integer> phases) throws IOException {
-		File[] files = binDirectory.listFiles();
-		for(File file : files){
-			if(file.isFile()){
-				if(file.getName().endsWith(".class")){
-					byte[] classBytes = Files.readAllBytes(file.toPath());
-					if(classBytes.length > 0){
-						try {
-							ClassNode classNode = BytecodeUtils.getClassNode(classBytes);
-							
-							boolean purgeModification = hasPurgeModification(classNode);
-							if(purgeModification){
-								PurgeIdentifier purgeIdentifier = new PurgeIdentifier(classNode);
-								for(PurgeTypeAnnotation purgeTypeAnnotation : purgeIdentifier.getPurgeTypeAnnotations()){
-									phases.add(purgeTypeAnnotation.getPhase());
-								}
-								for(PurgeFieldAnnotation purgeFieldAnnotation : purgeIdentifier.getPurgeFieldAnnotations()){
-									phases.add(purgeFieldAnnotation.getPhase());
-								}
-								for(PurgeMethodAnnotation purgeMethodAnnotation : purgeIdentifier.getPurgeMethodAnnotations()){
-									phases.add(purgeMethodAnnotation.getPhase());
-								}
-							}
-							
-							boolean finalityModification = hasFinalityModification(classNode);
-							if(finalityModification){
-								DefineFinalityIdentifier defineFinalityIdentifier = new DefineFinalityIdentifier(classNode);
-								for(DefineTypeFinalityAnnotation defineTypeFinalityAnnotation : defineFinalityIdentifier.getTargetTypes()){
-									phases.add(defineTypeFinalityAnnotation.getPhase());
-								}
-								for(DefineFieldFinalityAnnotation defineFieldFinalityAnnotation : defineFinalityIdentifier.getTargetFields()){
-									phases.add(defineFieldFinalityAnnotation.getPhase());
-								}
-								for(DefineMethodFinalityAnnotation defineMethodFinalityAnnotation : defineFinalityIdentifier.getTargetMethods()){
-									phases.add(defineMethodFinalityAnnotation.getPhase());
-								}
-							}
-							
-							boolean visibilityModification = hasVisibilityModification(classNode);
-							if(visibilityModification){
-								DefineVisibilityIdentifier defineVisibilityIdentifier = new DefineVisibilityIdentifier(classNode);
-								for(DefineTypeVisibilityAnnotation defineTypeVisibilityAnnotation : defineVisibilityIdentifier.getTargetTypes()){
-									phases.add(defineTypeVisibilityAnnotation.getPhase());
-								}
-								for(DefineFieldVisibilityAnnotation defineFieldVisibilityAnnotation : defineVisibilityIdentifier.getTargetFields()){
-									phases.add(defineFieldVisibilityAnnotation.getPhase());
-								}
-								for(DefineMethodVisibilityAnnotation defineMethodVisibilityAnnotation : defineVisibilityIdentifier.getTargetMethods()){
-									phases.add(defineMethodVisibilityAnnotation.getPhase());
+	/**
+	 * Collects the annotated class files that modify each engine, in the order they should be processed
+	 */
+	private void buildProject(File binDirectory, List<IndexedClass> modifications, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines, Map<Engine, List<byte[]>> engineInputs, int namedPhase) throws IOException {
+		for(IndexedClass modification : modifications){
+			if(modification.getPhases().contains(namedPhase)){
+				addModificationInputs(binDirectory, modification, engineMap, allEngines, engineInputs, namedPhase);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the given class file as an input of each engine it modifies in the given phase
+	 */
+	private void addModificationInputs(File binDirectory, IndexedClass modification, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines, Map<Engine, List<byte[]>> engineInputs, int namedPhase) throws IOException {
+		File file = new File(binDirectory, modification.getPath());
+		byte[] classBytes = Files.readAllBytes(file.toPath());
+		
+		// purge, finality, visibility, and merge targets are modified in each target jar that contains the target
+		Set<Engine> engines = new HashSet<Engine>();
+		for(String target : modification.getTargets(namedPhase)){
+			if(engineMap.containsKey(target)){
+				engines.addAll(engineMap.get(target));
+			} else {
+				Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
+			}
+		}
+		
+		if(modification.isDefinition(namedPhase)){
+			// define or replace in every target jar
+			engines.addAll(allEngines);
+		}
+		
+		// the engine applies every modification of the class in the phase at once, so each engine gets the class once
+		for(Engine engine : engines){
+			addEngineInput(engineInputs, engine, classBytes);
+		}
+	}
+	
+	/**
+	 * Rebuilds only the classes of the built jars that are targeted by the
+	 * changed modification classes. Falls back to a full build if the changes
+	 * can not be built incrementally.
+	 * 
+	 * See http://help.eclipse.org/mars/index.jsp?topic=%2Forg.eclipse.platform.doc.isv%2Fguide%2FresAdv_builders.htm
+	 */
+	protected void incrementalBuild(IResourceDelta delta, IProgressMonitor monitor) throws CoreException {
+		JReFrameworkerProject jrefProject = getJReFrameworkerProject();
+		if (jrefProject != null) {
+			// a changed build file can change any of the built jars
+			if(delta.findMember(new Path(BuildFile.XML_BUILD_FILENAME)) != null){
+				fullBuild(monitor);
+				return;
+			}
+			
+			// collect the changed class files, changes to the build outputs are ignored
+			final Set<File> changedClassFiles = new HashSet<File>();
+			final Set<File> removedClassFiles = new HashSet<File>();
+			IResourceDelta binaryDelta = delta.findMember(new Path(JReFrameworker.BINARY_DIRECTORY));
+			if(binaryDelta != null){
+				binaryDelta.accept(new IResourceDeltaVisitor() {
+					@Override
+					public boolean visit(IResourceDelta delta) throws CoreException {
+						IResource resource = delta.getResource();
+						if(resource.getType() == IResource.FILE && resource.getName().endsWith(".class")){
+							File file = resource.getLocation().toFile();
+							switch (delta.getKind()) {
+							case IResourceDelta.ADDED:
+								changedClassFiles.add(file);
+								break;
+							case IResourceDelta.REMOVED:
+								removedClassFiles.add(file);
+								break;
+							case IResourceDelta.CHANGED:
+								if((delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0){
+									changedClassFiles.add(file);
 								}
+								break;
 							}
-							
-							boolean mergeModification = hasMergeTypeModification(classNode);
-							if(mergeModification){
-								MergeIdentifier mergeIdentifier = new MergeIdentifier(classNode);
-								MergeTypeAnnotation mergeTypeAnnotation = mergeIdentifier.getMergeTypeAnnotation();
-								phases.add(mergeTypeAnnotation.getPhase());
-								// no such thing as merge field, so skipping fields
-								// define field, define method, and merge method all must have the same phase as the merge type annotation
-								// so we can't discover new phases by looking at the body
-							}
-							
-							boolean defineModification = hasDefineTypeModification(classNode);
-							if(defineModification){
-								DefineIdentifier defineIdentifier = new DefineIdentifier(classNode);
-								DefineTypeAnnotation defineTypeAnnotation = defineIdentifier.getDefineTypeAnnotation();
-								phases.add(defineTypeAnnotation.getPhase());
-								// define field, define method must have the same phase as the define type annotation
-								// so we can't discover new phases by looking at the body
-							}
-						} catch (RuntimeException e){
-							Log.error("Error discovering build phases...", e);
 						}
+						return true;
 					}
+				});
+			}
+			if(changedClassFiles.isEmpty() && removedClassFiles.isEmpty()){
+				return;
+			}
+			
+			try {
+				if(!buildIncrementally(jrefProject, changedClassFiles, removedClassFiles, monitor)){
+					fullBuild(monitor);
+					return;
 				}
-			} else if(file.isDirectory()){
-				getBuildPhases(file, jrefProject, phases);
+			} catch (IOException | SAXException | ParserConfigurationException e) {
+				Log.error("Error building " + jrefProject.getProject().getName(), e);
+				// the built jars may no longer match the build state
+				getBuildStateFile(jrefProject).delete();
+				return;
+			} catch (OperationCanceledException e) {
+				// some of the built jars may already have been updated
+				getBuildStateFile(jrefProject).delete();
+				throw e;
 			}
+			
+			jrefProject.getProject().refreshLocal(IResource.DEPTH_INFINITE, new NullProgressMonitor());
+			monitor.done();
+		} else {
+			Log.warning(getProject().getName() + " is not a valid JReFrameworker project!");
 		}
-		return phases;
 	}
-
-	// TODO: adding a progress monitor subtask here would be a nice feature
-	private void buildProject(File binDirectory, JReFrameworkerProject jrefProject, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines, int phase, int namedPhase) throws IOException {
-		// make changes for each annotated class file in current directory
-		File[] files = binDirectory.listFiles();
-		for(File file : files){
-			if(file.isFile()){
-				if(file.getName().endsWith(".class")){
-					byte[] classBytes = Files.readAllBytes(file.toPath());
-					if(classBytes.length > 0){
+	
+	/**
+	 * Rebuilds the classes targeted by the changed modification classes in
+	 * place in the built jars. Returns false without modifying the built jars
+	 * if the previous build can not be updated incrementally.
+	 */
+	private boolean buildIncrementally(JReFrameworkerProject jrefProject, Set<File> changedClassFiles, Set<File> removedClassFiles, IProgressMonitor monitor) throws IOException, SAXException, ParserConfigurationException, JavaModelException {
+		File buildStateFile = getBuildStateFile(jrefProject);
+		BuildState buildState = BuildState.load(buildStateFile);
+		if(buildState == null){
+			Log.info("No previous build to update, building all phases.");
+			return false;
+		}
+		
+		// the built jars must still be the jars of the build file built from the same original jars
+		File projectBuildDirectory = jrefProject.getProject().getFolder(JReFrameworker.BUILD_DIRECTORY).getLocation().toFile();
+		if(!jrefProject.getBuildFile().getTargets().equals(buildState.getOriginalJars().keySet())){
+			Log.info("Target jars changed, building all phases.");
+			return false;
+		}
+		for(Entry<String,File> originalJar : buildState.getOriginalJars().entrySet()){
+			File modifiedLibrary = new File(projectBuildDirectory.getCanonicalPath() + File.separatorChar + originalJar.getKey());
+			if(!originalJar.getValue().exists() || !modifiedLibrary.exists()){
+				Log.info("Missing " + originalJar.getKey() + ", building all phases.");
+				return false;
+			}
+			// the built jar is patched with classes of the original jar, so the original jar must be the one it was built from
+			File classpathJar = getClasspathJar(originalJar.getKey(), jrefProject);
+			if(buildState.isOriginalJarChanged(originalJar.getKey()) || classpathJar == null || !classpathJar.getCanonicalFile().equals(originalJar.getValue())){
+				Log.info("Original jar " + originalJar.getKey() + " changed, building all phases.");
+				return false;
+			}
+		}
+		
+		// every modification is applied in order of the build phases, so adding or removing a phase changes the order
+		File binDirectory = jrefProject.getProject().getFolder(JReFrameworker.BINARY_DIRECTORY).getLocation().toFile();
+		List<IndexedClass> modifications = getModifications(jrefProject, binDirectory);
+		Map<Integer,Integer> phases = getNormalizedBuildPhases(modifications);
+		if(phases.isEmpty()){
+			phases.put(1, 1); // added implicit build phase
+		}
+		if(!buildState.hasPhases(phases)){
+			Log.info("Build phases changed, building all phases.");
+			return false;
+		}
+		
+		Log.info("JReFrameworker Build Number: " + buildNumber++);
+		SubMonitor buildMonitor = SubMonitor.convert(monitor, "Building: " + jrefProject.getProject().getName(), 1);
+		Log.info("Incrementally building: " + jrefProject.getProject().getName());
+		
+		// the classes targeted before or after a change are affected by the change
+		Map<String,IndexedClass> indexedModifications = new HashMap<String,IndexedClass>();
+		for(IndexedClass modification : modifications){
+			indexedModifications.put(modification.getPath(), modification);
+		}
+		Set<String> affectedClasses = new HashSet<String>();
+		boolean hierarchyModified = false;
+		for(File file : removedClassFiles){
+			String modification = getModificationPath(binDirectory, file);
+			affectedClasses.addAll(buildState.getTargets(modification));
+			hierarchyModified |= buildState.isHierarchyModification(modification);
+			buildState.removeModification(modification);
+		}
+		for(File file : changedClassFiles){
+			String modification = getModificationPath(binDirectory, file);
+			affectedClasses.addAll(buildState.getTargets(modification));
+			hierarchyModified |= buildState.isHierarchyModification(modification);
+			IndexedClass indexedModification = indexedModifications.get(modification);
+			if(indexedModification != null){
+				buildState.putModification(modification, indexedModification.getTargets(), indexedModification.isHierarchyModification());
+			} else {
+				buildState.removeModification(modification);
+			}
+			affectedClasses.addAll(buildState.getTargets(modification));
+			hierarchyModified |= buildState.isHierarchyModification(modification);
+		}
+		if(hierarchyModified){
+			// the stack map frames of any modified class may depend on the class hierarchy
+			for(String modification : buildState.getModifications()){
+				affectedClasses.addAll(buildState.getTargets(modification));
+			}
+		}
+		
+		if(!affectedClasses.isEmpty()){
+			// the affected classes are rebuilt from the modifications that target them, modifications
+			// that change the class hierarchy are always applied so that the hierarchy matches a full build
+			List<IndexedClass> relevantModifications = new LinkedList<IndexedClass>();
+			for(IndexedClass modification : modifications){
+				if(modification.isHierarchyModification() || !Collections.disjoint(modification.getTargets(), affectedClasses)){
+					relevantModifications.add(modification);
+				}
+			}
+			
+			TransformationCache transformationCache = getTransformationCache(jrefProject);
+			Set<Engine> allEngines = new HashSet<Engine>();
+			try {
+				for(File originalJar : buildState.getOriginalJars().values()){
+					allEngines.add(createEngine(originalJar, transformationCache));
+				}
+				LinkedList<Integer> sortedPhases = new LinkedList<Integer>(phases.keySet());
+				Collections.sort(sortedPhases);
+				buildMonitor.setWorkRemaining(sortedPhases.size() + 1);
+				for(final int currentPhase : sortedPhases){
+					final int currentNamedPhase = phases.get(currentPhase);
+					Map<String, Set<Engine>> engineMap = getEngineMap(allEngines);
+					final Map<Engine, List<byte[]>> engineInputs = new HashMap<Engine, List<byte[]>>();
+					buildProject(binDirectory, relevantModifications, engineMap, allEngines, engineInputs, currentNamedPhase);
+					int work = 0;
+					for(List<byte[]> inputs : engineInputs.values()){
+						work += inputs.size();
+					}
+					final int engineThreads = getEngineThreads(engineInputs.keySet());
+					forEachEngine(engineInputs.keySet(), new EngineTask(){
+						@Override
+						public void run(Engine engine, ProcessingMonitor monitor) throws IOException {
+							engine.setProcessingThreads(engineThreads);
+							engine.processAll(engineInputs.get(engine), currentPhase, currentNamedPhase, monitor);
+						}
+					}, work, buildMonitor.newChild(1));
+				}
+				
+				// replace the affected classes of each built jar, the rest of the jar is copied as is
+				final File buildDirectory = projectBuildDirectory.getCanonicalFile();
+				final Set<String> rebuiltClasses = affectedClasses;
+				final int engineThreads = getEngineThreads(allEngines);
+				forEachEngine(allEngines, new EngineTask(){
+					@Override
+					public void run(Engine engine, ProcessingMonitor monitor) throws IOException {
+						File modifiedLibrary = new File(buildDirectory, engine.getJarName());
+						File temporaryLibrary = new File(modifiedLibrary.getPath() + ".tmp");
+						JarModifier jarModifier = new JarModifier(modifiedLibrary);
 						try {
-							// TODO: refactor this bit to just save the parsed annotation requests instead of true/false
-							ClassNode classNode = BytecodeUtils.getClassNode(classBytes);
-							boolean purgeModification = hasPurgeModification(classNode);
-							boolean finalityModification = hasFinalityModification(classNode);
-							boolean visibilityModification = hasVisibilityModification(classNode);
-							boolean mergeModification = hasMergeTypeModification(classNode);
-							boolean defineModification = hasDefineTypeModification(classNode);
-							
-							if(purgeModification || finalityModification || visibilityModification || mergeModification || defineModification){
-								// get the qualified modification class name
-								String base = jrefProject.getProject().getFolder(JReFrameworker.BINARY_DIRECTORY).getLocation().toFile().getCanonicalPath();
-								String modificationClassName = file.getCanonicalPath().substring(base.length());
-								if(modificationClassName.charAt(0) == File.separatorChar){
-									modificationClassName = modificationClassName.substring(1);
-								}
-								modificationClassName = modificationClassName.replace(".class", "");
-							
-								if(purgeModification){
-									Set<String> targets = PurgeIdentifier.getPurgeTargets(classNode, namedPhase);
-									for(String target : targets){
-										// purge target from each jar that contains the purge target
-										if(engineMap.containsKey(target)){
-											for(Engine engine : engineMap.get(target)){
-												if(isRuntimeJar(engine.getJarName())){
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-												} else {
-													URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-												}
-												engine.process(classBytes, phase, namedPhase);
-											}
-										} else {
-											Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-										}
-									}
-								} 
-								
-								if(finalityModification){
-									Set<String> targets = DefineFinalityIdentifier.getFinalityTargets(classNode, namedPhase);
-									for(String target : targets){
-										// merge into each target jar that contains the merge target
-										if(engineMap.containsKey(target)){
-											for(Engine engine : engineMap.get(target)){
-												if(isRuntimeJar(engine.getJarName())){
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-												} else {
-													URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-												}
-												engine.process(classBytes, phase, namedPhase);
-											}
-										} else {
-											Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-										}
-									}
-								} 
-								
-								if(visibilityModification){
-									Set<String> targets = DefineVisibilityIdentifier.getVisibilityTargets(classNode, namedPhase);
-									for(String target : targets){
-										// merge into each target jar that contains the merge target
-										if(engineMap.containsKey(target)){
-											for(Engine engine : engineMap.get(target)){
-												if(isRuntimeJar(engine.getJarName())){
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-												} else {
-													URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-												}
-												engine.process(classBytes, phase, namedPhase);
-											}
-										} else {
-											Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-										}
-									}
-								}
-								
-								if(mergeModification){
-									MergeIdentifier mergeIdentifier = new MergeIdentifier(classNode);
-									MergeTypeAnnotation mergeTypeAnnotation = mergeIdentifier.getMergeTypeAnnotation();
-									if(mergeTypeAnnotation.getPhase() == namedPhase){
-										String target = mergeTypeAnnotation.getSupertype();
-										// merge into each target jar that contains the merge target
-										if(engineMap.containsKey(target)){
-											for(Engine engine : engineMap.get(target)){
-												if(isRuntimeJar(engine.getJarName())){
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-												} else {
-													URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-													engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-												}
-												engine.process(classBytes, phase, namedPhase);
-											}
-										} else {
-											Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-										}
-									}
-								} 
-								
-								if(defineModification){
-									DefineIdentifier defineIdentifier = new DefineIdentifier(classNode);
-									DefineTypeAnnotation defineTypeAnnotation = defineIdentifier.getDefineTypeAnnotation();
-									if(defineTypeAnnotation.getPhase() == namedPhase){
-										// define or replace in every target jar
-										for(Engine engine : allEngines){
-											if(isRuntimeJar(engine.getJarName())){
-												engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-											} else {
-												URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-												engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-											}
-											engine.process(classBytes, phase, namedPhase);
-										}
-									}
+							for(String affectedClass : rebuiltClasses){
+								byte[] classBytes = engine.readClass(affectedClass);
+								if(classBytes == null){
+									jarModifier.remove(affectedClass + ".class");
+								} else {
+									jarModifier.add(affectedClass + ".class", classBytes, true);
 								}
 							}
-						} catch (RuntimeException e){
-							Log.error("Error modifying jar...", e);
+							jarModifier.setCompressionThreads(engineThreads);
+							jarModifier.save(temporaryLibrary);
+						} finally {
+							jarModifier.close();
+						}
+						Files.move(temporaryLibrary.toPath(), modifiedLibrary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+						Log.info("Modified: " + JReFrameworker.BUILD_DIRECTORY + "/" + modifiedLibrary.getName() + " (" + rebuiltClasses.size() + " affected classes)");
+						monitor.worked(1);
+					}
+				}, allEngines.size(), buildMonitor.newChild(1));
+			} finally {
+				closeEngines(allEngines);
+			}
+			jrefProject.refresh();
+		}
+		
+		buildState.save(buildStateFile);
+		return true;
+	}
+	
+	/**
+	 * The work of a build step for the engine of one target jar
+	 */
+	private static interface EngineTask {
+		public void run(Engine engine, ProcessingMonitor monitor) throws IOException;
+	}
+	
+	/**
+	 * Runs the task for each engine on its own worker of a fork join pool, each
+	 * target jar has its own engine so the tasks are independent. The tasks
+	 * report their progress in units of the given total work and stop between
+	 * input classes once the build is canceled. Progress monitors are not
+	 * thread safe, so the progress is forwarded by the calling thread.
+	 * 
+	 * @throws OperationCanceledException if the build was canceled
+	 */
+	private static void forEachEngine(Collection<Engine> engines, final EngineTask task, int totalWork, IProgressMonitor monitor) throws IOException {
+		final SubMonitor progress = SubMonitor.convert(monitor, totalWork);
+		final AtomicInteger worked = new AtomicInteger();
+		final ProcessingMonitor processingMonitor = new ProcessingMonitor(){
+			@Override
+			public boolean isCanceled() {
+				return progress.isCanceled();
+			}
+			@Override
+			public void worked(int inputClasses) {
+				worked.addAndGet(inputClasses);
+			}
+		};
+		
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(engines.size(), Runtime.getRuntime().availableProcessors())));
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for(final Engine engine : engines){
+				results.add(pool.submit(new Callable<Void>(){
+					@Override
+					public Void call() throws Exception {
+						if(!processingMonitor.isCanceled()){
+							task.run(engine, processingMonitor);
+						}
+						return null;
+					}
+				}));
+			}
+			
+			// wait for every task before reporting the first failure
+			int reported = 0;
+			IOException failure = null;
+			for(Future<Void> result : results){
+				boolean done = false;
+				while(!done){
+					try {
+						result.get(100, TimeUnit.MILLISECONDS);
+						done = true;
+					} catch (TimeoutException e){
+						// still running, report the progress so far
+					} catch (InterruptedException e){
+						pool.shutdownNow();
+						throw new OperationCanceledException();
+					} catch (ExecutionException e){
+						if(failure == null){
+							failure = getIOException(e);
 						}
+						done = true;
 					}
+					int total = worked.get();
+					progress.worked(total - reported);
+					reported = total;
 				}
-			} else if(file.isDirectory()){
-				buildProject(file, jrefProject, engineMap, allEngines, phase, namedPhase);
 			}
+			if(failure != null){
+				throw failure;
+			}
+			if(progress.isCanceled()){
+				throw new OperationCanceledException();
+			}
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 	
-	// TODO: see http://help.eclipse.org/mars/index.jsp?topic=%2Forg.eclipse.platform.doc.isv%2Fguide%2FresAdv_builders.htm
-	protected void incrementalBuild(IResourceDelta delta, IProgressMonitor monitor) throws CoreException {
-
-		// for now just doing nothing, incremental build is fighting with full build and can't delete rt.jar for some reason
+	/**
+	 * Runs the task for each engine in parallel within the fork join pool of
+	 * the calling build phase and waits for every task before reporting the
+	 * first failure
+	 */
+	private static void invokeEngineTasks(Collection<Engine> engines, final EngineTask task, final ProcessingMonitor monitor) throws IOException {
+		List<ForkJoinTask<Void>> results = new ArrayList<ForkJoinTask<Void>>();
+		for(final Engine engine : engines){
+			results.add(ForkJoinTask.adapt(new Callable<Void>(){
+				@Override
+				public Void call() throws Exception {
+					if(!monitor.isCanceled()){
+						task.run(engine, monitor);
+					}
+					return null;
+				}
+			}).fork());
+		}
+		IOException failure = null;
+		for(ForkJoinTask<Void> result : results){
+			try {
+				result.get();
+			} catch (InterruptedException e){
+				throw new InterruptedIOException();
+			} catch (ExecutionException e){
+				if(failure == null){
+					failure = getIOException(e);
+				}
+			}
+		}
+		if(failure != null){
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Returns the failure of a task, fork join tasks wrap the checked exceptions of their callables
+	 */
+	private static IOException getIOException(ExecutionException e){
+		for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()){
+			if(cause instanceof IOException){
+				return (IOException) cause;
+			}
+		}
+		return new IOException("Could not build the target jars", e.getCause());
+	}
+	
+	/**
+	 * The work of a build phase, the phase is built on a worker thread and
+	 * completed on the builder thread
+	 */
+	private static interface PhaseTask {
+		/**
+		 * Builds the phase and returns the jars it wrote
+		 */
+		public List<File> run(int phase, PhaseProgress progress) throws IOException;
 		
-//		Log.info("Incremental Build");
+		/**
+		 * Called on the builder thread once the phase has been built
+		 */
+		public void completed(int phase, List<File> modifiedLibraries) throws IOException;
+	}
+	
+	/**
+	 * The progress of a build phase, counted by the workers of the phase and
+	 * forwarded to the build's progress monitor by the builder thread
+	 */
+	private static class PhaseProgress implements ProcessingMonitor {
+		// the progress monitor units of a build phase
+		private static final int PHASE_WORK = 1000;
 		
-		// TODO: implement an incremental build
-//		delta.accept(new BuildDeltaVisitor());
+		private final IProgressMonitor monitor;
+		private volatile int totalWork = 0;
+		private final AtomicInteger worked = new AtomicInteger();
+		private int reported = 0;
 		
-//		// triggers a full rebuild
-//		this.forgetLastBuiltState();
-//		this.needRebuild();
+		private PhaseProgress(IProgressMonitor monitor){
+			this.monitor = monitor;
+		}
+		
+		@Override
+		public boolean isCanceled() {
+			return monitor.isCanceled();
+		}
+		
+		@Override
+		public void worked(int inputClasses) {
+			worked.addAndGet(inputClasses);
+		}
 		
-		// directly triggers a full rebuild
-//		fullBuild(monitor);
+		/**
+		 * Sets the number of input classes and jars of the phase once they are known
+		 */
+		public void setTotalWork(int totalWork){
+			this.totalWork = totalWork;
+		}
+		
+		/**
+		 * Returns the progress monitor units worked since the last report
+		 */
+		private int report(boolean completed){
+			int total = totalWork;
+			int units = PHASE_WORK;
+			if(!completed){
+				units = total == 0 ? 0 : (int) ((long) Math.min(worked.get(), total) * PHASE_WORK / total);
+			}
+			int newUnits = units - reported;
+			reported = units;
+			return newUnits;
+		}
 	}
 	
-//	private static class BuildVisitor implements IResourceVisitor {
-//		@Override
-//		public boolean visit(IResource resource) {
-//			System.out.println(resource.getLocation().toFile().getAbsolutePath());
-//			return true;
-//		}
-//	}
-//	
-//	private static class BuildDeltaVisitor implements IResourceDeltaVisitor {
-//		@Override
-//		public boolean visit(IResourceDelta delta) throws CoreException {
-//			switch (delta.getKind()) {
-//			case IResourceDelta.ADDED:
-//				System.out.print("Added: ");
-//				break;
-//			case IResourceDelta.REMOVED:
-//				System.out.print("Removed: ");
-//				break;
-//			case IResourceDelta.CHANGED:
-//				System.out.print("Changed: ");
-//				break;
-//			}
-//			System.out.println(delta.getFullPath().toOSString());
-//			return true;
-//		}
-//	}
+	/**
+	 * Runs each build phase on a fork join pool as soon as the earlier phases
+	 * it depends on have completed. Phases are completed on the calling thread
+	 * in the order they finish. After a failure or cancellation no further
+	 * phases are started, the running phases are waited for, and the first
+	 * failure is reported.
+	 * 
+	 * @throws OperationCanceledException if the build was canceled
+	 */
+	private static void runPhases(BuildPhaseGraph phaseGraph, final PhaseTask task, IProgressMonitor monitor) throws IOException {
+		final SubMonitor progress = SubMonitor.convert(monitor, phaseGraph.getPhases().size() * PhaseProgress.PHASE_WORK);
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		try {
+			CompletionService<List<File>> completionService = new ExecutorCompletionService<List<File>>(pool);
+			Map<Future<List<File>>,Integer> runningPhases = new HashMap<Future<List<File>>,Integer>();
+			Map<Integer,PhaseProgress> phaseProgress = new HashMap<Integer,PhaseProgress>();
+			IOException failure = null;
+			while(!phaseGraph.isComplete()){
+				if(failure == null && !progress.isCanceled()){
+					for(final int phase : phaseGraph.getReadyPhases()){
+						phaseGraph.start(phase);
+						final PhaseProgress currentProgress = new PhaseProgress(progress);
+						phaseProgress.put(phase, currentProgress);
+						runningPhases.put(completionService.submit(new Callable<List<File>>(){
+							@Override
+							public List<File> call() throws Exception {
+								return task.run(phase, currentProgress);
+							}
+						}), phase);
+					}
+				}
+				if(runningPhases.isEmpty()){
+					break;
+				}
+				
+				// wait for a running phase to finish, report the progress so far
+				Future<List<File>> result;
+				try {
+					result = completionService.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e){
+					pool.shutdownNow();
+					throw new OperationCanceledException();
+				}
+				for(Entry<Future<List<File>>,Integer> runningPhase : runningPhases.entrySet()){
+					progress.worked(phaseProgress.get(runningPhase.getValue()).report(false));
+				}
+				if(result != null){
+					int phase = runningPhases.remove(result);
+					try {
+						List<File> modifiedLibraries = result.get();
+						phaseGraph.complete(phase);
+						progress.worked(phaseProgress.get(phase).report(true));
+						if(failure == null && !progress.isCanceled()){
+							task.completed(phase, modifiedLibraries);
+						}
+					} catch (InterruptedException e){
+						pool.shutdownNow();
+						throw new OperationCanceledException();
+					} catch (ExecutionException e){
+						if(failure == null){
+							failure = getIOException(e);
+						}
+					}
+				}
+			}
+			if(failure != null){
+				throw failure;
+			}
+			if(progress.isCanceled()){
+				throw new OperationCanceledException();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Returns the graph of the build phases from the target jars each phase
+	 * modifies. A phase modifies the target jars that contain its target
+	 * classes. Defined types are added to every target jar, so a phase that
+	 * defines a type or targets a class that is not in an original jar or may
+	 * have been defined modifies every target jar. The last phase writes every
+	 * target jar, as does every phase when the intermediate phase jars are saved.
+	 */
+	private static BuildPhaseGraph getBuildPhaseGraph(List<IndexedClass> modifications, Map<Integer,Integer> phases, Set<Engine> allEngines, boolean saveIntermediatePhaseJars){
+		Set<String> allTargetJars = new HashSet<String>();
+		Map<String,Set<String>> classTargetJars = new HashMap<String,Set<String>>();
+		for(Engine engine : allEngines){
+			allTargetJars.add(engine.getJarName());
+			for(String entry : engine.getOriginalEntries()){
+				if(entry.endsWith(".class")){
+					String className = entry.substring(0, entry.length() - ".class".length());
+					Set<String> targetJars = classTargetJars.get(className);
+					if(targetJars == null){
+						targetJars = new HashSet<String>();
+						classTargetJars.put(className, targetJars);
+					}
+					targetJars.add(engine.getJarName());
+				}
+			}
+		}
+		
+		// the classes a definition may add to every target jar
+		Set<String> definedClasses = new HashSet<String>();
+		for(IndexedClass modification : modifications){
+			if(modification.hasTypeAnnotation(JREFAnnotationKind.DEFINE_TYPE)){
+				definedClasses.addAll(modification.getTargets());
+			}
+		}
+		
+		int lastPhase = Collections.max(phases.keySet());
+		Map<Integer,Set<String>> phaseTargetJars = new HashMap<Integer,Set<String>>();
+		for(Entry<Integer,Integer> phase : phases.entrySet()){
+			Set<String> targetJars = new HashSet<String>();
+			if(saveIntermediatePhaseJars || phase.getKey() == lastPhase){
+				targetJars.addAll(allTargetJars);
+			} else {
+				for(IndexedClass modification : modifications){
+					if(modification.isDefinition(phase.getValue())){
+						targetJars.addAll(allTargetJars);
+					}
+					for(String target : modification.getTargets(phase.getValue())){
+						if(!classTargetJars.containsKey(target) || definedClasses.contains(target)){
+							targetJars.addAll(allTargetJars);
+						} else {
+							targetJars.addAll(classTargetJars.get(target));
+						}
+					}
+				}
+			}
+			phaseTargetJars.put(phase.getKey(), targetJars);
+		}
+		return new BuildPhaseGraph(phaseTargetJars);
+	}
+	
+	/**
+	 * Closes the engines, releasing their original jars and the temporary files of their added entries
+	 */
+	private static void closeEngines(Collection<Engine> engines){
+		for(Engine engine : engines){
+			try {
+				engine.close();
+			} catch (IOException e){
+				Log.warning("Could not close the engine of " + engine.getJarName(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of threads each engine should use when all of the engines run at once
+	 */
+	private static int getEngineThreads(Collection<Engine> engines){
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, engines.size()));
+	}
+	
+	private File getBuildStateFile(JReFrameworkerProject jrefProject){
+		return jrefProject.getProject().getFile(JReFrameworker.BUILD_STATE_FILE).getLocation().toFile();
+	}
+	
+	/**
+	 * Returns the path of the class file relative to the binary directory using '/' separators
+	 */
+	private static String getModificationPath(File binDirectory, File file) throws IOException {
+		String base = binDirectory.getCanonicalPath();
+		String modificationPath = file.getCanonicalPath().substring(base.length());
+		if(modificationPath.charAt(0) == File.separatorChar){
+			modificationPath = modificationPath.substring(1);
+		}
+		return modificationPath.replace(File.separatorChar, '/');
+	}
 	
 	/**
 	 * Returns the JReFrameworker project to build or clean, if the project is invalid returns null
@@ -668,79 +1157,4 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 		}
 		return null;
 	}
-	
-	private static boolean hasMergeTypeModification(ClassNode classNode) throws IOException {
-		// TODO: address innerclasses, classNode.innerClasses, could these even be found from class files? they would be different files...
-		if(classNode.invisibleAnnotations != null){
-			for(Object annotationObject : classNode.invisibleAnnotations){
-				AnnotationNode annotationNode = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotationNode.desc, false);
-				if(checker.isMergeTypeAnnotation()){
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-	
-	private static boolean hasDefineTypeModification(ClassNode classNode) throws IOException {
-		// TODO: address innerclasses, classNode.innerClasses, could these even be found from class files? they would be different files...
-		if(classNode.invisibleAnnotations != null){
-			for(Object annotationObject : classNode.invisibleAnnotations){
-				AnnotationNode annotationNode = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotationNode.desc, false);
-				if(checker.isDefineTypeAnnotation()){
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-	
-	private static boolean hasPurgeModification(ClassNode classNode) throws IOException {
-		// TODO: address innerclasses, classNode.innerClasses, could these even be found from class files? they would be different files...
-		if(classNode.invisibleAnnotations != null){
-			for(Object annotationObject : classNode.invisibleAnnotations){
-				AnnotationNode annotationNode = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotationNode.desc, false);
-				if(checker.isPurgeAnnotation()){
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-	
-	private static boolean hasFinalityModification(ClassNode classNode) throws IOException {
-		// TODO: address innerclasses, classNode.innerClasses, could these even be found from class files? they would be different files...
-		if(classNode.invisibleAnnotations != null){
-			for(Object annotationObject : classNode.invisibleAnnotations){
-				AnnotationNode annotationNode = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotationNode.desc, false);
-				if(checker.isFinalityAnnotation()){
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-	
-	private static boolean hasVisibilityModification(ClassNode classNode) throws IOException {
-		// TODO: address innerclasses, classNode.innerClasses, could these even be found from class files? they would be different files...
-		if(classNode.invisibleAnnotations != null){
-			for(Object annotationObject : classNode.invisibleAnnotations){
-				AnnotationNode annotationNode = (AnnotationNode) annotationObject;
-				JREFAnnotationIdentifier checker = new JREFAnnotationIdentifier();
-				checker.visitAnnotation(annotationNode.desc, false);
-				if(checker.isVisibilityAnnotation()){
-					return true;
-				}
-			}
-		}
-		return false;
-	}
 }
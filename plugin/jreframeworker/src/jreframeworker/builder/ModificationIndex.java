@@ -0,0 +1,432 @@
+package jreframeworker.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.identifiers.AnnotationModel;
+import jreframeworker.engine.identifiers.AnnotationScanner;
+import jreframeworker.engine.identifiers.DefineFinalityIdentifier;
+import jreframeworker.engine.identifiers.DefineVisibilityIdentifier;
+import jreframeworker.engine.identifiers.JREFAnnotationKind;
+import jreframeworker.engine.identifiers.JREFAnnotationKind.Category;
+import jreframeworker.engine.identifiers.MergeIdentifier.MergeTypeAnnotation;
+import jreframeworker.engine.identifiers.PurgeIdentifier;
+import jreframeworker.engine.utils.TransformationCache;
+import jreframeworker.log.Log;
+
+/**
+ * An index of the class files in a project's binary directory that records the
+ * JReFrameworker annotations of each class, so that the build phases and the
+ * targets of each phase are looked up instead of parsed from every class file
+ * on every build. A class file is only parsed again when its size or
+ * modification time changed and its contents hash differs from the indexed
+ * hash.
+ *
+ * Class files are identified by their path relative to the binary directory
+ * using '/' separators (example: java/io/HiddenFile.class).
+ */
+public class ModificationIndex {
+
+	private static final String VERSION = "version";
+	private static final String LENGTH_PREFIX = "length:";
+	private static final String MODIFIED_PREFIX = "modified:";
+	private static final String HASH_PREFIX = "hash:";
+	private static final String KINDS_PREFIX = "kinds:";
+	private static final String PHASE_TARGETS_PREFIX = "phase:";
+	private static final String DEFINE_PHASE_PREFIX = "define:";
+	private static final String TARGETS_PREFIX = "targets:";
+	private static final String HIERARCHY_PREFIX = "hierarchy:";
+
+	/**
+	 * The indexed annotations of a class file
+	 */
+	public static class IndexedClass {
+		private String path;
+		private long length;
+		private long lastModified;
+		private String hash;
+		private EnumSet<JREFAnnotationKind> kinds = EnumSet.noneOf(JREFAnnotationKind.class);
+		private Map<Integer,Set<String>> phaseTargets = new TreeMap<Integer,Set<String>>();
+		private Integer definePhase = null;
+		private Set<String> targets = new HashSet<String>();
+		private boolean hierarchyModification = false;
+
+		private IndexedClass(String path){
+			this.path = path;
+		}
+
+		/**
+		 * Returns the path of the class file relative to the binary directory
+		 * @return
+		 */
+		public String getPath(){
+			return path;
+		}
+
+		/**
+		 * Returns true if the class carries any JReFrameworker type annotation
+		 * @return
+		 */
+		public boolean isModification(){
+			return !kinds.isEmpty();
+		}
+
+		public boolean hasTypeAnnotation(JREFAnnotationKind kind){
+			return kinds.contains(kind);
+		}
+
+		public boolean hasTypeAnnotation(Category category){
+			for(JREFAnnotationKind kind : kinds){
+				if(kind.getCategory() == category){
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the named build phases the class modifies classes in
+		 * @return
+		 */
+		public Set<Integer> getPhases(){
+			Set<Integer> phases = new TreeSet<Integer>(phaseTargets.keySet());
+			if(definePhase != null){
+				phases.add(definePhase);
+			}
+			return phases;
+		}
+
+		/**
+		 * Returns the classes purged, merged into, or given a new finality or
+		 * visibility by the class in the given named build phase
+		 * @param namedPhase
+		 * @return
+		 */
+		public Set<String> getTargets(int namedPhase){
+			Set<String> targets = phaseTargets.get(namedPhase);
+			if(targets == null){
+				return new HashSet<String>();
+			}
+			return targets;
+		}
+
+		/**
+		 * Returns true if the class defines a type in the given named build phase
+		 * @param namedPhase
+		 * @return
+		 */
+		public boolean isDefinition(int namedPhase){
+			return definePhase != null && definePhase == namedPhase;
+		}
+
+		/**
+		 * Returns the classes modified by the class in any build phase,
+		 * including the outer classes of modified inner classes
+		 * @return
+		 */
+		public Set<String> getTargets(){
+			return targets;
+		}
+
+		/**
+		 * Returns true if the class changes the class hierarchy (defines or purges a type)
+		 * @return
+		 */
+		public boolean isHierarchyModification(){
+			return hierarchyModification;
+		}
+	}
+
+	private Map<String,IndexedClass> classes = new HashMap<String,IndexedClass>();
+	private boolean modified = false;
+
+	/**
+	 * Loads the index, returns an empty index if there is no saved index, it
+	 * can not be read, or it was written by a different build of the engine
+	 * @param file
+	 * @return
+	 */
+	public static ModificationIndex load(File file){
+		ModificationIndex index = new ModificationIndex();
+		if(!file.exists()){
+			return index;
+		}
+		Properties properties;
+		try {
+			properties = BuildProperties.load(file);
+		} catch (IOException e){
+			return index;
+		}
+		if(!Engine.VERSION.equals(properties.getProperty(VERSION))){
+			return index;
+		}
+		try {
+			for(String key : properties.stringPropertyNames()){
+				if(key.startsWith(HASH_PREFIX)){
+					IndexedClass indexedClass = new IndexedClass(key.substring(HASH_PREFIX.length()));
+					indexedClass.hash = properties.getProperty(key);
+					indexedClass.length = Long.parseLong(properties.getProperty(LENGTH_PREFIX + indexedClass.path));
+					indexedClass.lastModified = Long.parseLong(properties.getProperty(MODIFIED_PREFIX + indexedClass.path));
+					for(String kind : BuildProperties.split(properties.getProperty(KINDS_PREFIX + indexedClass.path, ""))){
+						indexedClass.kinds.add(JREFAnnotationKind.valueOf(kind));
+					}
+					String definePhase = properties.getProperty(DEFINE_PHASE_PREFIX + indexedClass.path);
+					if(definePhase != null){
+						indexedClass.definePhase = Integer.parseInt(definePhase);
+					}
+					indexedClass.targets.addAll(BuildProperties.split(properties.getProperty(TARGETS_PREFIX + indexedClass.path, "")));
+					indexedClass.hierarchyModification = properties.containsKey(HIERARCHY_PREFIX + indexedClass.path);
+					index.classes.put(indexedClass.path, indexedClass);
+				}
+			}
+			for(String key : properties.stringPropertyNames()){
+				if(key.startsWith(PHASE_TARGETS_PREFIX)){
+					// phase:<phase>:<path>
+					String phaseAndPath = key.substring(PHASE_TARGETS_PREFIX.length());
+					int phase = Integer.parseInt(phaseAndPath.substring(0, phaseAndPath.indexOf(':')));
+					IndexedClass indexedClass = index.classes.get(phaseAndPath.substring(phaseAndPath.indexOf(':') + 1));
+					if(indexedClass != null){
+						indexedClass.phaseTargets.put(phase, new HashSet<String>(BuildProperties.split(properties.getProperty(key))));
+					}
+				}
+			}
+		} catch (RuntimeException e){
+			// a damaged index is rebuilt from the class files
+			return new ModificationIndex();
+		}
+		return index;
+	}
+
+	/**
+	 * Saves the index if it changed since it was loaded
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		if(!modified && file.exists()){
+			return;
+		}
+		Properties properties = new Properties();
+		properties.setProperty(VERSION, Engine.VERSION);
+		for(IndexedClass indexedClass : classes.values()){
+			String path = indexedClass.path;
+			properties.setProperty(HASH_PREFIX + path, indexedClass.hash);
+			properties.setProperty(LENGTH_PREFIX + path, Long.toString(indexedClass.length));
+			properties.setProperty(MODIFIED_PREFIX + path, Long.toString(indexedClass.lastModified));
+			if(indexedClass.isModification()){
+				Set<String> kinds = new HashSet<String>();
+				for(JREFAnnotationKind kind : indexedClass.kinds){
+					kinds.add(kind.name());
+				}
+				properties.setProperty(KINDS_PREFIX + path, BuildProperties.join(kinds));
+				for(Entry<Integer,Set<String>> phaseTargets : indexedClass.phaseTargets.entrySet()){
+					properties.setProperty(PHASE_TARGETS_PREFIX + phaseTargets.getKey() + ":" + path, BuildProperties.join(phaseTargets.getValue()));
+				}
+				if(indexedClass.definePhase != null){
+					properties.setProperty(DEFINE_PHASE_PREFIX + path, indexedClass.definePhase.toString());
+				}
+				properties.setProperty(TARGETS_PREFIX + path, BuildProperties.join(indexedClass.targets));
+				if(indexedClass.hierarchyModification){
+					properties.setProperty(HIERARCHY_PREFIX + path, Boolean.TRUE.toString());
+				}
+			}
+		}
+		BuildProperties.store(properties, file, "JReFrameworker modification index");
+		modified = false;
+	}
+
+	/**
+	 * Brings the index up to date with the class files in the binary
+	 * directory and returns the modification classes in the order the binary
+	 * directory is walked
+	 * @param binDirectory
+	 * @return
+	 * @throws IOException
+	 */
+	public List<IndexedClass> update(File binDirectory) throws IOException {
+		List<IndexedClass> modifications = new LinkedList<IndexedClass>();
+		Set<String> paths = new HashSet<String>();
+		if(binDirectory.exists()){
+			update(binDirectory.getCanonicalPath(), binDirectory, paths, modifications);
+		}
+		// forget the class files that no longer exist
+		if(classes.keySet().retainAll(paths)){
+			modified = true;
+		}
+		return modifications;
+	}
+
+	private void update(String base, File directory, Set<String> paths, List<IndexedClass> modifications) throws IOException {
+		File[] files = directory.listFiles();
+		for(File file : files){
+			if(file.isFile()){
+				if(file.getName().endsWith(".class")){
+					IndexedClass indexedClass = update(base, file);
+					paths.add(indexedClass.path);
+					if(indexedClass.isModification()){
+						modifications.add(indexedClass);
+					}
+				}
+			} else if(file.isDirectory()){
+				update(base, file, paths, modifications);
+			}
+		}
+	}
+
+	/**
+	 * Returns the up to date index of the class file
+	 */
+	private IndexedClass update(String base, File file) throws IOException {
+		String path = file.getCanonicalPath().substring(base.length());
+		if(path.charAt(0) == File.separatorChar){
+			path = path.substring(1);
+		}
+		path = path.replace(File.separatorChar, '/');
+
+		long length = file.length();
+		long lastModified = file.lastModified();
+		IndexedClass indexedClass = classes.get(path);
+		if(indexedClass != null && indexedClass.length == length && indexedClass.lastModified == lastModified){
+			return indexedClass;
+		}
+
+		byte[] classBytes = Files.readAllBytes(file.toPath());
+		String hash = new TransformationCache.Key().add(classBytes).toString();
+		modified = true;
+		if(indexedClass != null && indexedClass.hash.equals(hash)){
+			// the class file was rewritten with the same contents
+			indexedClass.length = length;
+			indexedClass.lastModified = lastModified;
+			return indexedClass;
+		}
+
+		indexedClass = new IndexedClass(path);
+		indexedClass.length = length;
+		indexedClass.lastModified = lastModified;
+		indexedClass.hash = hash;
+		if(classBytes.length > 0){
+			try {
+				index(indexedClass, classBytes);
+			} catch (RuntimeException e){
+				Log.error("Error indexing " + path + "...", e);
+				indexedClass.kinds.clear();
+				indexedClass.phaseTargets.clear();
+				indexedClass.definePhase = null;
+				indexedClass.targets.clear();
+				indexedClass.hierarchyModification = false;
+			}
+		}
+		classes.put(path, indexedClass);
+		return indexedClass;
+	}
+
+	/**
+	 * Records the annotations of the class, only the class header is read
+	 */
+	private static void index(IndexedClass indexedClass, byte[] classBytes) {
+		AnnotationModel annotations = AnnotationScanner.scan(classBytes);
+		for(JREFAnnotationKind kind : JREFAnnotationKind.values()){
+			if(annotations.hasTypeAnnotation(kind)){
+				indexedClass.kinds.add(kind);
+			}
+		}
+		if(!indexedClass.isModification()){
+			return;
+		}
+
+		// collect the named phases of the type annotations
+		Set<Integer> phases = new HashSet<Integer>();
+		if(annotations.hasTypeAnnotation(Category.PURGE)){
+			PurgeIdentifier purgeIdentifier = annotations.getPurgeIdentifier();
+			for(PurgeIdentifier.PurgeTypeAnnotation annotation : purgeIdentifier.getPurgeTypeAnnotations()){
+				phases.add(annotation.getPhase());
+			}
+			for(PurgeIdentifier.PurgeFieldAnnotation annotation : purgeIdentifier.getPurgeFieldAnnotations()){
+				phases.add(annotation.getPhase());
+			}
+			for(PurgeIdentifier.PurgeMethodAnnotation annotation : purgeIdentifier.getPurgeMethodAnnotations()){
+				phases.add(annotation.getPhase());
+			}
+			indexedClass.hierarchyModification |= !purgeIdentifier.getPurgeTypeAnnotations().isEmpty();
+		}
+		if(annotations.hasTypeAnnotation(Category.FINALITY)){
+			DefineFinalityIdentifier defineFinalityIdentifier = annotations.getDefineFinalityIdentifier();
+			for(DefineFinalityIdentifier.DefineTypeFinalityAnnotation annotation : defineFinalityIdentifier.getTargetTypes()){
+				phases.add(annotation.getPhase());
+			}
+			for(DefineFinalityIdentifier.DefineFieldFinalityAnnotation annotation : defineFinalityIdentifier.getTargetFields()){
+				phases.add(annotation.getPhase());
+			}
+			for(DefineFinalityIdentifier.DefineMethodFinalityAnnotation annotation : defineFinalityIdentifier.getTargetMethods()){
+				phases.add(annotation.getPhase());
+			}
+		}
+		if(annotations.hasTypeAnnotation(Category.VISIBILITY)){
+			DefineVisibilityIdentifier defineVisibilityIdentifier = annotations.getDefineVisibilityIdentifier();
+			for(DefineVisibilityIdentifier.DefineTypeVisibilityAnnotation annotation : defineVisibilityIdentifier.getTargetTypes()){
+				phases.add(annotation.getPhase());
+			}
+			for(DefineVisibilityIdentifier.DefineFieldVisibilityAnnotation annotation : defineVisibilityIdentifier.getTargetFields()){
+				phases.add(annotation.getPhase());
+			}
+			for(DefineVisibilityIdentifier.DefineMethodVisibilityAnnotation annotation : defineVisibilityIdentifier.getTargetMethods()){
+				phases.add(annotation.getPhase());
+			}
+		}
+
+		// record the targets of each phase
+		for(Integer phase : phases){
+			Set<String> targets = new HashSet<String>();
+			if(annotations.hasTypeAnnotation(Category.PURGE)){
+				targets.addAll(PurgeIdentifier.getPurgeTargets(annotations.getPurgeIdentifier(), phase));
+			}
+			if(annotations.hasTypeAnnotation(Category.FINALITY)){
+				targets.addAll(DefineFinalityIdentifier.getFinalityTargets(annotations.getDefineFinalityIdentifier(), phase));
+			}
+			if(annotations.hasTypeAnnotation(Category.VISIBILITY)){
+				targets.addAll(DefineVisibilityIdentifier.getVisibilityTargets(annotations.getDefineVisibilityIdentifier(), phase));
+			}
+			indexedClass.phaseTargets.put(phase, targets);
+		}
+
+		// define field, define method, and merge method must have the same phase as the define or merge type annotation
+		if(annotations.hasTypeAnnotation(JREFAnnotationKind.MERGE_TYPE)){
+			MergeTypeAnnotation mergeTypeAnnotation = annotations.getMergeIdentifier().getMergeTypeAnnotation();
+			Set<String> targets = indexedClass.phaseTargets.get(mergeTypeAnnotation.getPhase());
+			if(targets == null){
+				targets = new HashSet<String>();
+				indexedClass.phaseTargets.put(mergeTypeAnnotation.getPhase(), targets);
+			}
+			targets.add(mergeTypeAnnotation.getSupertype());
+		}
+		for(Set<String> targets : indexedClass.phaseTargets.values()){
+			indexedClass.targets.addAll(targets);
+		}
+		if(annotations.hasTypeAnnotation(JREFAnnotationKind.DEFINE_TYPE)){
+			indexedClass.definePhase = annotations.getDefineIdentifier().getDefineTypeAnnotation().getPhase();
+			indexedClass.targets.add(annotations.getDefineIdentifier().getDefineTypeAnnotation().getClassNode().name);
+			indexedClass.hierarchyModification = true;
+		}
+
+		// modifications to inner classes also modify the outer class
+		for(String target : new LinkedList<String>(indexedClass.targets)){
+			if(target.contains("$")){
+				indexedClass.targets.add(target.substring(0, target.lastIndexOf("$")));
+			}
+		}
+	}
+
+}
@@ -51,6 +51,9 @@ public class JReFrameworker {
 	public static final String BUILD_PHASE_DIRECTORY_PREFIX = "phase";
 	public static final String BUILD_CONFIG = BUILD_DIRECTORY + "/" + "config";
 	public static final String JREF_PROJECT_RESOURCE_DIRECTORY = ".jref"; // hidden directory
+	public static final String TRANSFORMATION_CACHE_DIRECTORY = JREF_PROJECT_RESOURCE_DIRECTORY + "/" + "cache";
+	public static final String BUILD_STATE_FILE = JREF_PROJECT_RESOURCE_DIRECTORY + "/" + "build-state";
+	public static final String MODIFICATION_INDEX_FILE = JREF_PROJECT_RESOURCE_DIRECTORY + "/" + "modification-index";
 	public static final String EXPORT_DIRECTORY = "export";
 	public static final String SOURCE_DIRECTORY = "src";
 	public static final String BINARY_DIRECTORY = "bin";
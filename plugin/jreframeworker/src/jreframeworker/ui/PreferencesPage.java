@@ -1,5 +1,6 @@
 package jreframeworker.ui;
 
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.ui.IWorkbench;
@@ -13,6 +14,10 @@ public class PreferencesPage extends FieldEditorPreferencePage implements IWorkb
 	public static final String MERGE_RENAME_PREFIX_DESCRIPTION = "Merge Renaming Prefix";
 	public static final String MERGE_RENAME_PREFIX_DEFAULT_VALUE = "jref_";
 	
+	public static final String SAVE_INTERMEDIATE_PHASE_JARS_BOOLEAN = "SAVE_INTERMEDIATE_PHASE_JARS";
+	public static final String SAVE_INTERMEDIATE_PHASE_JARS_DESCRIPTION = "Save Intermediate Build Phase Jars (for debugging)";
+	public static final boolean SAVE_INTERMEDIATE_PHASE_JARS_DEFAULT_VALUE = false;
+	
 	/**
 	 * Returns the user preference for the merge renaming prefix
 	 * @return
@@ -26,6 +31,18 @@ public class PreferencesPage extends FieldEditorPreferencePage implements IWorkb
 		return mergeRenamingPrefix;
 	}
 	
+	/**
+	 * Returns the user preference for writing the modified jars of each build
+	 * phase before the last phase
+	 * @return
+	 */
+	public static boolean isSaveIntermediatePhaseJarsEnabled(){
+		if(!Activator.getDefault().getPreferenceStore().contains(SAVE_INTERMEDIATE_PHASE_JARS_BOOLEAN)){
+			return SAVE_INTERMEDIATE_PHASE_JARS_DEFAULT_VALUE;
+		}
+		return Activator.getDefault().getPreferenceStore().getBoolean(SAVE_INTERMEDIATE_PHASE_JARS_BOOLEAN);
+	}
+	
 	public PreferencesPage() {
 		super(GRID);
 	}
@@ -47,6 +64,9 @@ public class PreferencesPage extends FieldEditorPreferencePage implements IWorkb
 			mergeRenamingPrefixStringField.setStringValue(MERGE_RENAME_PREFIX_DEFAULT_VALUE);
 		}
 		addField(mergeRenamingPrefixStringField);
+		
+		BooleanFieldEditor saveIntermediatePhaseJarsBooleanField = new BooleanFieldEditor(SAVE_INTERMEDIATE_PHASE_JARS_BOOLEAN, "&" + SAVE_INTERMEDIATE_PHASE_JARS_DESCRIPTION, getFieldEditorParent());
+		addField(saveIntermediatePhaseJarsBooleanField);
 	}
 
 }
\ No newline at end of file
@@ -4,7 +4,12 @@ package org.objectweb.asm;
  * A class used to specify an ordered list of class loaders to be used by ASM
  * 
  * @author Ben Holland
+ * @deprecated The class loaders are shared by every ClassWriter in the
+ *             process, use {@link ClassWriter#setClassLoaders} or override
+ *             {@link ClassWriter#getCommonSuperClass} instead. These class
+ *             loaders are only used by class writers that have none set.
  */
+@Deprecated
 public class ClassLoaders {
 	
 	 /**
@@ -515,6 +515,13 @@ public class ClassWriter extends ClassVisitor {
      */
     boolean hasAsmInsns;
 
+    /**
+     * The ordered class loaders used to load class definitions when computing
+     * common super classes, or <tt>null</tt> to use the deprecated global
+     * {@link ClassLoaders}.
+     */
+    private ClassLoader[] classLoaders;
+
     // ------------------------------------------------------------------------
     // Static initializer
     // ------------------------------------------------------------------------
@@ -668,6 +675,31 @@ public class ClassWriter extends ClassVisitor {
         this.cr = classReader;
     }
 
+    /**
+     * Sets the ordered class loaders used by this class writer to load class
+     * definitions in {@link #getCommonSuperClass getCommonSuperClass}. This
+     * takes precedence over the global {@link ClassLoaders}, so that class
+     * writers with different class loaders can be used concurrently.
+     * 
+     * @param classLoaders
+     *            the ordered class loaders to use.
+     */
+    public void setClassLoaders(final ClassLoader... classLoaders) {
+        this.classLoaders = classLoaders;
+    }
+
+    /**
+     * Returns the ordered class loaders used by this class writer to load
+     * class definitions.
+     * 
+     * @return the class loaders set on this class writer, or the global
+     *         {@link ClassLoaders} if none were set.
+     */
+    @SuppressWarnings("deprecation")
+    public ClassLoader[] getClassLoaders() {
+        return classLoaders != null ? classLoaders : ClassLoaders.getClassLoaders();
+    }
+
     // ------------------------------------------------------------------------
     // Implementation of the ClassVisitor abstract class
     // ------------------------------------------------------------------------
@@ -1723,12 +1755,14 @@ public class ClassWriter extends ClassVisitor {
         Class<?> c = null;
         Class<?> d = null;
         
-        for(ClassLoader classLoader : ClassLoaders.getClassLoaders()){
+        for(ClassLoader classLoader : getClassLoaders()){
         	try {
                 c = Class.forName(type1.replace('/', '.'), false, classLoader);
                 d = Class.forName(type2.replace('/', '.'), false, classLoader);
                 break;
             } catch (Exception e) {
+                c = null;
+                d = null;
                 continue;
             }
         }